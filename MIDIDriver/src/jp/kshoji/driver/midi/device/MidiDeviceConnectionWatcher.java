@@ -19,7 +19,10 @@ import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -27,8 +30,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import jp.kshoji.driver.midi.listener.OnMidiDeviceAttachedListener;
+import jp.kshoji.driver.midi.listener.OnMidiDeviceConnectionLatencyListener;
 import jp.kshoji.driver.midi.listener.OnMidiDeviceDetachedListener;
 import jp.kshoji.driver.midi.util.UsbMidiDeviceUtils;
 import jp.kshoji.driver.usb.util.DeviceFilter;
@@ -40,22 +49,53 @@ import jp.kshoji.driver.usb.util.DeviceFilter;
  * @author K.Shoji
  */
 public final class MidiDeviceConnectionWatcher {
+    // polling interval(msec) without the USB device attached / detached broadcasts
+    private static final int POLLING_INTERVAL = 1000;
+    // polling interval(msec) with the USB device attached / detached broadcasts, for safety
+    private static final int FALLBACK_POLLING_INTERVAL = 10000;
+    // the maximum number of devices opening at the same time
+    private static final int DEVICE_OPEN_THREADS = 4;
+    // the time(msec) to wait for the MIDI devices to stop, longer than the reading timeout of MidiInputDevice
+    private static final int DEFAULT_DEVICE_STOP_TIMEOUT = 2000;
+
 	private final MidiDeviceConnectionWatchThread thread;
+    private final UsbDeviceEventReceiver usbDeviceEventReceiver;
 	final Context context;
     final UsbManager usbManager;
 
     final Handler deviceDetachedHandler;
     final OnMidiDeviceDetachedListener deviceDetachedListener;
 
-    volatile boolean isGranting;
-    volatile UsbDevice grantingDevice;
+    // the devices requesting the permission or opening, guarded by deviceGrantQueue
+    final Set<UsbDevice> grantingDevices = new HashSet<>();
     final Queue<UsbDevice> deviceGrantQueue = new LinkedList<>();
+    final ExecutorService deviceOpenExecutor;
     final HashSet<UsbDevice> grantedDevices = new HashSet<>();
+    // true after stop() called, the devices opened after that are closed
+    volatile boolean stopped;
 
     Map<UsbDevice, UsbDeviceConnection> deviceConnections = new HashMap<>();
     Map<UsbDevice, Set<MidiInputDevice>> midiInputDevices = new HashMap<>();
     Map<UsbDevice, Set<MidiOutputDevice>> midiOutputDevices = new HashMap<>();
 
+    volatile OnMidiDeviceConnectionLatencyListener connectionLatencyListener;
+    // the time(System.nanoTime()) when the device attached / detached has been noticed, keyed by the device name
+    final Map<String, Long> attachedTimes = new ConcurrentHashMap<>();
+    final Map<String, Long> detachedTimes = new ConcurrentHashMap<>();
+
+    // time(msec) to wait for the MIDI devices to stop
+    volatile int deviceStopTimeout = DEFAULT_DEVICE_STOP_TIMEOUT;
+    volatile long lastDeviceStopDurationNanos;
+    volatile int deviceStopTimeoutCount;
+
+    // called by MidiInputDevice on its receiving thread, wakes up the watching thread
+    final Runnable disconnectSuspectedCallback = new Runnable() {
+        @Override
+        public void run() {
+            thread.interrupt();
+        }
+    };
+
     /**
 	 * Constructor
 	 *
@@ -64,58 +104,173 @@ public final class MidiDeviceConnectionWatcher {
      * @param deviceAttachedListener the OnMidiDeviceAttachedListener
      */
 	public MidiDeviceConnectionWatcher(@NonNull Context context, @NonNull UsbManager usbManager, @NonNull OnMidiDeviceAttachedListener deviceAttachedListener, @NonNull final OnMidiDeviceDetachedListener deviceDetachedListener) {
+        this(context, usbManager, deviceAttachedListener, deviceDetachedListener, false);
+	}
+
+    /**
+     * Constructor
+     *
+     * @param context the Context
+     * @param usbManager the UsbManager
+     * @param deviceAttachedListener the OnMidiDeviceAttachedListener
+     * @param eventDriven true: detects devices with the USB device attached / detached broadcasts, and polls slowly for safety. false: polls every second.
+     */
+    @SuppressLint("UnspecifiedRegisterReceiverFlag")
+    public MidiDeviceConnectionWatcher(@NonNull Context context, @NonNull UsbManager usbManager, @NonNull OnMidiDeviceAttachedListener deviceAttachedListener, @NonNull final OnMidiDeviceDetachedListener deviceDetachedListener, boolean eventDriven) {
 		this.context = context;
         this.usbManager = usbManager;
-		isGranting = false;
-        grantingDevice = null;
         this.deviceDetachedListener = deviceDetachedListener;
 
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DEVICE_OPEN_THREADS, DEVICE_OPEN_THREADS, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        deviceOpenExecutor = executor;
+
         deviceDetachedHandler = new Handler(Looper.getMainLooper());
 
-		thread = new MidiDeviceConnectionWatchThread(usbManager, deviceAttachedListener, deviceDetachedHandler);
+		thread = new MidiDeviceConnectionWatchThread(usbManager, deviceAttachedListener, deviceDetachedHandler, eventDriven ? FALLBACK_POLLING_INTERVAL : POLLING_INTERVAL);
         thread.setName("MidiDeviceConnectionWatchThread");
+
+        if (eventDriven) {
+            usbDeviceEventReceiver = new UsbDeviceEventReceiver();
+            IntentFilter filter = new IntentFilter(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+            filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                context.registerReceiver(usbDeviceEventReceiver, filter, RECEIVER_NOT_EXPORTED);
+            } else {
+                // @SuppressLint("UnspecifiedRegisterReceiverFlag")
+                context.registerReceiver(usbDeviceEventReceiver, filter);
+            }
+        } else {
+            usbDeviceEventReceiver = null;
+        }
+
 		thread.start();
 	}
 
     /**
-     * Notify the specified device has been detached
+     * Sets the listener to measure the time to process device attaching / detaching
+     *
+     * @param connectionLatencyListener the listener, null to remove
+     */
+    public void setOnMidiDeviceConnectionLatencyListener(@Nullable OnMidiDeviceConnectionLatencyListener connectionLatencyListener) {
+        this.connectionLatencyListener = connectionLatencyListener;
+    }
+
+    /**
+     * Sets the time to wait for the MIDI devices to stop, when the USB devices detached
      *
-     * @param detachedDevice the USB MIDI device
+     * @param deviceStopTimeout the timeout in milliseconds, default: 2000
      */
-    private void onDeviceDetached(@NonNull UsbDevice detachedDevice) {
-        deviceDetachedListener.onDeviceDetached(detachedDevice);
+    public void setDeviceStopTimeout(int deviceStopTimeout) {
+        this.deviceStopTimeout = Math.max(0, deviceStopTimeout);
+    }
 
-        // Stop input device's thread.
-        Set<MidiInputDevice> inputDevices = midiInputDevices.get(detachedDevice);
-        if (inputDevices != null && inputDevices.size() > 0) {
-            for (MidiInputDevice inputDevice : inputDevices) {
-                if (inputDevice != null) {
-                    inputDevice.stop();
+    /**
+     * @return the time to wait for the MIDI devices to stop in milliseconds
+     */
+    public int getDeviceStopTimeout() {
+        return deviceStopTimeout;
+    }
 
-                    deviceDetachedListener.onMidiInputDeviceDetached(inputDevice);
+    /**
+     * Get the time taken to stop the MIDI devices, on the last detaching
+     *
+     * @return the time in nanoseconds
+     */
+    public long getLastDeviceStopDurationNanos() {
+        return lastDeviceStopDurationNanos;
+    }
+
+    /**
+     * Get the number of MIDI devices which didn't stop within the timeout
+     *
+     * @return the number of MIDI devices since constructed
+     */
+    public int getDeviceStopTimeoutCount() {
+        return deviceStopTimeoutCount;
+    }
+
+    /**
+     * Notify the specified devices have been detached<br />
+     * All of the MIDI devices are requested to stop at once, and waited together until the deadline.
+     * The time to stop doesn't increase with the number of MIDI devices.
+     *
+     * @param detachedDevices the USB MIDI devices
+     */
+    private void onDevicesDetached(@NonNull Collection<UsbDevice> detachedDevices) {
+        final long startNanos = System.nanoTime();
+
+        // Request all threads to stop.
+        for (UsbDevice detachedDevice : detachedDevices) {
+            deviceDetachedListener.onDeviceDetached(detachedDevice);
+
+            Set<MidiInputDevice> inputDevices = midiInputDevices.get(detachedDevice);
+            if (inputDevices != null) {
+                for (MidiInputDevice inputDevice : inputDevices) {
+                    if (inputDevice != null) {
+                        inputDevice.requestStop();
+                    }
+                }
+            }
+
+            Set<MidiOutputDevice> outputDevices = midiOutputDevices.get(detachedDevice);
+            if (outputDevices != null) {
+                for (MidiOutputDevice outputDevice : outputDevices) {
+                    if (outputDevice != null) {
+                        outputDevice.requestStop();
+                    }
                 }
             }
-            midiInputDevices.remove(detachedDevice);
         }
 
-        Set<MidiOutputDevice> outputDevices = midiOutputDevices.get(detachedDevice);
-        if (outputDevices != null) {
-            for (MidiOutputDevice outputDevice : outputDevices) {
-                if (outputDevice != null) {
-                    outputDevice.stop();
+        // Wait for the threads, with the same deadline.
+        final long deadlineNanos = startNanos + deviceStopTimeout * 1_000_000L;
+        int timedOutCount = 0;
+        for (UsbDevice detachedDevice : detachedDevices) {
+            Set<MidiInputDevice> inputDevices = midiInputDevices.remove(detachedDevice);
+            if (inputDevices != null) {
+                for (MidiInputDevice inputDevice : inputDevices) {
+                    if (inputDevice != null) {
+                        if (!inputDevice.awaitStop(deadlineNanos)) {
+                            timedOutCount++;
+                            Log.w(TAG, "MidiInputDevice " + detachedDevice.getDeviceName() + " didn't stop in time.");
+                        }
 
-                    deviceDetachedListener.onMidiOutputDeviceDetached(outputDevice);
+                        deviceDetachedListener.onMidiInputDeviceDetached(inputDevice);
+                    }
                 }
             }
-            midiOutputDevices.remove(detachedDevice);
-        }
 
-        UsbDeviceConnection deviceConnection = deviceConnections.get(detachedDevice);
-        if (deviceConnection != null) {
-            deviceConnection.close();
+            Set<MidiOutputDevice> outputDevices = midiOutputDevices.remove(detachedDevice);
+            if (outputDevices != null) {
+                for (MidiOutputDevice outputDevice : outputDevices) {
+                    if (outputDevice != null) {
+                        if (!outputDevice.awaitStop(deadlineNanos)) {
+                            timedOutCount++;
+                            Log.w(TAG, "MidiOutputDevice " + detachedDevice.getDeviceName() + " didn't stop in time.");
+                        }
 
-            deviceConnections.remove(detachedDevice);
+                        deviceDetachedListener.onMidiOutputDeviceDetached(outputDevice);
+                    }
+                }
+            }
+
+            // the threads not stopped in time are waiting for the transfer, they will fail after closed
+            UsbDeviceConnection deviceConnection = deviceConnections.remove(detachedDevice);
+            if (deviceConnection != null) {
+                deviceConnection.close();
+            }
+
+            Long detachedTime = detachedTimes.remove(detachedDevice.getDeviceName());
+            OnMidiDeviceConnectionLatencyListener latencyListener = connectionLatencyListener;
+            if (detachedTime != null && latencyListener != null) {
+                latencyListener.onMidiDeviceDetachLatency(detachedDevice, System.nanoTime() - detachedTime);
+            }
         }
+
+        deviceStopTimeoutCount += timedOutCount;
+        lastDeviceStopDurationNanos = System.nanoTime() - startNanos;
     }
 
     /**
@@ -128,23 +283,64 @@ public final class MidiDeviceConnectionWatcher {
 	/**
 	 * Stops the watching thread <br />
 	 * <br />
-	 * Note: Takes one second until the thread stops.
+	 * Note: Blocks until all of the MIDI devices stopped, or the device stop timeout elapsed.
 	 * The device attached / detached events will be noticed until the thread will completely stops.
 	 */
 	public void stop() {
+        stopped = true;
+        if (usbDeviceEventReceiver != null) {
+            context.unregisterReceiver(usbDeviceEventReceiver);
+        }
+
 		thread.stopFlag = true;
         thread.interrupt();
 
 		// blocks while the thread will stop
-		while (thread.isAlive()) {
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-				// ignore
-			}
-		}
+		UsbMidiDeviceUtils.joinThread(thread, Long.MAX_VALUE, false);
+
+        // the devices being opened now are closed on onDeviceOpened
+        deviceOpenExecutor.shutdown();
+        try {
+            if (!deviceOpenExecutor.awaitTermination(deviceStopTimeout, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Opening devices didn't finish in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (deviceGrantQueue) {
+            grantingDevices.clear();
+        }
 	}
 	
+    /**
+     * Broadcast receiver for USB device attached / detached
+     *
+     * @author K.Shoji
+     */
+    private final class UsbDeviceEventReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context receiverContext, Intent intent) {
+            final long now = System.nanoTime();
+            final UsbDevice device;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE, UsbDevice.class);
+            } else {
+                device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+            }
+
+            if (device != null) {
+                if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(intent.getAction())) {
+                    attachedTimes.put(device.getDeviceName(), now);
+                } else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(intent.getAction())) {
+                    detachedTimes.put(device.getDeviceName(), now);
+                }
+            }
+
+            // check the devices immediately
+            thread.interrupt();
+        }
+    }
+
 	/**
 	 * Broadcast receiver for MIDI device connection granted
 	 * 
@@ -152,6 +348,7 @@ public final class MidiDeviceConnectionWatcher {
 	 */
 	private final class UsbMidiGrantedReceiver extends BroadcastReceiver {
 		private static final String USB_PERMISSION_GRANTED_ACTION = "jp.kshoji.driver.midi.USB_PERMISSION_GRANTED_ACTION";
+		private static final String EXTRA_DEVICE_NAME = "jp.kshoji.driver.midi.EXTRA_DEVICE_NAME";
 		
 		private final UsbDevice device;
 		private final OnMidiDeviceAttachedListener deviceAttachedListener;
@@ -169,62 +366,135 @@ public final class MidiDeviceConnectionWatcher {
 		public void onReceive(Context receiverContext, Intent intent) {
 			String action = intent.getAction();
 			if (USB_PERMISSION_GRANTED_ACTION.equals(action)) {
+                if (!device.getDeviceName().equals(intent.getStringExtra(EXTRA_DEVICE_NAME))) {
+                    // the result for another device
+                    return;
+                }
+
 				boolean granted = intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false);
 				if (granted) {
-                    grantedDevices.add(device);
-                    deviceAttachedListener.onDeviceAttached(device);
-
-                    UsbDeviceConnection deviceConnection = usbManager.openDevice(device);
-                    if (deviceConnection == null) {
-                        return;
+                    onDeviceGranted(device, deviceAttachedListener);
+				} else {
+                    attachedTimes.remove(device.getDeviceName());
+                    synchronized (deviceGrantQueue) {
+                        grantingDevices.remove(device);
                     }
+                }
+			}
+            context.unregisterReceiver(this);
+		}
+	}
 
-                    deviceConnections.put(device, deviceConnection);
+    /**
+     * Opens the granted device on the executor, and notifies the MIDI devices on the main thread
+     *
+     * @param device the UsbDevice
+     * @param deviceAttachedListener the OnMidiDeviceAttachedListener
+     */
+    void onDeviceGranted(@NonNull final UsbDevice device, @NonNull final OnMidiDeviceAttachedListener deviceAttachedListener) {
+        if (stopped) {
+            attachedTimes.remove(device.getDeviceName());
+            synchronized (deviceGrantQueue) {
+                grantingDevices.remove(device);
+            }
+            return;
+        }
 
-                    List<DeviceFilter> deviceFilters = DeviceFilter.getDeviceFilters(context.getApplicationContext());
+        deviceDetachedHandler.post(() -> {
+            if (stopped) {
+                return;
+            }
+            grantedDevices.add(device);
+            deviceAttachedListener.onDeviceAttached(device);
+        });
+
+        deviceOpenExecutor.execute(() -> {
+            final UsbDeviceConnection deviceConnection = usbManager.openDevice(device);
+            if (deviceConnection == null) {
+                attachedTimes.remove(device.getDeviceName());
+                synchronized (deviceGrantQueue) {
+                    grantingDevices.remove(device);
+                }
+                return;
+            }
 
-                    Set<MidiInputDevice> foundInputDevices = UsbMidiDeviceUtils.findMidiInputDevices(device, deviceConnection, deviceFilters);
-                    for (MidiInputDevice midiInputDevice : foundInputDevices) {
-                        try {
-                            Set<MidiInputDevice> inputDevices = midiInputDevices.get(device);
-                            if (inputDevices == null) {
-                                inputDevices = new HashSet<>();
-                            }
-                            inputDevices.add(midiInputDevice);
-                            midiInputDevices.put(device, inputDevices);
+            List<DeviceFilter> deviceFilters = DeviceFilter.getDeviceFilters(context.getApplicationContext());
+            final Set<MidiInputDevice> foundInputDevices = UsbMidiDeviceUtils.findMidiInputDevices(device, deviceConnection, deviceFilters);
+            final Set<MidiOutputDevice> foundOutputDevices = UsbMidiDeviceUtils.findMidiOutputDevices(device, deviceConnection, deviceFilters);
 
-                            deviceAttachedListener.onMidiInputDeviceAttached(midiInputDevice);
-                        } catch (IllegalArgumentException iae) {
-                            Log.d(TAG, "This device didn't have any input endpoints.", iae);
-                        }
-                    }
+            deviceDetachedHandler.post(() -> onDeviceOpened(device, deviceConnection, foundInputDevices, foundOutputDevices, deviceAttachedListener));
+        });
+    }
 
-                    Set<MidiOutputDevice> foundOutputDevices = UsbMidiDeviceUtils.findMidiOutputDevices(device, deviceConnection, deviceFilters);
-                    for (MidiOutputDevice midiOutputDevice : foundOutputDevices) {
-                        try {
-                            Set<MidiOutputDevice> outputDevices = midiOutputDevices.get(device);
-                            if (outputDevices == null) {
-                                outputDevices = new HashSet<>();
-                            }
-                            outputDevices.add(midiOutputDevice);
-                            midiOutputDevices.put(device, outputDevices);
-
-                            deviceAttachedListener.onMidiOutputDeviceAttached(midiOutputDevice);
-                        } catch (IllegalArgumentException iae) {
-                            Log.d(TAG, "This device didn't have any output endpoints.", iae);
-                        }
-                    }
+    /**
+     * Registers the opened device, and notifies the MIDI devices
+     *
+     * @param device the UsbDevice
+     * @param deviceConnection the opened UsbDeviceConnection
+     * @param foundInputDevices the MidiInputDevices found on the device
+     * @param foundOutputDevices the MidiOutputDevices found on the device
+     * @param deviceAttachedListener the OnMidiDeviceAttachedListener
+     */
+    private void onDeviceOpened(@NonNull UsbDevice device, @NonNull UsbDeviceConnection deviceConnection, @NonNull Set<MidiInputDevice> foundInputDevices, @NonNull Set<MidiOutputDevice> foundOutputDevices, @NonNull OnMidiDeviceAttachedListener deviceAttachedListener) {
+        boolean isGranting;
+        synchronized (deviceGrantQueue) {
+            isGranting = grantingDevices.remove(device);
+        }
+        if (!isGranting || stopped) {
+            // detached while opening, or the watcher has been stopped
+            for (MidiInputDevice midiInputDevice : foundInputDevices) {
+                midiInputDevice.stop();
+            }
+            for (MidiOutputDevice midiOutputDevice : foundOutputDevices) {
+                midiOutputDevice.stop();
+            }
+            deviceConnection.close();
+            attachedTimes.remove(device.getDeviceName());
+            return;
+        }
 
-                    Log.d(TAG, "Device " + device.getDeviceName() + " has been attached.");
-				}
+        deviceConnections.put(device, deviceConnection);
 
-                // reset the 'isGranting' to false
-                isGranting = false;
-                grantingDevice = null;
-			}
-            context.unregisterReceiver(this);
-		}
-	}
+        for (MidiInputDevice midiInputDevice : foundInputDevices) {
+            // the failed reads can be noticed before the detached broadcast, check the devices immediately
+            midiInputDevice.setDisconnectSuspectedCallback(disconnectSuspectedCallback);
+            try {
+                Set<MidiInputDevice> inputDevices = midiInputDevices.get(device);
+                if (inputDevices == null) {
+                    inputDevices = new HashSet<>();
+                }
+                inputDevices.add(midiInputDevice);
+                midiInputDevices.put(device, inputDevices);
+
+                deviceAttachedListener.onMidiInputDeviceAttached(midiInputDevice);
+            } catch (IllegalArgumentException iae) {
+                Log.d(TAG, "This device didn't have any input endpoints.", iae);
+            }
+        }
+
+        for (MidiOutputDevice midiOutputDevice : foundOutputDevices) {
+            try {
+                Set<MidiOutputDevice> outputDevices = midiOutputDevices.get(device);
+                if (outputDevices == null) {
+                    outputDevices = new HashSet<>();
+                }
+                outputDevices.add(midiOutputDevice);
+                midiOutputDevices.put(device, outputDevices);
+
+                deviceAttachedListener.onMidiOutputDeviceAttached(midiOutputDevice);
+            } catch (IllegalArgumentException iae) {
+                Log.d(TAG, "This device didn't have any output endpoints.", iae);
+            }
+        }
+
+        Log.d(TAG, "Device " + device.getDeviceName() + " has been attached.");
+
+        Long attachedTime = attachedTimes.remove(device.getDeviceName());
+        OnMidiDeviceConnectionLatencyListener latencyListener = connectionLatencyListener;
+        if (attachedTime != null && latencyListener != null) {
+            latencyListener.onMidiDeviceAttachLatency(device, System.nanoTime() - attachedTime);
+        }
+    }
 	
 	/**
 	 * USB Device polling thread
@@ -239,6 +509,8 @@ public final class MidiDeviceConnectionWatcher {
 		boolean stopFlag;
 		private List<DeviceFilter> deviceFilters;
 		private String packageName;
+		private final int pollingInterval;
+		private int permissionRequestCode;
 
 		/**
 		 * Constructor
@@ -246,11 +518,13 @@ public final class MidiDeviceConnectionWatcher {
 		 * @param usbManager the UsbManager
 		 * @param deviceAttachedListener the OnMidiDeviceAttachedListener
 		 * @param deviceDetachedHandler the OnMidiDeviceDetachedListener
+		 * @param pollingInterval the polling interval in msec
 		 */
-		MidiDeviceConnectionWatchThread(@NonNull UsbManager usbManager, @NonNull OnMidiDeviceAttachedListener deviceAttachedListener, @NonNull Handler deviceDetachedHandler) {
+		MidiDeviceConnectionWatchThread(@NonNull UsbManager usbManager, @NonNull OnMidiDeviceAttachedListener deviceAttachedListener, @NonNull Handler deviceDetachedHandler, int pollingInterval) {
 			this.usbManager = usbManager;
 			this.deviceAttachedListener = deviceAttachedListener;
 			this.deviceDetachedHandler = deviceDetachedHandler;
+			this.pollingInterval = pollingInterval;
 			this.packageName = context.getPackageName();
 			connectedDevices = new HashSet<>();
 			stopFlag = false;
@@ -266,12 +540,20 @@ public final class MidiDeviceConnectionWatcher {
 				checkConnectedDevices();
 				
 				synchronized (deviceGrantQueue) {
-					if (!deviceGrantQueue.isEmpty() && !isGranting) {
-						isGranting = true;
-						grantingDevice = deviceGrantQueue.remove();
+					// request the permissions for all of the pending devices at once
+					while (!deviceGrantQueue.isEmpty()) {
+						UsbDevice grantingDevice = deviceGrantQueue.remove();
+						grantingDevices.add(grantingDevice);
+
+						if (usbManager.hasPermission(grantingDevice)) {
+							// already granted, open immediately
+							onDeviceGranted(grantingDevice, deviceAttachedListener);
+							continue;
+						}
 
 						Intent intent = new Intent(UsbMidiGrantedReceiver.USB_PERMISSION_GRANTED_ACTION);
 						intent.setPackage(packageName); // make intent explicit
+						intent.putExtra(UsbMidiGrantedReceiver.EXTRA_DEVICE_NAME, grantingDevice.getDeviceName());
 
 						int intentFlags = 0;
 						if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
@@ -281,8 +563,9 @@ public final class MidiDeviceConnectionWatcher {
 							intentFlags |= PendingIntent.FLAG_ALLOW_UNSAFE_IMPLICIT_INTENT;
 						}
 
+						// the request code differs for each request, not to overwrite the pending requests
 						PendingIntent permissionIntent = PendingIntent.getBroadcast(
-							context, 0, intent, intentFlags
+							context, permissionRequestCode++, intent, intentFlags
 						);
 
 						UsbMidiGrantedReceiver receiver = new UsbMidiGrantedReceiver(grantingDevice, deviceAttachedListener);
@@ -300,18 +583,16 @@ public final class MidiDeviceConnectionWatcher {
 				}
 				
 				try {
-					sleep(1000);
+					sleep(pollingInterval);
 				} catch (InterruptedException e) {
-                    // interrupted
+                    // interrupted: device attached / detached
 				}
 			}
 
             // the thread is finishing now.
             // notify detaches all devices
-            for (UsbDevice device : grantedDevices) {
-                // call the method immediately
-                onDeviceDetached(device);
-            }
+            // call the method immediately
+            onDevicesDetached(new ArrayList<>(grantedDevices));
             grantedDevices.clear();
 		}
 
@@ -330,30 +611,52 @@ public final class MidiDeviceConnectionWatcher {
                 Set<UsbInterface> midiInterfaces = UsbMidiDeviceUtils.findAllMidiInterfaces(device, deviceFilters);
                 if (midiInterfaces.size() > 0) {
                     Log.d(TAG, "attached deviceName:" + device.getDeviceName() + ", device:" + device);
+                    if (!attachedTimes.containsKey(device.getDeviceName())) {
+                        // noticed by polling
+                        attachedTimes.put(device.getDeviceName(), System.nanoTime());
+                    }
                     synchronized (deviceGrantQueue) {
                         deviceGrantQueue.add(device);
                     }
+                } else {
+                    attachedTimes.remove(device.getDeviceName());
                 }
 			}
 			
 			// check detached device
+            final List<UsbDevice> detachedDevices = new ArrayList<>();
 			for (UsbDevice device : connectedDevices) {
 				if (!deviceMap.containsValue(device)) {
-                    if (device.equals(grantingDevice)) {
-                        // currently granting, but detached
-                        grantingDevice = null;
+                    attachedTimes.remove(device.getDeviceName());
+                    boolean isGranting;
+                    synchronized (deviceGrantQueue) {
+                        deviceGrantQueue.remove(device);
+                        isGranting = grantingDevices.remove(device);
+                    }
+                    if (isGranting) {
+                        // currently granting or opening, but detached
+                        detachedTimes.remove(device.getDeviceName());
+                        deviceDetachedHandler.post(() -> grantedDevices.remove(device));
                         continue;
                     }
 
+                    if (!detachedTimes.containsKey(device.getDeviceName())) {
+                        // noticed by polling
+                        detachedTimes.put(device.getDeviceName(), System.nanoTime());
+                    }
+
                     grantedDevices.remove(device);
 
 					Log.d(TAG, "detached deviceName:" + device.getDeviceName() + ", device:" + device);
-                    deviceDetachedHandler.post(() -> {
-                        onDeviceDetached(device);
-                    });
+                    detachedDevices.add(device);
 				}
 			}
 
+            if (!detachedDevices.isEmpty()) {
+                // stop the devices detached at once(such as a hub) together
+                deviceDetachedHandler.post(() -> onDevicesDetached(detachedDevices));
+            }
+
             // update current connection status
 			connectedDevices.clear();
             connectedDevices.addAll(deviceMap.values());
@@ -1,17 +1,32 @@
 package jp.kshoji.driver.midi.device;
 
+import android.hardware.usb.UsbConstants;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbRequest;
+import android.os.Build;
 import android.util.SparseIntArray;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jp.kshoji.driver.midi.listener.OnMidiInputDeviceDisconnectSuspectedListener;
 import jp.kshoji.driver.midi.listener.OnMidiInputEventListener;
-import jp.kshoji.driver.midi.util.ReusableByteArrayOutputStream;
+import jp.kshoji.driver.midi.listener.OnMidiInputPacketBatchListener;
+import jp.kshoji.driver.midi.listener.OnMidiInputRawDataListener;
+import jp.kshoji.driver.midi.listener.OnMidiSystemExclusiveSliceListener;
+import jp.kshoji.driver.midi.listener.OnMidiSystemExclusiveStreamListener;
+import jp.kshoji.driver.midi.util.MidiMessageType;
 import jp.kshoji.driver.midi.util.UsbMidiDeviceUtils;
+import jp.kshoji.driver.midi.util.UsbMidiPacketUtils;
 
 /**
  * MIDI Input Device
@@ -26,12 +41,63 @@ public final class MidiInputDevice {
 
     private static final int CABLE_COUNT = 16;
 
+    /**
+     * The cable ID for all cables, used with the filters
+     */
+    public static final int ALL_CABLES = -1;
+
+    /**
+     * The MIDI channel for all channels, used with the subscriptions
+     */
+    public static final int ALL_CHANNELS = -1;
+
+    // the kinds of Code Index Number
+    private static final int KIND_OTHER = 0;
+    private static final int KIND_CHANNEL_MESSAGE = 1;
+    private static final int KIND_SYSTEM_EXCLUSIVE = 2;
+
+    // Code Index Number(0-15) to the kind of the packet
+    private static final int[] CODE_INDEX_NUMBER_KINDS = {
+            KIND_OTHER, KIND_OTHER, KIND_OTHER, KIND_OTHER,
+            KIND_SYSTEM_EXCLUSIVE, KIND_OTHER, KIND_SYSTEM_EXCLUSIVE, KIND_SYSTEM_EXCLUSIVE,
+            KIND_CHANNEL_MESSAGE, KIND_CHANNEL_MESSAGE, KIND_CHANNEL_MESSAGE, KIND_CHANNEL_MESSAGE,
+            KIND_CHANNEL_MESSAGE, KIND_CHANNEL_MESSAGE, KIND_CHANNEL_MESSAGE, KIND_OTHER,
+    };
+
+    // the number of SysEx buffers kept for reuse
+    private static final int SYSTEM_EXCLUSIVE_POOL_SIZE = 16;
+    // the maximum length of a chunk for OnMidiSystemExclusiveStreamListener
+    private static final int SYSTEM_EXCLUSIVE_CHUNK_SIZE = 1024;
+
+    // timeout(msec) for waiting the input, to check the stopFlag
+    private static final int READ_TIMEOUT = 1000;
+    // the maximum length(bytes) of a bulk transfer, before API Level 28
+    private static final int MAX_READ_LENGTH = 16384;
+
+    // bulkTransfer returns -1 for both of the timeout and the error, the error returns without waiting the timeout
+    private static final long FAILED_READ_DURATION_NANOS = READ_TIMEOUT * 500_000L;
+    // the number of consecutive failed reads to suspect disconnection
+    private static final int DISCONNECT_SUSPECT_THRESHOLD = 3;
+    // waiting time(msec) after a failed read, doubles while failing
+    private static final int FAILED_READ_BACKOFF_MIN = 1;
+    private static final int FAILED_READ_BACKOFF_MAX = 500;
+
     private final UsbDevice usbDevice;
     final UsbDeviceConnection usbDeviceConnection;
     private final UsbInterface usbInterface;
     final UsbEndpoint inputEndpoint;
 
     private OnMidiInputEventListener midiEventListener;
+    private final MidiInputSubscriptionRegistry subscriptionRegistry = new MidiInputSubscriptionRegistry();
+    private OnMidiSystemExclusiveSliceListener systemExclusiveSliceListener;
+    private OnMidiSystemExclusiveStreamListener systemExclusiveStreamListener;
+    private OnMidiInputPacketBatchListener packetBatchListener;
+    private OnMidiInputRawDataListener rawDataListener;
+    private volatile OnMidiInputDeviceDisconnectSuspectedListener disconnectSuspectedListener;
+    // for MidiDeviceConnectionWatcher
+    private volatile Runnable disconnectSuspectedCallback;
+
+    final SystemExclusiveSlice.Pool systemExclusiveSlicePool = new SystemExclusiveSlice.Pool(SYSTEM_EXCLUSIVE_POOL_SIZE);
 
     private final WaiterThread waiterThread;
 
@@ -48,11 +114,15 @@ public final class MidiInputDevice {
         this.usbDeviceConnection = usbDeviceConnection;
         this.usbInterface = usbInterface;
 
-        waiterThread = new WaiterThread();
-
         inputEndpoint = usbEndpoint;
 
+        waiterThread = new WaiterThread();
+
         usbDeviceConnection.claimInterface(usbInterface, true);
+        if (UsbMidiReactor.isAvailable() && waiterThread.startOnReactor()) {
+            // received on the reactor thread
+            return;
+        }
         waiterThread.setPriority(8);
         waiterThread.setName("MidiInputDevice[" + usbDevice.getDeviceName() + "].WaiterThread");
         waiterThread.start();
@@ -65,27 +135,437 @@ public final class MidiInputDevice {
      */
     public void setMidiEventListener(OnMidiInputEventListener midiEventListener) {
         this.midiEventListener = midiEventListener;
-        this.waiterThread.setOnMidiInputEventListener(midiEventListener);
+        updateMidiEventListener();
+    }
+
+    /**
+     * Subscribes the events for the specified cable, channel and types.<br />
+     * The listener is called only with the subscribed events, after the listener set with {@link #setMidiEventListener(OnMidiInputEventListener)}.
+     * The RPN/NRPN events are delivered with {@link MidiMessageType#CONTROL_CHANGE}.
+     *
+     * @param listener the OnMidiInputEventListener
+     * @param cable the cable ID 0-15, or {@link #ALL_CABLES}
+     * @param channel the MIDI channel 0-15, or {@link #ALL_CHANNELS}. Ignored with the system messages.
+     * @param messageTypes the types, empty for all types
+     * @return the subscription, to unsubscribe
+     */
+    @NonNull
+    public MidiInputSubscription subscribe(@NonNull OnMidiInputEventListener listener, int cable, int channel, @NonNull MidiMessageType... messageTypes) {
+        final MidiInputSubscription subscription = new MidiInputSubscription(listener, cable, channel, messageTypes);
+        subscriptionRegistry.add(subscription);
+        updateMidiEventListener();
+        return subscription;
+    }
+
+    /**
+     * Unsubscribes the events
+     *
+     * @param subscription the subscription returned by {@link #subscribe(OnMidiInputEventListener, int, int, MidiMessageType...)}
+     * @return true if unsubscribed, false if already unsubscribed
+     */
+    public boolean unsubscribe(@NonNull MidiInputSubscription subscription) {
+        final boolean removed = subscriptionRegistry.remove(subscription);
+        if (removed) {
+            updateMidiEventListener();
+        }
+        return removed;
+    }
+
+    /**
+     * Passes the listener to the thread, dispatches with the registry only if subscribed
+     */
+    private synchronized void updateMidiEventListener() {
+        subscriptionRegistry.setPrimaryListener(midiEventListener);
+        if (subscriptionRegistry.isEmpty()) {
+            waiterThread.setOnMidiInputEventListener(midiEventListener);
+        } else {
+            waiterThread.setOnMidiInputEventListener(subscriptionRegistry);
+        }
+    }
+
+    /**
+     * Sets the OnMidiSystemExclusiveSliceListener<br />
+     * While the listener is set, SysEx messages are delivered to it with pooled buffers,
+     * instead of {@link OnMidiInputEventListener#onMidiSystemExclusive(MidiInputDevice, int, byte[])}.
+     *
+     * @param systemExclusiveSliceListener the OnMidiSystemExclusiveSliceListener, null to use {@link OnMidiInputEventListener}
+     */
+    public void setMidiSystemExclusiveSliceListener(@Nullable OnMidiSystemExclusiveSliceListener systemExclusiveSliceListener) {
+        this.systemExclusiveSliceListener = systemExclusiveSliceListener;
+        this.waiterThread.systemExclusiveSliceListener = systemExclusiveSliceListener;
+    }
+
+    /**
+     * Sets the OnMidiSystemExclusiveStreamListener<br />
+     * While the listener is set, SysEx messages are delivered to it piece by piece without buffering whole message,
+     * instead of {@link OnMidiSystemExclusiveSliceListener} or {@link OnMidiInputEventListener#onMidiSystemExclusive(MidiInputDevice, int, byte[])}.
+     *
+     * @param systemExclusiveStreamListener the OnMidiSystemExclusiveStreamListener, null to deliver whole messages
+     */
+    public void setMidiSystemExclusiveStreamListener(@Nullable OnMidiSystemExclusiveStreamListener systemExclusiveStreamListener) {
+        this.systemExclusiveStreamListener = systemExclusiveStreamListener;
+        this.waiterThread.systemExclusiveStreamListener = systemExclusiveStreamListener;
+    }
+
+    /**
+     * Sets the OnMidiInputPacketBatchListener<br />
+     * While the listener is set, the received packets are delivered to it once per transfer without decoding,
+     * instead of {@link OnMidiInputEventListener} and the SysEx listeners.
+     *
+     * @param packetBatchListener the OnMidiInputPacketBatchListener, null to decode the events
+     */
+    public void setMidiInputPacketBatchListener(@Nullable OnMidiInputPacketBatchListener packetBatchListener) {
+        this.packetBatchListener = packetBatchListener;
+        this.waiterThread.packetBatchListener = packetBatchListener;
+    }
+
+    /**
+     * Sets the OnMidiInputRawDataListener<br />
+     * While the listener is set, the received data is delivered to it as is,
+     * instead of {@link OnMidiInputPacketBatchListener}, {@link OnMidiInputEventListener} and the SysEx listeners.
+     *
+     * @param rawDataListener the OnMidiInputRawDataListener, null to decode the events
+     */
+    public void setMidiInputRawDataListener(@Nullable OnMidiInputRawDataListener rawDataListener) {
+        this.rawDataListener = rawDataListener;
+        this.waiterThread.rawDataListener = rawDataListener;
+    }
+
+    /**
+     * Sets the maximum length of SysEx message delivered as whole message.<br />
+     * Longer messages are discarded. {@link OnMidiSystemExclusiveStreamListener} is not affected by this limit.
+     *
+     * @param maxSystemExclusiveSize the maximum length in bytes, default: {@link Integer#MAX_VALUE}
+     */
+    public void setMaxSystemExclusiveSize(int maxSystemExclusiveSize) {
+        waiterThread.maxSystemExclusiveSize = maxSystemExclusiveSize;
+    }
+
+    /**
+     * @return the maximum length of SysEx message delivered as whole message
+     */
+    public int getMaxSystemExclusiveSize() {
+        return waiterThread.maxSystemExclusiveSize;
+    }
+
+    /**
+     * Get the time when the event currently notified has been received.<br />
+     * Valid only while the listener method called.
+     *
+     * @return the time based on {@link System#nanoTime()}
+     */
+    public long getEventTimestamp() {
+        return waiterThread.eventTimestampNanos;
+    }
+
+    /**
+     * Sets whether the timestamps of the events received at once are spread over the endpoint polling interval.<br />
+     * If disabled(default), all of the events received at once have the same timestamp.
+     *
+     * @param eventTimestampSpreadEnabled true to estimate the arrival time of each event
+     */
+    public void setEventTimestampSpreadEnabled(boolean eventTimestampSpreadEnabled) {
+        waiterThread.eventTimestampSpreadEnabled = eventTimestampSpreadEnabled;
+    }
+
+    /**
+     * @return true if the timestamps of the events received at once are spread over the endpoint polling interval
+     */
+    public boolean isEventTimestampSpreadEnabled() {
+        return waiterThread.eventTimestampSpreadEnabled;
+    }
+
+    /**
+     * Sets the number of {@link UsbRequest}s kept queued on the input endpoint.<br />
+     * 0(default): reads with synchronous bulkTransfer.<br />
+     * 1 or more: the endpoint always has pending requests while the received data is processing. Available on API Level 26 or later, and falls back to 0 if not available.<br />
+     * Ignored if the device is serviced by {@link UsbMidiReactor}.
+     *
+     * @param usbRequestCount the number of requests
+     */
+    public void setUsbRequestCount(int usbRequestCount) {
+        waiterThread.usbRequestCount = Math.max(0, usbRequestCount);
+    }
+
+    /**
+     * @return the number of {@link UsbRequest}s kept queued on the input endpoint, 0 if reading with synchronous bulkTransfer
+     */
+    public int getUsbRequestCount() {
+        return waiterThread.usbRequestCount;
+    }
+
+    /**
+     * Sets the length of each read, as the multiple of the endpoint's max packet size.<br />
+     * 1(default): reads one packet at once.<br />
+     * 2 or more: the packets queued on the device are received with one transfer(8 - 32 is recommended for the heavy traffic).
+     * A read finishes when the device sent a short packet, but the device sending only full packets can be delayed until the whole buffer filled.<br />
+     * Limited to 16384 bytes for each read.
+     * The requests already queued are canceled when changed, so set this before the data starts arriving.
+     *
+     * @param readPacketCount the number of packets
+     */
+    public void setReadPacketCount(int readPacketCount) {
+        final int maxPacketSize = Math.max(1, inputEndpoint.getMaxPacketSize());
+        waiterThread.readPacketCount = Math.max(1, Math.min(readPacketCount, MAX_READ_LENGTH / maxPacketSize));
+        if (waiterThread.onReactor) {
+            waiterThread.updateReadLengthOnReactor();
+        }
+    }
+
+    /**
+     * @return the length of each read, as the multiple of the endpoint's max packet size
+     */
+    public int getReadPacketCount() {
+        return waiterThread.readPacketCount;
+    }
+
+    /**
+     * Get the number of reads which received any data
+     *
+     * @return the number of reads
+     */
+    public long getReadCount() {
+        return waiterThread.readCount;
+    }
+
+    /**
+     * Get the number of USB MIDI event packets received
+     *
+     * @return the number of events
+     */
+    public long getReadEventCount() {
+        return waiterThread.readEventCount;
+    }
+
+    /**
+     * Get the number of reads which filled the whole buffer, the length is specified with {@link #setReadPacketCount(int)}.<br />
+     * Increasing this value means the device may have more data waiting, and its internal buffer can overflow.
+     *
+     * @return the number of reads
+     */
+    public long getFullReadCount() {
+        return waiterThread.fullReadCount;
+    }
+
+    /**
+     * Sets the filter for the Code Index Number, checked before decoding the packets.<br />
+     * Not applied to {@link OnMidiInputRawDataListener}.
+     *
+     * @param cable the cable ID 0-15, or {@link #ALL_CABLES}
+     * @param codeIndexNumber the Code Index Number 0-15, filter 0x4-0x7 together to discard SysEx messages
+     * @param filtered true to discard the packets
+     */
+    public synchronized void setCodeIndexNumberFilter(int cable, int codeIndexNumber, boolean filtered) {
+        final int[] codeIndexNumberFilters = waiterThread.codeIndexNumberFilters.clone();
+        for (int i = 0; i < CABLE_COUNT; i++) {
+            if (cable != ALL_CABLES && i != (cable & 0xf)) {
+                continue;
+            }
+            if (filtered) {
+                codeIndexNumberFilters[i] |= 1 << (codeIndexNumber & 0xf);
+            } else {
+                codeIndexNumberFilters[i] &= ~(1 << (codeIndexNumber & 0xf));
+            }
+        }
+        waiterThread.codeIndexNumberFilters = codeIndexNumberFilters;
+        updateFilterEnabled();
+    }
+
+    /**
+     * Sets the filter for the status byte, checked before decoding the packets.<br />
+     * Applied to the channel messages, the System Common messages of Code Index Number 0x2-0x3, and the System Real-time messages.<br />
+     * Not applied to Code Index Number 0x4-0x7: SysEx, and the single-byte System Common messages sharing CIN 0x5 with SysEx end, use {@link #setCodeIndexNumberFilter(int, int, boolean)}.
+     * Not applied to {@link OnMidiInputRawDataListener}.
+     *
+     * @param cable the cable ID 0-15, or {@link #ALL_CABLES}
+     * @param status the status byte 0x80-0xff, e.g. 0xf8: Timing Clock, 0xfe: Active Sensing
+     * @param filtered true to discard the packets
+     * @throws IllegalArgumentException the status is not 0x80-0xff
+     */
+    public synchronized void setStatusFilter(int cable, int status, boolean filtered) {
+        if (status < 0x80 || status > 0xff) {
+            throw new IllegalArgumentException("status must be 0x80-0xff");
+        }
+        final long[] statusFilters = waiterThread.statusFilters.clone();
+        setStatusFilter(statusFilters, cable, status, filtered);
+        waiterThread.statusFilters = statusFilters;
+        updateFilterEnabled();
+    }
+
+    /**
+     * Sets the filter for the channel message of all channels, checked before decoding the packets
+     *
+     * @param cable the cable ID 0-15, or {@link #ALL_CABLES}
+     * @param command the status byte without the channel 0x80-0xe0, e.g. 0xa0: Poly-KeyPress
+     * @param filtered true to discard the packets
+     * @throws IllegalArgumentException the command is not 0x80-0xe0
+     */
+    public synchronized void setChannelMessageFilter(int cable, int command, boolean filtered) {
+        if (command < 0x80 || command > 0xef) {
+            throw new IllegalArgumentException("command must be 0x80-0xe0");
+        }
+        final long[] statusFilters = waiterThread.statusFilters.clone();
+        for (int channel = 0; channel < 16; channel++) {
+            setStatusFilter(statusFilters, cable, (command & 0xf0) | channel, filtered);
+        }
+        waiterThread.statusFilters = statusFilters;
+        updateFilterEnabled();
+    }
+
+    /**
+     * Updates the copy of statusFilters, not published yet
+     *
+     * @param statusFilters the copy of statusFilters
+     * @param cable the cable ID 0-15, or {@link #ALL_CABLES}
+     * @param status the status byte 0x80-0xff
+     * @param filtered true to discard the packets
+     */
+    private static void setStatusFilter(@NonNull long[] statusFilters, int cable, int status, boolean filtered) {
+        for (int i = 0; i < CABLE_COUNT; i++) {
+            if (cable != ALL_CABLES && i != (cable & 0xf)) {
+                continue;
+            }
+            if (filtered) {
+                statusFilters[i * 2 + ((status - 0x80) >> 6)] |= 1L << (status & 63);
+            } else {
+                statusFilters[i * 2 + ((status - 0x80) >> 6)] &= ~(1L << (status & 63));
+            }
+        }
+    }
+
+    /**
+     * Estimates the polling interval of the endpoint.<br />
+     * Android doesn't tell the bus speed, so high-speed is assumed when wMaxPacketSize exceeds the full-speed limit of 64 bytes.
+     * (high-speed bulk endpoints are always 512 bytes)<br />
+     * Interrupt endpoints: 2^(bInterval-1) * 125usec on high-speed, bInterval msec on full-speed.<br />
+     * Bulk endpoints: bInterval is not a polling period, one microframe(125usec) on high-speed, one frame(1msec) on full-speed.
+     *
+     * @param endpoint the input endpoint
+     * @return the polling interval in nanoseconds
+     */
+    private static long getPollingIntervalNanos(@NonNull UsbEndpoint endpoint) {
+        final boolean highSpeed = endpoint.getMaxPacketSize() > 64;
+        if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_INT) {
+            if (highSpeed) {
+                return (1L << (Math.min(Math.max(endpoint.getInterval(), 1), 16) - 1)) * 125_000L;
+            }
+            return Math.max(1, endpoint.getInterval()) * 1_000_000L;
+        }
+        return highSpeed ? 125_000L : 1_000_000L;
+    }
+
+    /**
+     * Removes all the filters
+     */
+    public synchronized void clearFilters() {
+        waiterThread.codeIndexNumberFilters = new int[CABLE_COUNT];
+        waiterThread.statusFilters = new long[CABLE_COUNT * 2];
+        updateFilterEnabled();
+    }
+
+    /**
+     * Enables checking the filters only if any filter set
+     */
+    private void updateFilterEnabled() {
+        boolean filterEnabled = false;
+        for (int codeIndexNumberFilter : waiterThread.codeIndexNumberFilters) {
+            filterEnabled |= codeIndexNumberFilter != 0;
+        }
+        for (long statusFilter : waiterThread.statusFilters) {
+            filterEnabled |= statusFilter != 0;
+        }
+        waiterThread.filterEnabled = filterEnabled;
+    }
+
+    /**
+     * Get the number of USB MIDI event packets discarded by the filters
+     *
+     * @return the number of packets
+     */
+    public long getFilteredEventCount() {
+        long count = 0;
+        for (int i = 0; i < CABLE_COUNT; i++) {
+            count += waiterThread.filteredEventCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of USB MIDI event packets discarded by the filters for the cable
+     *
+     * @param cable the cable ID 0-15
+     * @return the number of packets
+     */
+    public long getFilteredEventCount(int cable) {
+        return waiterThread.filteredEventCounts.get(cable & 0xf);
+    }
+
+    /**
+     * Get the number of reads which failed, includes the failures to queue the {@link UsbRequest}
+     *
+     * @return the number of failed reads
+     */
+    public long getFailedReadCount() {
+        return waiterThread.failedReadCount;
+    }
+
+    /**
+     * Sets the OnMidiInputDeviceDisconnectSuspectedListener<br />
+     * The listener is notified when reading has failed repeatedly, before the USB device detached event arrives.
+     *
+     * @param disconnectSuspectedListener the listener, null to remove
+     */
+    public void setOnMidiInputDeviceDisconnectSuspectedListener(@Nullable OnMidiInputDeviceDisconnectSuspectedListener disconnectSuspectedListener) {
+        this.disconnectSuspectedListener = disconnectSuspectedListener;
+    }
+
+    /**
+     * Sets the callback for the suspected disconnection, used by {@link MidiDeviceConnectionWatcher}
+     *
+     * @param disconnectSuspectedCallback the callback, null to remove
+     */
+    void setDisconnectSuspectedCallback(@Nullable Runnable disconnectSuspectedCallback) {
+        this.disconnectSuspectedCallback = disconnectSuspectedCallback;
     }
 
     /**
      * stops the watching thread
      */
     void stop() {
+        requestStop();
+        awaitStop(Long.MAX_VALUE);
+    }
+
+    /**
+     * Requests the watching thread to stop, doesn't wait for the thread.<br />
+     * The pending {@link UsbRequest}s are canceled by the thread. The pending bulkTransfer can't be aborted, and returns within its timeout(1 second).
+     */
+    void requestStop() {
         midiEventListener = null;
+        systemExclusiveSliceListener = null;
+        systemExclusiveStreamListener = null;
         usbDeviceConnection.releaseInterface(usbInterface);
 
         waiterThread.stopFlag = true;
         resume();
 
-        // blocks while the thread will stop
-        while (waiterThread.isAlive()) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                // ignore
-            }
+        if (waiterThread.onReactor) {
+            waiterThread.stopOnReactor();
+            return;
         }
+
+        // wake up from waiting the requests, or backing off
+        waiterThread.interrupt();
+    }
+
+    /**
+     * Waits for the watching thread to stop, after {@link #requestStop()} called
+     *
+     * @param deadlineNanos the deadline based on {@link System#nanoTime()}, {@link Long#MAX_VALUE} to wait infinitely
+     * @return true if the thread has been stopped
+     */
+    boolean awaitStop(long deadlineNanos) {
+        return UsbMidiDeviceUtils.joinThread(waiterThread, deadlineNanos, false);
     }
 
     /**
@@ -174,6 +654,77 @@ public final class MidiInputDevice {
         final Object suspendSignal = new Object();
         volatile boolean suspendFlag;
         private OnMidiInputEventListener midiEventListener = MidiInputDevice.this.midiEventListener;
+        volatile OnMidiSystemExclusiveSliceListener systemExclusiveSliceListener = MidiInputDevice.this.systemExclusiveSliceListener;
+        volatile OnMidiSystemExclusiveStreamListener systemExclusiveStreamListener = MidiInputDevice.this.systemExclusiveStreamListener;
+        volatile OnMidiInputPacketBatchListener packetBatchListener = MidiInputDevice.this.packetBatchListener;
+        volatile OnMidiInputRawDataListener rawDataListener = MidiInputDevice.this.rawDataListener;
+        volatile int maxSystemExclusiveSize = Integer.MAX_VALUE;
+        volatile long eventTimestampNanos;
+        volatile boolean eventTimestampSpreadEnabled;
+        volatile int usbRequestCount;
+        volatile int readPacketCount = 1;
+
+        // statistics, only this thread updates
+        volatile long readCount;
+        volatile long readEventCount;
+        volatile long fullReadCount;
+        volatile long failedReadCount;
+
+        // the filters checked before decoding, replaced when changed
+        // bit n of codeIndexNumberFilters[cable]: Code Index Number n is filtered
+        volatile int[] codeIndexNumberFilters = new int[CABLE_COUNT];
+        // bit (status & 63) of statusFilters[cable * 2 + ((status - 0x80) >> 6)]: the status(0x80-0xff) is filtered
+        volatile long[] statusFilters = new long[CABLE_COUNT * 2];
+        volatile boolean filterEnabled;
+        // only this thread updates
+        final AtomicLongArray filteredEventCounts = new AtomicLongArray(CABLE_COUNT);
+
+        // for the failed reads
+        private int consecutiveFailedReadCount;
+        private int failedReadBackoff = FAILED_READ_BACKOFF_MIN;
+        private boolean disconnectSuspected;
+
+        // buffers
+        private final int maxPacketSize = inputEndpoint.getMaxPacketSize();
+        // the length of each read: maxPacketSize * readPacketCount
+        private int readLength = maxPacketSize;
+        // the received data is decoded in place, from the buffer of bulkTransfer or UsbRequest
+        private byte[] readBuffer = new byte[maxPacketSize];
+        private ByteBuffer readByteBuffer = ByteBuffer.wrap(readBuffer);
+        // the incomplete packet at the end of the last read
+        private int partialPacket;
+        private int partialPacketLength;
+        // the packets for OnMidiInputPacketBatchListener, reused
+        private int[] packetBatch = new int[0];
+        // the events received at once arrived within the polling interval
+        private final long spreadNanos = getPollingIntervalNanos(inputEndpoint);
+
+        // for RPN/NRPN
+        private final int[] rpnNrpnFunction = new int[CABLE_COUNT];
+        private final int[] rpnNrpnValueMsb = new int[CABLE_COUNT];
+        private final int[] rpnNrpnValueLsb = new int[CABLE_COUNT];
+        private final int[] rpnStatus = new int[CABLE_COUNT];
+        private final int[] rpnFunctionMsb = new int[CABLE_COUNT];
+        private final int[] rpnFunctionLsb = new int[CABLE_COUNT];
+        private final int[] nrpnFunctionMsb = new int[CABLE_COUNT];
+        private final int[] nrpnFunctionLsb = new int[CABLE_COUNT];
+
+        private final SparseIntArray[] rpnCacheMsb = new SparseIntArray[CABLE_COUNT];
+        private final SparseIntArray[] rpnCacheLsb = new SparseIntArray[CABLE_COUNT];
+        private final SparseIntArray[] nrpnCacheMsb = new SparseIntArray[CABLE_COUNT];
+        private final SparseIntArray[] nrpnCacheLsb = new SparseIntArray[CABLE_COUNT];
+
+        // for SysEx
+        private final SystemExclusiveSlice[] systemExclusive = new SystemExclusiveSlice[CABLE_COUNT];
+        // streaming to OnMidiSystemExclusiveStreamListener
+        private final boolean[] systemExclusiveStreaming = new boolean[CABLE_COUNT];
+        // exceeded maxSystemExclusiveSize, ignore until the end of message
+        private final boolean[] systemExclusiveOverflow = new boolean[CABLE_COUNT];
+
+        // receiving on UsbMidiReactor
+        volatile boolean onReactor;
+        private UsbRequestDispatcher reactorDispatcher;
+        private UsbRequestDispatcher.Transfer[] reactorTransfers;
 
         void setOnMidiInputEventListener(OnMidiInputEventListener listener) {
             midiEventListener = listener;
@@ -191,61 +742,76 @@ public final class MidiInputDevice {
         public void run() {
             final UsbDeviceConnection deviceConnection = usbDeviceConnection;
             final UsbEndpoint usbEndpoint = inputEndpoint;
-            final int maxPacketSize = inputEndpoint.getMaxPacketSize();
-            final MidiInputDevice sender = MidiInputDevice.this;
 
             // prepare buffer variables
-            final byte[] bulkReadBuffer = new byte[maxPacketSize];
-            final byte[] readBuffer = new byte[maxPacketSize * 2]; // *2 for safety (BUFFER_LENGTH+4 would be enough)
-            int readBufferSize = 0;
-            final byte[] read = new byte[maxPacketSize * 2];
             int length;
-            int cable;
-            int codeIndexNumber;
-            int byte1;
-            int byte2;
-            int byte3;
-            int i;
-            int readSize;
-            int unreadSize;
-
-            // for RPN/NRPN
-            final int[] rpnNrpnFunction = new int[CABLE_COUNT];
-            final int[] rpnNrpnValueMsb = new int[CABLE_COUNT];
-            final int[] rpnNrpnValueLsb = new int[CABLE_COUNT];
-            final int[] rpnStatus = new int[CABLE_COUNT];
-            final int[] rpnFunctionMsb = new int[CABLE_COUNT];
-            final int[] rpnFunctionLsb = new int[CABLE_COUNT];
-            final int[] nrpnFunctionMsb = new int[CABLE_COUNT];
-            final int[] nrpnFunctionLsb = new int[CABLE_COUNT];
-
-            final SparseIntArray[] rpnCacheMsb = new SparseIntArray[CABLE_COUNT];
-            final SparseIntArray[] rpnCacheLsb = new SparseIntArray[CABLE_COUNT];
-            final SparseIntArray[] nrpnCacheMsb = new SparseIntArray[CABLE_COUNT];
-            final SparseIntArray[] nrpnCacheLsb = new SparseIntArray[CABLE_COUNT];
-
-            // for SysEx
-            final ReusableByteArrayOutputStream[] systemExclusive = new ReusableByteArrayOutputStream[CABLE_COUNT];
-
-            for (i = 0; i < CABLE_COUNT; i++) {
-                rpnStatus[i] = RPN_STATUS_NONE;
-                rpnFunctionMsb[i] = 0x7f;
-                rpnFunctionLsb[i] = 0x7f;
-                nrpnFunctionMsb[i] = 0x7f;
-                nrpnFunctionLsb[i] = 0x7f;
-                rpnCacheMsb[i] = new SparseIntArray();
-                rpnCacheLsb[i] = new SparseIntArray();
-                nrpnCacheMsb[i] = new SparseIntArray();
-                nrpnCacheLsb[i] = new SparseIntArray();
-                systemExclusive[i] = new ReusableByteArrayOutputStream();
-            }
+            long readTimeNanos;
+            long readStartNanos;
+            boolean readLengthChanged;
+            ByteBuffer receivedData;
+            UsbRequestDispatcher usbRequestDispatcher = null;
+            UsbRequestDispatcher.Transfer[] usbRequests = null;
+            UsbRequestDispatcher.Transfer usbRequestTransfer;
+            final BlockingQueue<UsbRequestDispatcher.Transfer> completedTransfers = new LinkedBlockingQueue<>();
+
+            prepare();
 
             // Don't allocate instances in the loop, as much as possible.
             while (!stopFlag) {
-                length = deviceConnection.bulkTransfer(usbEndpoint, bulkReadBuffer, maxPacketSize, 1000);
+                readLengthChanged = updateReadLength();
+
+                if (usbRequestCount > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    if (usbRequests == null || usbRequests.length != usbRequestCount || readLengthChanged) {
+                        if (usbRequestDispatcher == null) {
+                            usbRequestDispatcher = UsbRequestDispatcher.acquire(deviceConnection);
+                        }
+                        UsbRequestDispatcher.closeTransfers(usbRequests);
+                        completedTransfers.clear();
+                        usbRequests = openUsbRequests(usbRequestDispatcher, usbEndpoint, usbRequestCount, completedTransfers::offer);
+                        if (usbRequests == null) {
+                            // UsbRequest is not available
+                            usbRequestCount = 0;
+                        }
+                    }
+                } else if (usbRequestDispatcher != null) {
+                    UsbRequestDispatcher.closeTransfers(usbRequests);
+                    usbRequests = null;
+                    usbRequestDispatcher.release();
+                    usbRequestDispatcher = null;
+                }
+
+                usbRequestTransfer = null;
+                receivedData = readByteBuffer;
+                if (usbRequests != null) {
+                    usbRequestTransfer = pollUsbRequest(completedTransfers, usbRequests);
+                    readTimeNanos = System.nanoTime();
+                    if (usbRequestTransfer == null) {
+                        length = 0;
+                    } else {
+                        // decoded directly from the buffer of the request
+                        receivedData = usbRequestTransfer.buffer;
+                        length = receivedData.position();
+                    }
+                } else {
+                    readStartNanos = System.nanoTime();
+                    length = deviceConnection.bulkTransfer(usbEndpoint, readBuffer, readLength, READ_TIMEOUT);
+                    readTimeNanos = System.nanoTime();
+
+                    if (length < 0 && readTimeNanos - readStartNanos < FAILED_READ_DURATION_NANOS) {
+                        // failed immediately: the device may have been disconnected, don't retry in a busy loop
+                        try {
+                            sleep(onReadFailed());
+                        } catch (InterruptedException e) {
+                            // ignore
+                        }
+                        continue;
+                    }
+                    onReadSucceeded();
+                }
 
                 synchronized (suspendSignal) {
                     if (suspendFlag) {
+                        requeueUsbRequest(usbRequestTransfer);
                         try {
                             // check the deviceConnection to ignore events while suspending.
                             // Note: Events received within last sleeping(100msec) will be sent to the midiEventListener.
@@ -257,308 +823,832 @@ public final class MidiInputDevice {
                     }
                 }
 
-                if (length <= 0) {
-                    continue;
+                if (length > 0) {
+                    onReceived(receivedData, length, readTimeNanos);
                 }
+                // decoded, the buffer can be reused
+                requeueUsbRequest(usbRequestTransfer);
+            }
+
+            // the thread is finishing now.
+            UsbRequestDispatcher.closeTransfers(usbRequests);
+            if (usbRequestDispatcher != null) {
+                usbRequestDispatcher.release();
+            }
 
-                System.arraycopy(bulkReadBuffer, 0, readBuffer, readBufferSize, length);
-                readBufferSize += length;
+            finish();
+        }
+
+        /**
+         * Starts receiving on {@link UsbMidiReactor}, instead of starting the thread
+         *
+         * @return true if started
+         */
+        synchronized boolean startOnReactor() {
+            prepare();
 
-                if (readBufferSize < 4) {
+            // holding the lock, the requests completed before reactorTransfers assigned wait for this method
+            reactorDispatcher = UsbRequestDispatcher.acquire(usbDeviceConnection);
+            reactorTransfers = openUsbRequests(reactorDispatcher, inputEndpoint, UsbMidiReactor.USB_REQUEST_COUNT, this::onReactorTransferCompleted);
+            if (reactorTransfers == null) {
+                reactorDispatcher.release();
+                reactorDispatcher = null;
+                return false;
+            }
+            reactorDispatcher.setInterruptTransfer(reactorTransfers[0]);
+            onReactor = true;
+            return true;
+        }
+
+        /**
+         * Stops receiving on {@link UsbMidiReactor}
+         */
+        synchronized void stopOnReactor() {
+            if (reactorDispatcher != null) {
+                reactorDispatcher.clearInterruptTransfer(reactorTransfers);
+            }
+            UsbRequestDispatcher.closeTransfers(reactorTransfers);
+            reactorTransfers = null;
+            if (reactorDispatcher != null) {
+                reactorDispatcher.release();
+                reactorDispatcher = null;
+            }
+
+            finish();
+        }
+
+        /**
+         * Called on the reactor thread when a request completed
+         *
+         * @param transfer the completed request
+         */
+        private synchronized void onReactorTransferCompleted(@NonNull UsbRequestDispatcher.Transfer transfer) {
+            if (stopFlag || !UsbRequestDispatcher.contains(reactorTransfers, transfer)) {
+                // already closed
+                return;
+            }
+
+            final long readTimeNanos = System.nanoTime();
+            final int length = transfer.buffer.position();
+            if (!suspendFlag && length > 0) {
+                // decoded directly from the buffer of the request
+                onReceived(transfer.buffer, length, readTimeNanos);
+            }
+
+            // decoded, the buffer can be reused
+            requeueUsbRequest(transfer);
+        }
+
+        /**
+         * Reopens the requests on {@link UsbMidiReactor}, if the length of each read has been changed
+         */
+        synchronized void updateReadLengthOnReactor() {
+            if (stopFlag || reactorDispatcher == null || !updateReadLength()) {
+                return;
+            }
+            reactorDispatcher.clearInterruptTransfer(reactorTransfers);
+            UsbRequestDispatcher.closeTransfers(reactorTransfers);
+            reactorTransfers = openUsbRequests(reactorDispatcher, inputEndpoint, UsbMidiReactor.USB_REQUEST_COUNT, this::onReactorTransferCompleted);
+            if (reactorTransfers != null) {
+                reactorDispatcher.setInterruptTransfer(reactorTransfers[0]);
+            }
+        }
+
+        /**
+         * Applies the readPacketCount, and extends the buffers if needed
+         *
+         * @return true if the length of each read has been changed
+         */
+        private boolean updateReadLength() {
+            final int length = maxPacketSize * readPacketCount;
+            if (length == readLength) {
+                return false;
+            }
+            readLength = length;
+            if (readBuffer.length < length) {
+                readBuffer = new byte[length];
+                readByteBuffer = ByteBuffer.wrap(readBuffer);
+            }
+            return true;
+        }
+
+        /**
+         * Called when a bulkTransfer failed immediately
+         *
+         * @return the time(msec) to wait before the next read
+         */
+        private int onReadFailed() {
+            failedReadCount++;
+            consecutiveFailedReadCount++;
+            if (consecutiveFailedReadCount >= DISCONNECT_SUSPECT_THRESHOLD) {
+                notifyDisconnectSuspected();
+            }
+
+            final int backoff = failedReadBackoff;
+            failedReadBackoff = Math.min(backoff * 2, FAILED_READ_BACKOFF_MAX);
+            return backoff;
+        }
+
+        /**
+         * Called when a {@link UsbRequest} couldn't be queued again.<br />
+         * The request is lost, so notifies immediately.
+         */
+        private void onUsbRequestQueueFailed() {
+            failedReadCount++;
+            consecutiveFailedReadCount++;
+            notifyDisconnectSuspected();
+        }
+
+        /**
+         * Called when reading succeeded, or timed out normally
+         */
+        private void onReadSucceeded() {
+            consecutiveFailedReadCount = 0;
+            failedReadBackoff = FAILED_READ_BACKOFF_MIN;
+            disconnectSuspected = false;
+        }
+
+        /**
+         * Notifies the suspected disconnection, once until reading succeeds again.<br />
+         * Notifies again with the next failure, if no one was notified.
+         */
+        private void notifyDisconnectSuspected() {
+            if (disconnectSuspected) {
+                return;
+            }
+
+            final Runnable callback = disconnectSuspectedCallback;
+            if (callback != null) {
+                callback.run();
+                disconnectSuspected = true;
+            }
+            final OnMidiInputDeviceDisconnectSuspectedListener listener = disconnectSuspectedListener;
+            if (listener != null) {
+                listener.onMidiInputDeviceDisconnectSuspected(MidiInputDevice.this, consecutiveFailedReadCount);
+                disconnectSuspected = true;
+            }
+        }
+
+        /**
+         * Initializes the decoder state
+         */
+        private void prepare() {
+            for (int i = 0; i < CABLE_COUNT; i++) {
+                rpnStatus[i] = RPN_STATUS_NONE;
+                rpnFunctionMsb[i] = 0x7f;
+                rpnFunctionLsb[i] = 0x7f;
+                nrpnFunctionMsb[i] = 0x7f;
+                nrpnFunctionLsb[i] = 0x7f;
+                rpnCacheMsb[i] = new SparseIntArray();
+                rpnCacheLsb[i] = new SparseIntArray();
+                nrpnCacheMsb[i] = new SparseIntArray();
+                nrpnCacheLsb[i] = new SparseIntArray();
+                systemExclusive[i] = systemExclusiveSlicePool.obtain();
+            }
+        }
+
+        /**
+         * Decodes the received data in place, and notifies the events
+         *
+         * @param data the received data, stored from the index 0. read with the absolute index, the position is ignored.
+         * @param length the length received
+         * @param readTimeNanos the time received
+         */
+        private void onReceived(@NonNull ByteBuffer data, int length, long readTimeNanos) {
+            final MidiInputDevice sender = MidiInputDevice.this;
+            int offset = 0;
+            int packet;
+            int i;
+
+            readCount++;
+            readEventCount += length / 4;
+            if (length >= readLength) {
+                fullReadCount++;
+            }
+
+            final OnMidiInputRawDataListener rawDataListener = this.rawDataListener;
+            if (rawDataListener != null) {
+                // the data is passed through, discard the incomplete packet decoded before
+                partialPacketLength = 0;
+                eventTimestampNanos = readTimeNanos;
+                if (data.hasArray()) {
+                    rawDataListener.onMidiInputRawData(sender, data.array(), data.arrayOffset(), length, readTimeNanos);
+                } else {
+                    // the listener needs an array
+                    for (i = 0; i < length; i++) {
+                        readBuffer[i] = data.get(i);
+                    }
+                    rawDataListener.onMidiInputRawData(sender, readBuffer, 0, length, readTimeNanos);
+                }
+                return;
+            }
+
+            final OnMidiInputPacketBatchListener packetBatchListener = this.packetBatchListener;
+            if (packetBatchListener != null) {
+                onPacketBatchReceived(packetBatchListener, data, length, readTimeNanos);
+                return;
+            }
+
+            // the number of packets completed with this read
+            final int packetCount = (partialPacketLength + length) / 4;
+            int packetIndex = 0;
+
+            if (partialPacketLength > 0) {
+                // completes the packet started with the last read
+                while (partialPacketLength < 4 && offset < length) {
+                    partialPacket = (partialPacket << 8) | (data.get(offset++) & 0xff);
+                    partialPacketLength++;
+                }
+                if (partialPacketLength < 4) {
                     // more data needed
-                    continue;
+                    return;
                 }
+                partialPacketLength = 0;
+                updateEventTimestamp(readTimeNanos, packetIndex++, packetCount);
+                onPacketReceived(sender, partialPacket >>> 24, (partialPacket >> 16) & 0xff, (partialPacket >> 8) & 0xff, partialPacket & 0xff);
+            }
 
-                // USB MIDI data stream: 4 bytes boundary
-                readSize = readBufferSize / 4 * 4;
-                System.arraycopy(readBuffer, 0, read, 0, readSize); // fill the read array
+            // USB MIDI data stream: 4 bytes boundary
+            final int packetsEnd = offset + (length - offset) / 4 * 4;
+            for (i = offset; i < packetsEnd; i += 4) {
+                updateEventTimestamp(readTimeNanos, packetIndex++, packetCount);
+                // big endian: the header is the most significant byte
+                packet = data.getInt(i);
+                onPacketReceived(sender, packet >>> 24, (packet >> 16) & 0xff, (packet >> 8) & 0xff, packet & 0xff);
+            }
 
-                // keep unread bytes
-                unreadSize = readBufferSize - readSize;
-                if (unreadSize > 0) {
-                    System.arraycopy(readBuffer, readSize, readBuffer, 0, unreadSize);
-                    readBufferSize = unreadSize;
-                } else {
-                    readBufferSize = 0;
+            // keep the incomplete packet for the next read
+            for (; i < length; i++) {
+                partialPacket = (partialPacket << 8) | (data.get(i) & 0xff);
+                partialPacketLength++;
+            }
+
+            if (systemExclusiveStreamListener != null) {
+                // deliver the SysEx bytes received with this transfer
+                for (i = 0; i < CABLE_COUNT; i++) {
+                    if (systemExclusiveStreaming[i]) {
+                        flushSystemExclusiveChunk(sender, i);
+                    }
                 }
+            }
+        }
 
-                for (i = 0; i < readSize; i += 4) {
-                    cable = (read[i] >> 4) & 0xf;
-                    codeIndexNumber = read[i] & 0xf;
-                    byte1 = read[i + 1] & 0xff;
-                    byte2 = read[i + 2] & 0xff;
-                    byte3 = read[i + 3] & 0xff;
-
-                    switch (codeIndexNumber) {
-                        case 0:
-                            if (midiEventListener != null) {
-                                midiEventListener.onMidiMiscellaneousFunctionCodes(sender, cable, byte1, byte2, byte3);
-                            }
-                            break;
-                        case 1:
-                            if (midiEventListener != null) {
-                                midiEventListener.onMidiCableEvents(sender, cable, byte1, byte2, byte3);
-                            }
-                            break;
-                        case 2:
-                            // system common message with 2 bytes
-                            if (midiEventListener != null) {
-                                switch (byte1) {
-                                    case 0xf1:
-                                        midiEventListener.onMidiTimeCodeQuarterFrame(sender, cable, byte2 & 0x7f);
-                                        break;
-                                    case 0xf3:
-                                        midiEventListener.onMidiSongSelect(sender, cable, byte2 & 0x7f);
-                                        break;
-                                }
+        /**
+         * Packs the received data into the packets without decoding, and notifies them
+         *
+         * @param packetBatchListener the listener
+         * @param data the received data, stored from the index 0
+         * @param length the length received
+         * @param readTimeNanos the time received
+         */
+        private void onPacketBatchReceived(@NonNull OnMidiInputPacketBatchListener packetBatchListener, @NonNull ByteBuffer data, int length, long readTimeNanos) {
+            if (packetBatch.length < readLength / 4 + 1) {
+                packetBatch = new int[readLength / 4 + 1];
+            }
+            final int[] packets = packetBatch;
+            final boolean filterEnabled = this.filterEnabled;
+            int count = 0;
+            int offset = 0;
+            int packet;
+            int i;
 
-                                byte[] bytes = new byte[]{(byte) byte1, (byte) byte2};
-                                midiEventListener.onMidiSystemCommonMessage(sender, cable, bytes);
-                            }
-                            break;
-                        case 3:
-                            // system common message with 3 bytes
-                            if (midiEventListener != null) {
-                                switch (byte1) {
-                                    case 0xf2:
-                                        midiEventListener.onMidiSongPositionPointer(sender, cable, (byte2 & 0x7f) | ((byte3 & 0x7f) << 7));
-                                        break;
-                                }
+            if (partialPacketLength > 0) {
+                // completes the packet started with the last read
+                while (partialPacketLength < 4 && offset < length) {
+                    partialPacket = (partialPacket << 8) | (data.get(offset++) & 0xff);
+                    partialPacketLength++;
+                }
+                if (partialPacketLength < 4) {
+                    // more data needed
+                    return;
+                }
+                partialPacketLength = 0;
+                if (partialPacket != 0 && !(filterEnabled && isFiltered(partialPacket >>> 24, (partialPacket >> 16) & 0xff))) {
+                    packets[count++] = partialPacket;
+                }
+            }
 
-                                byte[] bytes = new byte[]{(byte) byte1, (byte) byte2, (byte) byte3};
-                                midiEventListener.onMidiSystemCommonMessage(sender, cable, bytes);
-                            }
-                            break;
-                        case 4:
-                            // sysex starts, and has next
-                            synchronized (systemExclusive[cable]) {
-                                systemExclusive[cable].write(byte1);
-                                systemExclusive[cable].write(byte2);
-                                systemExclusive[cable].write(byte3);
+            final int packetsEnd = offset + (length - offset) / 4 * 4;
+            for (i = offset; i < packetsEnd; i += 4) {
+                packet = data.getInt(i);
+                if (packet != 0 && !(filterEnabled && isFiltered(packet >>> 24, (packet >> 16) & 0xff))) {
+                    // 0: padding
+                    packets[count++] = packet;
+                }
+            }
+
+            // keep the incomplete packet for the next read
+            for (; i < length; i++) {
+                partialPacket = (partialPacket << 8) | (data.get(i) & 0xff);
+                partialPacketLength++;
+            }
+
+            eventTimestampNanos = readTimeNanos;
+            if (count > 0) {
+                packetBatchListener.onMidiInputPacketBatch(MidiInputDevice.this, packets, count, readTimeNanos);
+            }
+        }
+
+        /**
+         * Checks the filters before decoding the packet, and counts the filtered packet
+         *
+         * @param header the first byte of the packet: cable ID and Code Index Number
+         * @param byte1 the first MIDI byte
+         * @return true if the packet should be discarded
+         */
+        private boolean isFiltered(int header, int byte1) {
+            final int cable = (header >> 4) & 0xf;
+            final int codeIndexNumber = header & 0xf;
+            if ((codeIndexNumberFilters[cable] & (1 << codeIndexNumber)) == 0) {
+                if (codeIndexNumber < 0x2 || (codeIndexNumber >= 0x4 && codeIndexNumber <= 0x7) || byte1 < 0x80) {
+                    // byte1 is not a status byte, or may be a part of SysEx (CIN 0x5 carries 0xf7 of SysEx end)
+                    return false;
+                }
+                if ((statusFilters[cable * 2 + ((byte1 - 0x80) >> 6)] & (1L << (byte1 & 63))) == 0) {
+                    return false;
+                }
+            }
+
+            filteredEventCounts.lazySet(cable, filteredEventCounts.get(cable) + 1);
+            return true;
+        }
+
+        /**
+         * Updates the eventTimestampNanos for the packet
+         *
+         * @param readTimeNanos the time received
+         * @param packetIndex the index of the packet in this read
+         * @param packetCount the number of packets in this read
+         */
+        private void updateEventTimestamp(long readTimeNanos, int packetIndex, int packetCount) {
+            if (eventTimestampSpreadEnabled) {
+                // the last event has been arrived at readTimeNanos
+                eventTimestampNanos = readTimeNanos - spreadNanos * (packetCount - 1 - packetIndex) / packetCount;
+            } else {
+                eventTimestampNanos = readTimeNanos;
+            }
+        }
+
+        /**
+         * Decodes an USB MIDI event packet, and notifies the event
+         *
+         * @param sender the MidiInputDevice
+         * @param header the first byte of the packet: cable ID and Code Index Number
+         * @param byte1 the first MIDI byte
+         * @param byte2 the second MIDI byte
+         * @param byte3 the third MIDI byte
+         */
+        private void onPacketReceived(@NonNull MidiInputDevice sender, int header, int byte1, int byte2, int byte3) {
+            if (filterEnabled && isFiltered(header, byte1)) {
+                return;
+            }
+
+            final int cable = (header >> 4) & 0xf;
+            final int codeIndexNumber = header & 0xf;
+            final int kind = CODE_INDEX_NUMBER_KINDS[codeIndexNumber];
+
+            if (kind == KIND_CHANNEL_MESSAGE) {
+                onChannelMessageReceived(sender, cable, codeIndexNumber, byte1, byte2, byte3);
+                return;
+            }
+
+            if (kind == KIND_SYSTEM_EXCLUSIVE) {
+                // sysex starts or continues(CIN 4), or ends(CIN 6, 7)
+                final int messageLength = UsbMidiPacketUtils.getMessageLengthOfCodeIndexNumber(codeIndexNumber);
+                appendSystemExclusive(sender, cable, byte1);
+                appendSystemExclusive(sender, cable, byte2);
+                if (messageLength == 3) {
+                    appendSystemExclusive(sender, cable, byte3);
+                }
+                if (codeIndexNumber != 4) {
+                    onSystemExclusiveCompleted(sender, cable);
+                }
+                return;
+            }
+
+            switch (codeIndexNumber) {
+                case 0:
+                    if (midiEventListener != null) {
+                        midiEventListener.onMidiMiscellaneousFunctionCodes(sender, cable, byte1, byte2, byte3);
+                    }
+                    break;
+                case 1:
+                    if (midiEventListener != null) {
+                        midiEventListener.onMidiCableEvents(sender, cable, byte1, byte2, byte3);
+                    }
+                    break;
+                case 2:
+                    // system common message with 2 bytes
+                    if (midiEventListener != null) {
+                        switch (byte1) {
+                            case 0xf1:
+                                midiEventListener.onMidiTimeCodeQuarterFrame(sender, cable, byte2 & 0x7f);
+                                break;
+                            case 0xf3:
+                                midiEventListener.onMidiSongSelect(sender, cable, byte2 & 0x7f);
+                                break;
+                        }
+
+                        byte[] bytes = new byte[]{(byte) byte1, (byte) byte2};
+                        midiEventListener.onMidiSystemCommonMessage(sender, cable, bytes);
+                    }
+                    break;
+                case 3:
+                    // system common message with 3 bytes
+                    if (midiEventListener != null) {
+                        switch (byte1) {
+                            case 0xf2:
+                                midiEventListener.onMidiSongPositionPointer(sender, cable, (byte2 & 0x7f) | ((byte3 & 0x7f) << 7));
+                                break;
+                        }
+
+                        byte[] bytes = new byte[]{(byte) byte1, (byte) byte2, (byte) byte3};
+                        midiEventListener.onMidiSystemCommonMessage(sender, cable, bytes);
+                    }
+                    break;
+                case 5:
+                    // system common message with 1byte
+                    // sysex end with 1 byte
+                    if (byte1 != 0xf7 && systemExclusive[cable].getLength() == 0 && !systemExclusiveStreaming[cable] && !systemExclusiveOverflow[cable]) {
+                        if (midiEventListener != null) {
+                            switch (byte1) {
+                            case 0xf6:
+                                midiEventListener.onMidiTuneRequest(sender, cable);
+                                break;
+                            case 0xf8:
+                                midiEventListener.onMidiTimingClock(sender, cable);
+                                break;
+                            case 0xfa:
+                                midiEventListener.onMidiStart(sender, cable);
+                                break;
+                            case 0xfb:
+                                midiEventListener.onMidiContinue(sender, cable);
+                                break;
+                            case 0xfc:
+                                midiEventListener.onMidiStop(sender, cable);
+                                break;
+                            case 0xfe:
+                                midiEventListener.onMidiActiveSensing(sender, cable);
+                                break;
+                            case 0xff:
+                                midiEventListener.onMidiReset(sender, cable);
+                                break;
                             }
-                            break;
-                        case 5:
-                            // system common message with 1byte
-                            // sysex end with 1 byte
-                            synchronized (systemExclusive[cable]) {
-                                systemExclusive[cable].write(byte1);
+                            midiEventListener.onMidiSystemExclusive(sender, cable, new byte[]{(byte) byte1});
+                        }
+                    } else {
+                        appendSystemExclusive(sender, cable, byte1);
+                        onSystemExclusiveCompleted(sender, cable);
+                    }
+                    break;
+                case 15:
+                    // single byte
+                    if (midiEventListener != null) {
+                        switch (byte1) {
+                            case 0xf6:
+                                midiEventListener.onMidiTuneRequest(sender, cable);
+                                break;
+                            case 0xf8:
+                                midiEventListener.onMidiTimingClock(sender, cable);
+                                break;
+                            case 0xfa:
+                                midiEventListener.onMidiStart(sender, cable);
+                                break;
+                            case 0xfb:
+                                midiEventListener.onMidiContinue(sender, cable);
+                                break;
+                            case 0xfc:
+                                midiEventListener.onMidiStop(sender, cable);
+                                break;
+                            case 0xfe:
+                                midiEventListener.onMidiActiveSensing(sender, cable);
+                                break;
+                            case 0xff:
+                                midiEventListener.onMidiReset(sender, cable);
+                                break;
+                        }
+
+                        midiEventListener.onMidiSingleByte(sender, cable, byte1);
+                    }
+                    break;
+                default:
+                    // do nothing.
+                    break;
+            }
+        }
+
+        /**
+         * Notifies the channel message
+         *
+         * @param sender the MidiInputDevice
+         * @param cable the cable ID 0-15
+         * @param codeIndexNumber the Code Index Number 8-14
+         * @param byte1 the first MIDI byte
+         * @param byte2 the second MIDI byte
+         * @param byte3 the third MIDI byte
+         */
+        private void onChannelMessageReceived(@NonNull MidiInputDevice sender, int cable, int codeIndexNumber, int byte1, int byte2, int byte3) {
+            switch (codeIndexNumber) {
+                case 8:
+                    if (midiEventListener != null) {
+                        midiEventListener.onMidiNoteOff(sender, cable, byte1 & 0xf, byte2, byte3);
+                    }
+                    break;
+                case 9:
+                    if (midiEventListener != null) {
+                        if (byte3 == 0x00) {
+                            midiEventListener.onMidiNoteOff(sender, cable, byte1 & 0xf, byte2, byte3);
+                        } else {
+                            midiEventListener.onMidiNoteOn(sender, cable, byte1 & 0xf, byte2, byte3);
+                        }
+                    }
+                    break;
+                case 10:
+                    // poly key press
+                    if (midiEventListener != null) {
+                        midiEventListener.onMidiPolyphonicAftertouch(sender, cable, byte1 & 0xf, byte2, byte3);
+                    }
+                    break;
+                case 11:
+                    // control change
+                    if (midiEventListener != null) {
+                        midiEventListener.onMidiControlChange(sender, cable, byte1 & 0xf, byte2, byte3);
+                    }
+
+                    // process RPN/NRPN messages
+                    switch (byte2) {
+                        case 6: {
+                            // RPN/NRPN value MSB
+                            rpnNrpnValueMsb[cable] = byte3 & 0x7f;
+                            if (rpnStatus[cable] == RPN_STATUS_RPN) {
+                                rpnNrpnFunction[cable] = ((rpnFunctionMsb[cable] & 0x7f) << 7) | (rpnFunctionLsb[cable] & 0x7f);
+                                rpnCacheMsb[cable].put(rpnNrpnFunction[cable], rpnNrpnValueMsb[cable]);
+                                rpnNrpnValueLsb[cable] = rpnCacheLsb[cable].get(rpnNrpnFunction[cable], 0/*if not found*/);
                                 if (midiEventListener != null) {
-                                    byte[] sysexBytes = systemExclusive[cable].toByteArray();
-                                    if (sysexBytes.length == 1) {
-                                        switch (sysexBytes[0] & 0xff) {
-                                            case 0xf6:
-                                                midiEventListener.onMidiTuneRequest(sender, cable);
-                                                break;
-                                            case 0xf8:
-                                                midiEventListener.onMidiTimingClock(sender, cable);
-                                                break;
-                                            case 0xfa:
-                                                midiEventListener.onMidiStart(sender, cable);
-                                                break;
-                                            case 0xfb:
-                                                midiEventListener.onMidiContinue(sender, cable);
-                                                break;
-                                            case 0xfc:
-                                                midiEventListener.onMidiStop(sender, cable);
-                                                break;
-                                            case 0xfe:
-                                                midiEventListener.onMidiActiveSensing(sender, cable);
-                                                break;
-                                            case 0xff:
-                                                midiEventListener.onMidiReset(sender, cable);
-                                                break;
-                                        }
-                                    }
-                                    midiEventListener.onMidiSystemExclusive(sender, cable, sysexBytes);
+                                    midiEventListener.onMidiRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], (rpnNrpnValueMsb[cable] << 7 | rpnNrpnValueLsb[cable]));
+                                    midiEventListener.onMidiRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], rpnNrpnValueMsb[cable], rpnNrpnValueLsb[cable]);
                                 }
-                                systemExclusive[cable].reset();
-                            }
-                            break;
-                        case 6:
-                            // sysex end with 2 bytes
-                            synchronized (systemExclusive[cable]) {
-                                systemExclusive[cable].write(byte1);
-                                systemExclusive[cable].write(byte2);
+                            } else if (rpnStatus[cable] == RPN_STATUS_NRPN) {
+                                rpnNrpnFunction[cable] = ((nrpnFunctionMsb[cable] & 0x7f) << 7) | (nrpnFunctionLsb[cable] & 0x7f);
+                                nrpnCacheMsb[cable].put(rpnNrpnFunction[cable], rpnNrpnValueMsb[cable]);
+                                rpnNrpnValueLsb[cable] = nrpnCacheLsb[cable].get(rpnNrpnFunction[cable], 0/*if not found*/);
                                 if (midiEventListener != null) {
-                                    midiEventListener.onMidiSystemExclusive(sender, cable, systemExclusive[cable].toByteArray());
+                                    midiEventListener.onMidiNRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], (rpnNrpnValueMsb[cable] << 7 | rpnNrpnValueLsb[cable]));
+                                    midiEventListener.onMidiNRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], rpnNrpnValueMsb[cable], rpnNrpnValueLsb[cable]);
                                 }
-                                systemExclusive[cable].reset();
                             }
                             break;
-                        case 7:
-                            // sysex end with 3 bytes
-                            synchronized (systemExclusive[cable]) {
-                                systemExclusive[cable].write(byte1);
-                                systemExclusive[cable].write(byte2);
-                                systemExclusive[cable].write(byte3);
+                        }
+                        case 38: {
+                            // RPN/NRPN value LSB
+                            rpnNrpnValueLsb[cable] = byte3 & 0x7f;
+                            if (rpnStatus[cable] == RPN_STATUS_RPN) {
+                                rpnNrpnFunction[cable] = ((rpnFunctionMsb[cable] & 0x7f) << 7) | (rpnFunctionLsb[cable] & 0x7f);
+                                rpnNrpnValueMsb[cable] = rpnCacheMsb[cable].get(rpnNrpnFunction[cable], 0/*if not found*/);
+                                rpnCacheLsb[cable].put(rpnNrpnFunction[cable], rpnNrpnValueLsb[cable]);
                                 if (midiEventListener != null) {
-                                    midiEventListener.onMidiSystemExclusive(sender, cable, systemExclusive[cable].toByteArray());
+                                    midiEventListener.onMidiRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], (rpnNrpnValueMsb[cable] << 7 | rpnNrpnValueLsb[cable]));
+                                    midiEventListener.onMidiRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], rpnNrpnValueMsb[cable], rpnNrpnValueLsb[cable]);
                                 }
-                                systemExclusive[cable].reset();
-                            }
-                            break;
-                        case 8:
-                            if (midiEventListener != null) {
-                                midiEventListener.onMidiNoteOff(sender, cable, byte1 & 0xf, byte2, byte3);
-                            }
-                            break;
-                        case 9:
-                            if (midiEventListener != null) {
-                                if (byte3 == 0x00) {
-                                    midiEventListener.onMidiNoteOff(sender, cable, byte1 & 0xf, byte2, byte3);
-                                } else {
-                                    midiEventListener.onMidiNoteOn(sender, cable, byte1 & 0xf, byte2, byte3);
-                                }
-                            }
-                            break;
-                        case 10:
-                            // poly key press
-                            if (midiEventListener != null) {
-                                midiEventListener.onMidiPolyphonicAftertouch(sender, cable, byte1 & 0xf, byte2, byte3);
-                            }
-                            break;
-                        case 11:
-                            // control change
-                            if (midiEventListener != null) {
-                                midiEventListener.onMidiControlChange(sender, cable, byte1 & 0xf, byte2, byte3);
-                            }
-
-                            // process RPN/NRPN messages
-                            switch (byte2) {
-                                case 6: {
-                                    // RPN/NRPN value MSB
-                                    rpnNrpnValueMsb[cable] = byte3 & 0x7f;
-                                    if (rpnStatus[cable] == RPN_STATUS_RPN) {
-                                        rpnNrpnFunction[cable] = ((rpnFunctionMsb[cable] & 0x7f) << 7) | (rpnFunctionLsb[cable] & 0x7f);
-                                        rpnCacheMsb[cable].put(rpnNrpnFunction[cable], rpnNrpnValueMsb[cable]);
-                                        rpnNrpnValueLsb[cable] = rpnCacheLsb[cable].get(rpnNrpnFunction[cable], 0/*if not found*/);
-                                        if (midiEventListener != null) {
-                                            midiEventListener.onMidiRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], (rpnNrpnValueMsb[cable] << 7 | rpnNrpnValueLsb[cable]));
-                                            midiEventListener.onMidiRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], rpnNrpnValueMsb[cable], rpnNrpnValueLsb[cable]);
-                                        }
-                                    } else if (rpnStatus[cable] == RPN_STATUS_NRPN) {
-                                        rpnNrpnFunction[cable] = ((nrpnFunctionMsb[cable] & 0x7f) << 7) | (nrpnFunctionLsb[cable] & 0x7f);
-                                        nrpnCacheMsb[cable].put(rpnNrpnFunction[cable], rpnNrpnValueMsb[cable]);
-                                        rpnNrpnValueLsb[cable] = nrpnCacheLsb[cable].get(rpnNrpnFunction[cable], 0/*if not found*/);
-                                        if (midiEventListener != null) {
-                                            midiEventListener.onMidiNRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], (rpnNrpnValueMsb[cable] << 7 | rpnNrpnValueLsb[cable]));
-                                            midiEventListener.onMidiNRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], rpnNrpnValueMsb[cable], rpnNrpnValueLsb[cable]);
-                                        }
-                                    }
-                                    break;
-                                }
-                                case 38: {
-                                    // RPN/NRPN value LSB
-                                    rpnNrpnValueLsb[cable] = byte3 & 0x7f;
-                                    if (rpnStatus[cable] == RPN_STATUS_RPN) {
-                                        rpnNrpnFunction[cable] = ((rpnFunctionMsb[cable] & 0x7f) << 7) | (rpnFunctionLsb[cable] & 0x7f);
-                                        rpnNrpnValueMsb[cable] = rpnCacheMsb[cable].get(rpnNrpnFunction[cable], 0/*if not found*/);
-                                        rpnCacheLsb[cable].put(rpnNrpnFunction[cable], rpnNrpnValueLsb[cable]);
-                                        if (midiEventListener != null) {
-                                            midiEventListener.onMidiRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], (rpnNrpnValueMsb[cable] << 7 | rpnNrpnValueLsb[cable]));
-                                            midiEventListener.onMidiRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], rpnNrpnValueMsb[cable], rpnNrpnValueLsb[cable]);
-                                        }
-                                    } else if (rpnStatus[cable] == RPN_STATUS_NRPN) {
-                                        rpnNrpnFunction[cable] = ((nrpnFunctionMsb[cable] & 0x7f) << 7) | (nrpnFunctionLsb[cable] & 0x7f);
-                                        rpnNrpnValueMsb[cable] = nrpnCacheMsb[cable].get(rpnNrpnFunction[cable], 0/*if not found*/);
-                                        nrpnCacheLsb[cable].put(rpnNrpnFunction[cable], rpnNrpnValueLsb[cable]);
-                                        if (midiEventListener != null) {
-                                            midiEventListener.onMidiNRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], (rpnNrpnValueMsb[cable] << 7 | rpnNrpnValueLsb[cable]));
-                                            midiEventListener.onMidiNRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], rpnNrpnValueMsb[cable], rpnNrpnValueLsb[cable]);
-                                        }
-                                    }
-                                    break;
-                                }
-                                case 98: {
-                                    // NRPN parameter number LSB
-                                    nrpnFunctionLsb[cable] = byte3 & 0x7f;
-                                    rpnStatus[cable] = RPN_STATUS_NRPN;
-                                    break;
-                                }
-                                case 99: {
-                                    // NRPN parameter number MSB
-                                    nrpnFunctionMsb[cable] = byte3 & 0x7f;
-                                    rpnStatus[cable] = RPN_STATUS_NRPN;
-                                    break;
-                                }
-                                case 100: {
-                                    // RPN parameter number LSB
-                                    rpnFunctionLsb[cable] = byte3 & 0x7f;
-                                    if (rpnFunctionMsb[cable] == 0x7f && rpnFunctionLsb[cable] == 0x7f) {
-                                        rpnStatus[cable] = RPN_STATUS_NONE;
-                                    } else {
-                                        rpnStatus[cable] = RPN_STATUS_RPN;
-                                    }
-                                    break;
-                                }
-                                case 101: {
-                                    // RPN parameter number MSB
-                                    rpnFunctionMsb[cable] = byte3 & 0x7f;
-                                    if (rpnFunctionMsb[cable] == 0x7f && rpnFunctionLsb[cable] == 0x7f) {
-                                        rpnStatus[cable] = RPN_STATUS_NONE;
-                                    } else {
-                                        rpnStatus[cable] = RPN_STATUS_RPN;
-                                    }
-                                    break;
+                            } else if (rpnStatus[cable] == RPN_STATUS_NRPN) {
+                                rpnNrpnFunction[cable] = ((nrpnFunctionMsb[cable] & 0x7f) << 7) | (nrpnFunctionLsb[cable] & 0x7f);
+                                rpnNrpnValueMsb[cable] = nrpnCacheMsb[cable].get(rpnNrpnFunction[cable], 0/*if not found*/);
+                                nrpnCacheLsb[cable].put(rpnNrpnFunction[cable], rpnNrpnValueLsb[cable]);
+                                if (midiEventListener != null) {
+                                    midiEventListener.onMidiNRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], (rpnNrpnValueMsb[cable] << 7 | rpnNrpnValueLsb[cable]));
+                                    midiEventListener.onMidiNRPNReceived(sender, cable, byte1 & 0xf, rpnNrpnFunction[cable], rpnNrpnValueMsb[cable], rpnNrpnValueLsb[cable]);
                                 }
-                                default:
-                                    break;
                             }
                             break;
-                        case 12:
-                            // program change
-                            if (midiEventListener != null) {
-                                midiEventListener.onMidiProgramChange(sender, cable, byte1 & 0xf, byte2);
-                            }
+                        }
+                        case 98: {
+                            // NRPN parameter number LSB
+                            nrpnFunctionLsb[cable] = byte3 & 0x7f;
+                            rpnStatus[cable] = RPN_STATUS_NRPN;
                             break;
-                        case 13:
-                            // channel pressure
-                            if (midiEventListener != null) {
-                                midiEventListener.onMidiChannelAftertouch(sender, cable, byte1 & 0xf, byte2);
-                            }
+                        }
+                        case 99: {
+                            // NRPN parameter number MSB
+                            nrpnFunctionMsb[cable] = byte3 & 0x7f;
+                            rpnStatus[cable] = RPN_STATUS_NRPN;
                             break;
-                        case 14:
-                            // pitch bend
-                            if (midiEventListener != null) {
-                                midiEventListener.onMidiPitchWheel(sender, cable, byte1 & 0xf, byte2 | (byte3 << 7));
+                        }
+                        case 100: {
+                            // RPN parameter number LSB
+                            rpnFunctionLsb[cable] = byte3 & 0x7f;
+                            if (rpnFunctionMsb[cable] == 0x7f && rpnFunctionLsb[cable] == 0x7f) {
+                                rpnStatus[cable] = RPN_STATUS_NONE;
+                            } else {
+                                rpnStatus[cable] = RPN_STATUS_RPN;
                             }
                             break;
-                        case 15:
-                            // single byte
-                            if (midiEventListener != null) {
-                                switch (byte1) {
-                                    case 0xf6:
-                                        midiEventListener.onMidiTuneRequest(sender, cable);
-                                        break;
-                                    case 0xf8:
-                                        midiEventListener.onMidiTimingClock(sender, cable);
-                                        break;
-                                    case 0xfa:
-                                        midiEventListener.onMidiStart(sender, cable);
-                                        break;
-                                    case 0xfb:
-                                        midiEventListener.onMidiContinue(sender, cable);
-                                        break;
-                                    case 0xfc:
-                                        midiEventListener.onMidiStop(sender, cable);
-                                        break;
-                                    case 0xfe:
-                                        midiEventListener.onMidiActiveSensing(sender, cable);
-                                        break;
-                                    case 0xff:
-                                        midiEventListener.onMidiReset(sender, cable);
-                                        break;
-                                }
-
-                                midiEventListener.onMidiSingleByte(sender, cable, byte1);
+                        }
+                        case 101: {
+                            // RPN parameter number MSB
+                            rpnFunctionMsb[cable] = byte3 & 0x7f;
+                            if (rpnFunctionMsb[cable] == 0x7f && rpnFunctionLsb[cable] == 0x7f) {
+                                rpnStatus[cable] = RPN_STATUS_NONE;
+                            } else {
+                                rpnStatus[cable] = RPN_STATUS_RPN;
                             }
                             break;
+                        }
                         default:
-                            // do nothing.
                             break;
                     }
+                    break;
+                case 12:
+                    // program change
+                    if (midiEventListener != null) {
+                        midiEventListener.onMidiProgramChange(sender, cable, byte1 & 0xf, byte2);
+                    }
+                    break;
+                case 13:
+                    // channel pressure
+                    if (midiEventListener != null) {
+                        midiEventListener.onMidiChannelAftertouch(sender, cable, byte1 & 0xf, byte2);
+                    }
+                    break;
+                case 14:
+                    // pitch bend
+                    if (midiEventListener != null) {
+                        midiEventListener.onMidiPitchWheel(sender, cable, byte1 & 0xf, byte2 | (byte3 << 7));
+                    }
+                    break;
+                default:
+                    // do nothing.
+                    break;
+            }
+        }
+
+        /**
+         * Finishes receiving, aborts the SysEx messages streaming
+         */
+        private void finish() {
+            final MidiInputDevice sender = MidiInputDevice.this;
+            final OnMidiSystemExclusiveStreamListener streamListener = systemExclusiveStreamListener;
+            for (int i = 0; i < CABLE_COUNT; i++) {
+                if (systemExclusiveStreaming[i] && streamListener != null) {
+                    streamListener.onMidiSystemExclusiveAborted(sender, i);
                 }
+                systemExclusiveStreaming[i] = false;
+            }
+        }
+
+        /**
+         * Prepares the requests, and queues them on the endpoint
+         *
+         * @param dispatcher the UsbRequestDispatcher for the connection
+         * @param usbEndpoint the input endpoint
+         * @param count the number of requests
+         * @param completionHandler called when a request completed
+         * @return the queued requests, null if failed
+         */
+        @Nullable
+        private UsbRequestDispatcher.Transfer[] openUsbRequests(@NonNull UsbRequestDispatcher dispatcher, @NonNull UsbEndpoint usbEndpoint, int count, @NonNull UsbRequestDispatcher.CompletionHandler completionHandler) {
+            final UsbRequestDispatcher.Transfer[] transfers = dispatcher.createTransfers(usbEndpoint, count, readLength, completionHandler);
+            if (transfers == null) {
+                return null;
+            }
+            for (UsbRequestDispatcher.Transfer transfer : transfers) {
+                if (!transfer.queue()) {
+                    UsbRequestDispatcher.closeTransfers(transfers);
+                    return null;
+                }
+            }
+            return transfers;
+        }
+
+        /**
+         * Waits for a request completed
+         *
+         * @param completedTransfers the queue to receive the completed requests
+         * @param transfers the requests currently opened
+         * @return the completed request, the received data is stored in its buffer. null if timed out
+         */
+        @Nullable
+        private UsbRequestDispatcher.Transfer pollUsbRequest(@NonNull BlockingQueue<UsbRequestDispatcher.Transfer> completedTransfers, @NonNull UsbRequestDispatcher.Transfer[] transfers) {
+            final UsbRequestDispatcher.Transfer transfer;
+            try {
+                transfer = completedTransfers.poll(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return null;
+            }
+            if (transfer == null || !UsbRequestDispatcher.contains(transfers, transfer)) {
+                // timed out, or already closed
+                return null;
+            }
+            return transfer;
+        }
+
+        /**
+         * Queues the request again, after the received data has been decoded
+         *
+         * @param transfer the completed request, nullable
+         */
+        private void requeueUsbRequest(@Nullable UsbRequestDispatcher.Transfer transfer) {
+            if (transfer == null || stopFlag) {
+                return;
+            }
+            transfer.buffer.clear();
+            if (transfer.queue()) {
+                onReadSucceeded();
+            } else {
+                onUsbRequestQueueFailed();
+            }
+        }
+
+        /**
+         * Appends a byte to the SysEx message on the cable
+         *
+         * @param sender the MidiInputDevice
+         * @param cable the cable ID 0-15
+         * @param value the byte
+         */
+        private void appendSystemExclusive(@NonNull MidiInputDevice sender, int cable, int value) {
+            final SystemExclusiveSlice slice = systemExclusive[cable];
+            final OnMidiSystemExclusiveStreamListener streamListener = systemExclusiveStreamListener;
+            if (streamListener != null) {
+                if (value == 0xf0 && systemExclusiveStreaming[cable]) {
+                    // the next SysEx started without 'F7'
+                    slice.reset();
+                    systemExclusiveStreaming[cable] = false;
+                    streamListener.onMidiSystemExclusiveAborted(sender, cable);
+                }
+                if (!systemExclusiveStreaming[cable]) {
+                    systemExclusiveStreaming[cable] = true;
+                    streamListener.onMidiSystemExclusiveStarted(sender, cable);
+                }
+
+                slice.append(value);
+                if (slice.getLength() >= SYSTEM_EXCLUSIVE_CHUNK_SIZE) {
+                    flushSystemExclusiveChunk(sender, cable);
+                }
+                return;
+            }
+
+            if (systemExclusiveOverflow[cable]) {
+                return;
+            }
+            if (slice.getLength() >= maxSystemExclusiveSize) {
+                // too long, discard this message
+                systemExclusiveOverflow[cable] = true;
+                slice.reset();
+                return;
+            }
+            slice.append(value);
+        }
+
+        /**
+         * Delivers the buffered SysEx bytes on the cable to OnMidiSystemExclusiveStreamListener
+         *
+         * @param sender the MidiInputDevice
+         * @param cable the cable ID 0-15
+         */
+        private void flushSystemExclusiveChunk(@NonNull MidiInputDevice sender, int cable) {
+            final SystemExclusiveSlice slice = systemExclusive[cable];
+            final OnMidiSystemExclusiveStreamListener streamListener = systemExclusiveStreamListener;
+            if (slice.getLength() > 0 && streamListener != null) {
+                streamListener.onMidiSystemExclusiveChunk(sender, cable, slice.getData(), slice.getOffset(), slice.getLength());
+            }
+            slice.reset();
+        }
+
+        /**
+         * Delivers the assembled SysEx message on the cable
+         *
+         * @param sender the MidiInputDevice
+         * @param cable the cable ID 0-15
+         */
+        private void onSystemExclusiveCompleted(@NonNull MidiInputDevice sender, int cable) {
+            final SystemExclusiveSlice slice = systemExclusive[cable];
+            final OnMidiSystemExclusiveStreamListener streamListener = systemExclusiveStreamListener;
+            if (systemExclusiveStreaming[cable]) {
+                systemExclusiveStreaming[cable] = false;
+                if (streamListener != null) {
+                    flushSystemExclusiveChunk(sender, cable);
+                    streamListener.onMidiSystemExclusiveCompleted(sender, cable);
+                    return;
+                }
+            }
+            if (systemExclusiveOverflow[cable]) {
+                systemExclusiveOverflow[cable] = false;
+                slice.reset();
+                return;
+            }
+
+            final OnMidiSystemExclusiveSliceListener sliceListener = systemExclusiveSliceListener;
+            if (sliceListener != null) {
+                // the listener owns the slice until released
+                systemExclusive[cable] = systemExclusiveSlicePool.obtain();
+                sliceListener.onMidiSystemExclusive(sender, cable, slice);
+                return;
+            }
+
+            if (midiEventListener != null) {
+                midiEventListener.onMidiSystemExclusive(sender, cable, slice.toByteArray());
             }
+            slice.reset();
         }
     }
 }
@@ -0,0 +1,89 @@
+package jp.kshoji.driver.midi.device;
+
+import androidx.annotation.NonNull;
+
+import jp.kshoji.driver.midi.listener.OnMidiInputEventListener;
+import jp.kshoji.driver.midi.util.MidiMessageType;
+
+/**
+ * Subscription of the input events, created with {@link MidiInputDevice#subscribe(OnMidiInputEventListener, int, int, MidiMessageType...)}
+ *
+ * @author K.Shoji
+ */
+public final class MidiInputSubscription {
+    final OnMidiInputEventListener listener;
+    private final int cable;
+    private final int channel;
+    // bit n: the MidiMessageType with ordinal n is subscribed
+    private final int messageTypes;
+
+    /**
+     * Constructor
+     *
+     * @param listener the listener
+     * @param cable the cable ID 0-15, or {@link MidiInputDevice#ALL_CABLES}
+     * @param channel the MIDI channel 0-15, or {@link MidiInputDevice#ALL_CHANNELS}
+     * @param messageTypes the types, empty for all types
+     */
+    MidiInputSubscription(@NonNull OnMidiInputEventListener listener, int cable, int channel, @NonNull MidiMessageType... messageTypes) {
+        this.listener = listener;
+        this.cable = cable == MidiInputDevice.ALL_CABLES ? MidiInputDevice.ALL_CABLES : cable & 0xf;
+        this.channel = channel == MidiInputDevice.ALL_CHANNELS ? MidiInputDevice.ALL_CHANNELS : channel & 0xf;
+
+        int types = 0;
+        for (MidiMessageType messageType : messageTypes) {
+            types |= 1 << messageType.ordinal();
+        }
+        this.messageTypes = messageTypes.length == 0 ? ~0 : types;
+    }
+
+    /**
+     * @return the listener
+     */
+    @NonNull
+    public OnMidiInputEventListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @return the cable ID 0-15, or {@link MidiInputDevice#ALL_CABLES}
+     */
+    public int getCable() {
+        return cable;
+    }
+
+    /**
+     * @return the MIDI channel 0-15, or {@link MidiInputDevice#ALL_CHANNELS}
+     */
+    public int getChannel() {
+        return channel;
+    }
+
+    /**
+     * Check if the type is subscribed
+     *
+     * @param messageType the MidiMessageType
+     * @return true if subscribed
+     */
+    public boolean isSubscribed(@NonNull MidiMessageType messageType) {
+        return (messageTypes & (1 << messageType.ordinal())) != 0;
+    }
+
+    /**
+     * Check if the event is subscribed
+     *
+     * @param cable the cable ID 0-15
+     * @param channel the MIDI channel 0-15, ignored if the type is not a channel message
+     * @param messageType the MidiMessageType
+     * @return true if subscribed
+     */
+    boolean matches(int cable, int channel, @NonNull MidiMessageType messageType) {
+        if (this.cable != MidiInputDevice.ALL_CABLES && this.cable != cable) {
+            return false;
+        }
+        if (messageType.isChannelMessage() && this.channel != MidiInputDevice.ALL_CHANNELS && this.channel != channel) {
+            return false;
+        }
+        return isSubscribed(messageType);
+    }
+}
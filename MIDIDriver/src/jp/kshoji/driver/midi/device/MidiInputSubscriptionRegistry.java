@@ -0,0 +1,347 @@
+package jp.kshoji.driver.midi.device;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.kshoji.driver.midi.listener.OnMidiInputEventListener;
+import jp.kshoji.driver.midi.util.MidiMessageType;
+
+/**
+ * Dispatches the input events to the subscribed listeners.<br />
+ * The listeners are resolved per cable, channel and message type when the subscriptions changed,
+ * so the dispatching only iterates the interested listeners without locking.
+ *
+ * @author K.Shoji
+ */
+final class MidiInputSubscriptionRegistry implements OnMidiInputEventListener {
+    private static final OnMidiInputEventListener[] EMPTY = new OnMidiInputEventListener[0];
+    private static final MidiMessageType[] MESSAGE_TYPES = MidiMessageType.values();
+    private static final int CHANNEL_MESSAGE_TYPE_COUNT = MidiMessageType.SYSTEM_EXCLUSIVE.ordinal();
+
+    // slots per cable: channel message types * 16 channels, then the other types
+    private static final int SLOT_COUNT = CHANNEL_MESSAGE_TYPE_COUNT * 16 + MESSAGE_TYPES.length - CHANNEL_MESSAGE_TYPE_COUNT;
+
+    private static final int NOTE_OFF = MidiMessageType.NOTE_OFF.ordinal() * 16;
+    private static final int NOTE_ON = MidiMessageType.NOTE_ON.ordinal() * 16;
+    private static final int POLYPHONIC_AFTERTOUCH = MidiMessageType.POLYPHONIC_AFTERTOUCH.ordinal() * 16;
+    private static final int CONTROL_CHANGE = MidiMessageType.CONTROL_CHANGE.ordinal() * 16;
+    private static final int PROGRAM_CHANGE = MidiMessageType.PROGRAM_CHANGE.ordinal() * 16;
+    private static final int CHANNEL_AFTERTOUCH = MidiMessageType.CHANNEL_AFTERTOUCH.ordinal() * 16;
+    private static final int PITCH_WHEEL = MidiMessageType.PITCH_WHEEL.ordinal() * 16;
+    private static final int SYSTEM_EXCLUSIVE = getSlot(MidiMessageType.SYSTEM_EXCLUSIVE, 0);
+    private static final int SYSTEM_COMMON = getSlot(MidiMessageType.SYSTEM_COMMON, 0);
+    private static final int SYSTEM_REAL_TIME = getSlot(MidiMessageType.SYSTEM_REAL_TIME, 0);
+    private static final int SINGLE_BYTE = getSlot(MidiMessageType.SINGLE_BYTE, 0);
+    private static final int MISCELLANEOUS = getSlot(MidiMessageType.MISCELLANEOUS, 0);
+
+    private final List<MidiInputSubscription> subscriptions = new ArrayList<>();
+    private OnMidiInputEventListener primaryListener;
+
+    // index: cable * SLOT_COUNT + slot, replaced on each change
+    private volatile OnMidiInputEventListener[][] listeners = newTable();
+
+    /**
+     * Get the slot for the type
+     *
+     * @param messageType the MidiMessageType
+     * @param channel the MIDI channel 0-15, ignored if the type is not a channel message
+     * @return the slot
+     */
+    private static int getSlot(@NonNull MidiMessageType messageType, int channel) {
+        if (messageType.isChannelMessage()) {
+            return messageType.ordinal() * 16 + channel;
+        }
+        return CHANNEL_MESSAGE_TYPE_COUNT * 16 + messageType.ordinal() - CHANNEL_MESSAGE_TYPE_COUNT;
+    }
+
+    @NonNull
+    private static OnMidiInputEventListener[][] newTable() {
+        final OnMidiInputEventListener[][] table = new OnMidiInputEventListener[16 * SLOT_COUNT][];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    /**
+     * Sets the listener receives all the events, prior to the subscribed listeners
+     *
+     * @param listener the listener, null to remove
+     */
+    synchronized void setPrimaryListener(@Nullable OnMidiInputEventListener listener) {
+        primaryListener = listener;
+        rebuild();
+    }
+
+    /**
+     * Adds the subscription
+     *
+     * @param subscription the subscription
+     */
+    synchronized void add(@NonNull MidiInputSubscription subscription) {
+        subscriptions.add(subscription);
+        rebuild();
+    }
+
+    /**
+     * Removes the subscription
+     *
+     * @param subscription the subscription
+     * @return true if removed
+     */
+    synchronized boolean remove(@NonNull MidiInputSubscription subscription) {
+        final boolean removed = subscriptions.remove(subscription);
+        if (removed) {
+            rebuild();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all the subscriptions
+     */
+    synchronized void clear() {
+        subscriptions.clear();
+        rebuild();
+    }
+
+    /**
+     * @return true if no subscriptions
+     */
+    synchronized boolean isEmpty() {
+        return subscriptions.isEmpty();
+    }
+
+    /**
+     * Resolves the listeners for each slot, and publishes the new table
+     */
+    private void rebuild() {
+        final OnMidiInputEventListener[][] table = newTable();
+        final List<OnMidiInputEventListener> resolved = new ArrayList<>();
+        for (int cable = 0; cable < 16; cable++) {
+            for (MidiMessageType messageType : MESSAGE_TYPES) {
+                final int channelCount = messageType.isChannelMessage() ? 16 : 1;
+                for (int channel = 0; channel < channelCount; channel++) {
+                    resolved.clear();
+                    if (primaryListener != null) {
+                        resolved.add(primaryListener);
+                    }
+                    for (MidiInputSubscription subscription : subscriptions) {
+                        if (subscription.matches(cable, channel, messageType) && !containsListener(resolved, subscription.listener)) {
+                            resolved.add(subscription.listener);
+                        }
+                    }
+                    if (!resolved.isEmpty()) {
+                        table[cable * SLOT_COUNT + getSlot(messageType, channel)] = resolved.toArray(new OnMidiInputEventListener[resolved.size()]);
+                    }
+                }
+            }
+        }
+        listeners = table;
+    }
+
+    /**
+     * Check if the listener is already resolved, compared by the identity
+     *
+     * @param resolved the resolved listeners
+     * @param listener the listener
+     * @return true if contained
+     */
+    private static boolean containsListener(@NonNull List<OnMidiInputEventListener> resolved, @NonNull OnMidiInputEventListener listener) {
+        for (OnMidiInputEventListener item : resolved) {
+            if (item == listener) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NonNull
+    private OnMidiInputEventListener[] getListeners(int cable, int slot) {
+        return listeners[(cable & 0xf) * SLOT_COUNT + slot];
+    }
+
+    @Override
+    public void onMidiMiscellaneousFunctionCodes(@NonNull MidiInputDevice sender, int cable, int byte1, int byte2, int byte3) {
+        for (OnMidiInputEventListener listener : getListeners(cable, MISCELLANEOUS)) {
+            listener.onMidiMiscellaneousFunctionCodes(sender, cable, byte1, byte2, byte3);
+        }
+    }
+
+    @Override
+    public void onMidiCableEvents(@NonNull MidiInputDevice sender, int cable, int byte1, int byte2, int byte3) {
+        for (OnMidiInputEventListener listener : getListeners(cable, MISCELLANEOUS)) {
+            listener.onMidiCableEvents(sender, cable, byte1, byte2, byte3);
+        }
+    }
+
+    @Override
+    public void onMidiSystemCommonMessage(@NonNull MidiInputDevice sender, int cable, byte[] bytes) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SYSTEM_COMMON)) {
+            listener.onMidiSystemCommonMessage(sender, cable, bytes);
+        }
+    }
+
+    @Override
+    public void onMidiSystemExclusive(@NonNull MidiInputDevice sender, int cable, byte[] systemExclusive) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SYSTEM_EXCLUSIVE)) {
+            listener.onMidiSystemExclusive(sender, cable, systemExclusive);
+        }
+    }
+
+    @Override
+    public void onMidiNoteOff(@NonNull MidiInputDevice sender, int cable, int channel, int note, int velocity) {
+        for (OnMidiInputEventListener listener : getListeners(cable, NOTE_OFF + channel)) {
+            listener.onMidiNoteOff(sender, cable, channel, note, velocity);
+        }
+    }
+
+    @Override
+    public void onMidiNoteOn(@NonNull MidiInputDevice sender, int cable, int channel, int note, int velocity) {
+        for (OnMidiInputEventListener listener : getListeners(cable, NOTE_ON + channel)) {
+            listener.onMidiNoteOn(sender, cable, channel, note, velocity);
+        }
+    }
+
+    @Override
+    public void onMidiPolyphonicAftertouch(@NonNull MidiInputDevice sender, int cable, int channel, int note, int pressure) {
+        for (OnMidiInputEventListener listener : getListeners(cable, POLYPHONIC_AFTERTOUCH + channel)) {
+            listener.onMidiPolyphonicAftertouch(sender, cable, channel, note, pressure);
+        }
+    }
+
+    @Override
+    public void onMidiControlChange(@NonNull MidiInputDevice sender, int cable, int channel, int function, int value) {
+        for (OnMidiInputEventListener listener : getListeners(cable, CONTROL_CHANGE + channel)) {
+            listener.onMidiControlChange(sender, cable, channel, function, value);
+        }
+    }
+
+    @Override
+    public void onMidiProgramChange(@NonNull MidiInputDevice sender, int cable, int channel, int program) {
+        for (OnMidiInputEventListener listener : getListeners(cable, PROGRAM_CHANGE + channel)) {
+            listener.onMidiProgramChange(sender, cable, channel, program);
+        }
+    }
+
+    @Override
+    public void onMidiChannelAftertouch(@NonNull MidiInputDevice sender, int cable, int channel, int pressure) {
+        for (OnMidiInputEventListener listener : getListeners(cable, CHANNEL_AFTERTOUCH + channel)) {
+            listener.onMidiChannelAftertouch(sender, cable, channel, pressure);
+        }
+    }
+
+    @Override
+    public void onMidiPitchWheel(@NonNull MidiInputDevice sender, int cable, int channel, int amount) {
+        for (OnMidiInputEventListener listener : getListeners(cable, PITCH_WHEEL + channel)) {
+            listener.onMidiPitchWheel(sender, cable, channel, amount);
+        }
+    }
+
+    @Override
+    public void onMidiSingleByte(@NonNull MidiInputDevice sender, int cable, int byte1) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SINGLE_BYTE)) {
+            listener.onMidiSingleByte(sender, cable, byte1);
+        }
+    }
+
+    @Override
+    public void onMidiTimeCodeQuarterFrame(@NonNull MidiInputDevice sender, int cable, int timing) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SYSTEM_COMMON)) {
+            listener.onMidiTimeCodeQuarterFrame(sender, cable, timing);
+        }
+    }
+
+    @Override
+    public void onMidiSongSelect(@NonNull MidiInputDevice sender, int cable, int song) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SYSTEM_COMMON)) {
+            listener.onMidiSongSelect(sender, cable, song);
+        }
+    }
+
+    @Override
+    public void onMidiSongPositionPointer(@NonNull MidiInputDevice sender, int cable, int position) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SYSTEM_COMMON)) {
+            listener.onMidiSongPositionPointer(sender, cable, position);
+        }
+    }
+
+    @Override
+    public void onMidiTuneRequest(@NonNull MidiInputDevice sender, int cable) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SYSTEM_COMMON)) {
+            listener.onMidiTuneRequest(sender, cable);
+        }
+    }
+
+    @Override
+    public void onMidiTimingClock(@NonNull MidiInputDevice sender, int cable) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SYSTEM_REAL_TIME)) {
+            listener.onMidiTimingClock(sender, cable);
+        }
+    }
+
+    @Override
+    public void onMidiStart(@NonNull MidiInputDevice sender, int cable) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SYSTEM_REAL_TIME)) {
+            listener.onMidiStart(sender, cable);
+        }
+    }
+
+    @Override
+    public void onMidiContinue(@NonNull MidiInputDevice sender, int cable) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SYSTEM_REAL_TIME)) {
+            listener.onMidiContinue(sender, cable);
+        }
+    }
+
+    @Override
+    public void onMidiStop(@NonNull MidiInputDevice sender, int cable) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SYSTEM_REAL_TIME)) {
+            listener.onMidiStop(sender, cable);
+        }
+    }
+
+    @Override
+    public void onMidiActiveSensing(@NonNull MidiInputDevice sender, int cable) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SYSTEM_REAL_TIME)) {
+            listener.onMidiActiveSensing(sender, cable);
+        }
+    }
+
+    @Override
+    public void onMidiReset(@NonNull MidiInputDevice sender, int cable) {
+        for (OnMidiInputEventListener listener : getListeners(cable, SYSTEM_REAL_TIME)) {
+            listener.onMidiReset(sender, cable);
+        }
+    }
+
+    @Override
+    public void onMidiRPNReceived(@NonNull MidiInputDevice sender, int cable, int channel, int function, int valueMSB, int valueLSB) {
+        for (OnMidiInputEventListener listener : getListeners(cable, CONTROL_CHANGE + channel)) {
+            listener.onMidiRPNReceived(sender, cable, channel, function, valueMSB, valueLSB);
+        }
+    }
+
+    @Override
+    public void onMidiNRPNReceived(@NonNull MidiInputDevice sender, int cable, int channel, int function, int valueMSB, int valueLSB) {
+        for (OnMidiInputEventListener listener : getListeners(cable, CONTROL_CHANGE + channel)) {
+            listener.onMidiNRPNReceived(sender, cable, channel, function, valueMSB, valueLSB);
+        }
+    }
+
+    @Override
+    public void onMidiRPNReceived(@NonNull MidiInputDevice sender, int cable, int channel, int function, int value) {
+        for (OnMidiInputEventListener listener : getListeners(cable, CONTROL_CHANGE + channel)) {
+            listener.onMidiRPNReceived(sender, cable, channel, function, value);
+        }
+    }
+
+    @Override
+    public void onMidiNRPNReceived(@NonNull MidiInputDevice sender, int cable, int channel, int function, int value) {
+        for (OnMidiInputEventListener listener : getListeners(cable, CONTROL_CHANGE + channel)) {
+            listener.onMidiNRPNReceived(sender, cable, channel, function, value);
+        }
+    }
+}
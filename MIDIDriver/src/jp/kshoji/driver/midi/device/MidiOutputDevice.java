@@ -10,11 +10,28 @@ import android.os.Build;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 import java.util.Queue;
-
-import jp.kshoji.driver.midi.util.ReusableByteArrayOutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import jp.kshoji.driver.midi.listener.OnMidiInputPacketBatchListener;
+import jp.kshoji.driver.midi.listener.OnMidiInputRawDataListener;
+import jp.kshoji.driver.midi.listener.OnMidiOutputHealthChangedListener;
+import jp.kshoji.driver.midi.listener.OnMidiOutputQueueWatermarkListener;
+import jp.kshoji.driver.midi.listener.OnMidiSystemExclusiveTransferListener;
+import jp.kshoji.driver.midi.util.BackPressurePolicy;
+import jp.kshoji.driver.midi.util.OutputHealth;
+import jp.kshoji.driver.midi.util.UsbMidiBufferPool;
 import jp.kshoji.driver.midi.util.UsbMidiDeviceUtils;
+import jp.kshoji.driver.midi.util.UsbMidiPacketRingBuffer;
+import jp.kshoji.driver.midi.util.UsbMidiPacketScheduler;
+import jp.kshoji.driver.midi.util.WaitStrategy;
 
 /**
  * MIDI Output Device
@@ -30,10 +47,72 @@ public final class MidiOutputDevice {
 
     final WaiterThread waiterThread;
 
-    private static final int BUFFER_POOL_SIZE = 1024;
-	final LinkedList<byte[]> bufferPool = new LinkedList<>();
-
-    private final ReusableByteArrayOutputStream sysexTransferDataStream = new ReusableByteArrayOutputStream();
+    /**
+     * The cable ID for the whole device, used with {@link OnMidiOutputQueueWatermarkListener}
+     */
+    public static final int ALL_CABLES = -1;
+
+    // sending lanes, in priority order: real-time messages, other messages, then long SysEx.
+    // the order of the messages and long SysEx is kept in each cable.
+    private static final int REAL_TIME_PACKET_BUFFER_SIZE = 256;
+    private static final int PACKET_BUFFER_SIZE = 1024;
+    // created when the first message sent
+    volatile UsbMidiPacketRingBuffer realTimePacketBuffer;
+    volatile UsbMidiPacketRingBuffer packetBuffer;
+    private volatile BackPressurePolicy backPressurePolicy = BackPressurePolicy.BLOCK;
+    // not finished yet, including the one sending
+    final Queue<SystemExclusiveTransfer> systemExclusiveTransfers = new ConcurrentLinkedQueue<>();
+    // not taken by the sending thread yet
+    final Queue<SystemExclusiveTransfer> queuedSystemExclusiveTransfers = new ConcurrentLinkedQueue<>();
+    final UsbMidiPacketScheduler packetScheduler = new UsbMidiPacketScheduler();
+
+    // watermarks of the queued events, for each cable and for the whole device
+    private volatile int lowWatermark = PACKET_BUFFER_SIZE / 4;
+    private volatile int highWatermark = PACKET_BUFFER_SIZE * 3 / 4;
+    private volatile OnMidiOutputQueueWatermarkListener queueWatermarkListener = null;
+    // bit 0-15: the cable has reached the high watermark, bit 16: the whole device has reached
+    private final AtomicInteger watermarkState = new AtomicInteger();
+    private static final int DEVICE_WATERMARK_BIT = 1 << 16;
+
+    // waits with WaitStrategy until this time before the scheduled event, and then waits with parkNanos
+    private static final long SCHEDULER_SLEEP_MARGIN_NANOS = 2_000_000L;
+
+    // interval to check the queue while waiting for the flush deadline
+    private static final long FLUSH_POLLING_INTERVAL_NANOS = 50_000L;
+    volatile long flushDeadlineNanos = 0;
+
+    volatile long transferCount = 0;
+    volatile long transferredEventCount = 0;
+
+    // adaptive timeout(msec) of the synchronous bulkTransfer
+    private static final int MIN_TRANSFER_TIMEOUT = 4;
+    private static final int MAX_TRANSFER_TIMEOUT = 100;
+    private static final int INITIAL_TRANSFER_TIMEOUT = 10;
+    // the time(msec) the transfers keep failing to be stalled, and consecutive successes to be healthy again
+    private static final int STALLED_TIMEOUT = 200;
+    private static final int RECOVERY_TRANSFER_COUNT = 16;
+    // the time(msec) the transfers keep failing, to be dead
+    private static final int DEFAULT_DEAD_TIMEOUT = 3000;
+
+    private volatile OutputHealth health = OutputHealth.HEALTHY;
+    private volatile int deadTimeout = DEFAULT_DEAD_TIMEOUT;
+    private volatile OnMidiOutputHealthChangedListener healthChangedListener = null;
+    private final AtomicLongArray healthTransitionCounts = new AtomicLongArray(OutputHealth.values().length);
+    volatile long retryCount = 0;
+    volatile long shedEventCount = 0;
+
+    // the packets held back for each cable, to send them after the SysEx message on the same cable
+    private static final int DEFERRED_PACKET_COUNT = 256;
+
+    // timeout(msec) for waiting a free request, to check the stopFlag
+    private static final int REQUEST_WAIT_TIMEOUT = 100;
+
+    // the time(msec) without sending, to release the buffers and the requests
+    private static final int DEFAULT_IDLE_TIMEOUT = 10000;
+
+    // WaitStrategy.SPIN_YIELD: spins this count, and then yields until this time passed
+    private static final int SPIN_COUNT = 1000;
+    private static final long SPIN_YIELD_DURATION_NANOS = 10_000_000L;
 
     /**
 	 * Constructor
@@ -48,272 +127,1785 @@ public final class MidiOutputDevice {
 		this.usbDeviceConnection = usbDeviceConnection;
 		this.usbInterface = usbInterface;
 
-        waiterThread = new WaiterThread();
-
         outputEndpoint = usbEndpoint;
 
-        this.usbDeviceConnection.claimInterface(this.usbInterface, true);
-
+        waiterThread = new WaiterThread();
         waiterThread.setName("MidiOutputDevice[" + usbDevice.getDeviceName() + "].WaiterThread");
-		waiterThread.start();
 
-		for (int i = 0; i < BUFFER_POOL_SIZE; i++) {
-			bufferPool.addLast(new byte[4]);
-		}
+        this.usbDeviceConnection.claimInterface(this.usbInterface, true);
+
+        // the thread and the buffers are prepared when the first message sent
 	}
 
+    /**
+     * Starts sending if not started yet, called when a message sent
+     */
+    private void startIfNeeded() {
+        if (!waiterThread.started) {
+            startWaiterThread();
+        }
+    }
+
+    /**
+     * Prepares the sending queues, and starts the thread or {@link UsbMidiReactor}
+     */
+    private synchronized void startWaiterThread() {
+        if (waiterThread.started || waiterThread.stopFlag) {
+            return;
+        }
+        realTimePacketBuffer = new UsbMidiPacketRingBuffer(REAL_TIME_PACKET_BUFFER_SIZE, backPressurePolicy);
+        packetBuffer = new UsbMidiPacketRingBuffer(PACKET_BUFFER_SIZE, backPressurePolicy);
+        waiterThread.started = true;
+
+        if (UsbMidiReactor.isAvailable() && waiterThread.startOnReactor()) {
+            // sent on the reactor thread
+            return;
+        }
+        waiterThread.start();
+    }
+
     /**
      * stop to use this device.
      */
     void stop() {
+        requestStop();
+        awaitStop(Long.MAX_VALUE);
+    }
+
+    /**
+     * Requests the sending thread to stop, doesn't wait for the thread.
+     */
+    void requestStop() {
         usbDeviceConnection.releaseInterface(usbInterface);
 
         resume();
-        waiterThread.stopFlag = true;
+        synchronized (this) {
+            // not to start after stopped
+            waiterThread.stopFlag = true;
+        }
+
+        if (waiterThread.onReactor) {
+            waiterThread.stopOnReactor();
+            return;
+        }
+
+        waiterThread.wakeUp();
+    }
+
+    /**
+     * Waits for the sending thread to stop, after {@link #requestStop()} called
+     *
+     * @param deadlineNanos the deadline based on {@link System#nanoTime()}, {@link Long#MAX_VALUE} to wait infinitely
+     * @return true if the thread has been stopped
+     */
+    boolean awaitStop(long deadlineNanos) {
+        return UsbMidiDeviceUtils.joinThread(waiterThread, deadlineNanos, true);
+    }
+
+    /**
+     * Suspends event sending
+     */
+    public void suspend() {
+        waiterThread.suspendFlag = true;
+        waiterThread.wakeUp();
+    }
+
+    /**
+     * Resumes event sending
+     */
+    public void resume() {
+        waiterThread.suspendFlag = false;
+        waiterThread.wakeUp();
+    }
+
+    /**
+     * Set the policy used when the sending queue is full
+     *
+     * @param backPressurePolicy the BackPressurePolicy, default: {@link BackPressurePolicy#BLOCK}
+     */
+    public synchronized void setBackPressurePolicy(@NonNull BackPressurePolicy backPressurePolicy) {
+        this.backPressurePolicy = backPressurePolicy;
+        if (packetBuffer != null) {
+            realTimePacketBuffer.setBackPressurePolicy(backPressurePolicy);
+            packetBuffer.setBackPressurePolicy(backPressurePolicy);
+        }
+    }
+
+    /**
+     * @return the policy used when the sending queue is full
+     */
+    @NonNull
+    public BackPressurePolicy getBackPressurePolicy() {
+        return backPressurePolicy;
+    }
+
+    /**
+     * Get the number of events discarded, or overwritten by {@link BackPressurePolicy}
+     *
+     * @return the dropped event count
+     */
+    public long getDroppedEventCount() {
+        final UsbMidiPacketRingBuffer realTimePacketBuffer = this.realTimePacketBuffer;
+        final UsbMidiPacketRingBuffer packetBuffer = this.packetBuffer;
+        if (realTimePacketBuffer == null || packetBuffer == null) {
+            return 0;
+        }
+        return realTimePacketBuffer.getDroppedCount() + packetBuffer.getDroppedCount();
+    }
+
+    /**
+     * Get the number of events queued, not sent yet.<br />
+     * The messages waiting for their time with {@link #sendMidiMessageAt(long, int, int, int, int)} and the SysEx messages are not included.
+     *
+     * @return the number of queued events
+     */
+    public int getQueuedEventCount() {
+        final UsbMidiPacketRingBuffer realTimePacketBuffer = this.realTimePacketBuffer;
+        final UsbMidiPacketRingBuffer packetBuffer = this.packetBuffer;
+        if (realTimePacketBuffer == null || packetBuffer == null) {
+            return 0;
+        }
+        return realTimePacketBuffer.size() + packetBuffer.size();
+    }
+
+    /**
+     * Get the number of events queued for the cable, not sent yet.<br />
+     * The messages waiting for their time with {@link #sendMidiMessageAt(long, int, int, int, int)} and the SysEx messages are not included.
+     *
+     * @param cable the cable ID 0-15
+     * @return the number of queued events
+     */
+    public int getQueuedEventCount(int cable) {
+        final UsbMidiPacketRingBuffer realTimePacketBuffer = this.realTimePacketBuffer;
+        final UsbMidiPacketRingBuffer packetBuffer = this.packetBuffer;
+        if (realTimePacketBuffer == null || packetBuffer == null) {
+            return 0;
+        }
+        return realTimePacketBuffer.size(cable) + packetBuffer.size(cable);
+    }
+
+    /**
+     * Get the size of USB MIDI event packets not sent yet, including the rest of SysEx messages
+     *
+     * @return the size in bytes
+     */
+    public long getPendingBytes() {
+        return getPendingBytes(ALL_CABLES);
+    }
+
+    /**
+     * Get the size of USB MIDI event packets not sent yet for the cable, including the rest of SysEx messages
+     *
+     * @param cable the cable ID 0-15, or {@link #ALL_CABLES}
+     * @return the size in bytes
+     */
+    public long getPendingBytes(int cable) {
+        long packetCount = cable == ALL_CABLES ? getQueuedEventCount() : getQueuedEventCount(cable);
+
+        // SysEx: 3 bytes per packet
+        for (SystemExclusiveTransfer transfer : systemExclusiveTransfers) {
+            if (cable == ALL_CABLES || transfer.getCable() == cable) {
+                packetCount += (transfer.getLength() - transfer.getTransferredLength() + 2) / 3;
+            }
+        }
+        return packetCount * 4;
+    }
+
+    /**
+     * Set the watermarks of the queued events, applied for each cable and for the whole device
+     *
+     * @param lowWatermark the number of events, default: 256
+     * @param highWatermark the number of events larger than lowWatermark, default: 768
+     * @throws IllegalArgumentException if lowWatermark is negative, or highWatermark is not larger than lowWatermark
+     */
+    public void setQueueWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+            throw new IllegalArgumentException("lowWatermark must be 0 or more, and less than highWatermark");
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * @return the low watermark of the queued events
+     */
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * @return the high watermark of the queued events
+     */
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Set the listener to observe the queued events crossing the watermarks
+     *
+     * @param queueWatermarkListener the listener, null to remove
+     */
+    public void setOnMidiOutputQueueWatermarkListener(@Nullable OnMidiOutputQueueWatermarkListener queueWatermarkListener) {
+        this.queueWatermarkListener = queueWatermarkListener;
+    }
+
+    /**
+     * Notifies the high watermark reached, called after the event queued
+     *
+     * @param cable the cable ID 0-15
+     */
+    private void checkHighWatermark(int cable) {
+        final OnMidiOutputQueueWatermarkListener queueWatermarkListener = this.queueWatermarkListener;
+        if (queueWatermarkListener == null) {
+            return;
+        }
+
+        int queuedEventCount = getQueuedEventCount(cable);
+        if (queuedEventCount >= highWatermark && updateWatermarkState(1 << cable, true)) {
+            queueWatermarkListener.onMidiOutputQueueHighWatermark(this, cable, queuedEventCount);
+        }
+        queuedEventCount = getQueuedEventCount();
+        if (queuedEventCount >= highWatermark && updateWatermarkState(DEVICE_WATERMARK_BIT, true)) {
+            queueWatermarkListener.onMidiOutputQueueHighWatermark(this, ALL_CABLES, queuedEventCount);
+        }
+    }
+
+    /**
+     * Notifies the low watermark reached, called on the sending thread after the events dequeued
+     */
+    void checkLowWatermark() {
+        final int state = watermarkState.get();
+        if (state == 0) {
+            return;
+        }
+
+        final OnMidiOutputQueueWatermarkListener queueWatermarkListener = this.queueWatermarkListener;
+        int queuedEventCount;
+        for (int cable = 0; cable < 16; cable++) {
+            if ((state & (1 << cable)) == 0) {
+                continue;
+            }
+            queuedEventCount = getQueuedEventCount(cable);
+            if (queuedEventCount <= lowWatermark && updateWatermarkState(1 << cable, false) && queueWatermarkListener != null) {
+                queueWatermarkListener.onMidiOutputQueueLowWatermark(this, cable, queuedEventCount);
+            }
+        }
+        if ((state & DEVICE_WATERMARK_BIT) != 0) {
+            queuedEventCount = getQueuedEventCount();
+            if (queuedEventCount <= lowWatermark && updateWatermarkState(DEVICE_WATERMARK_BIT, false) && queueWatermarkListener != null) {
+                queueWatermarkListener.onMidiOutputQueueLowWatermark(this, ALL_CABLES, queuedEventCount);
+            }
+        }
+    }
+
+    /**
+     * Updates the state of the high watermark
+     *
+     * @param bit the bit for the cable, or the whole device
+     * @param reached true if the high watermark reached
+     * @return true if the state changed
+     */
+    private boolean updateWatermarkState(int bit, boolean reached) {
+        int state;
+        do {
+            state = watermarkState.get();
+            if (((state & bit) != 0) == reached) {
+                return false;
+            }
+        } while (!watermarkState.compareAndSet(state, state ^ bit));
+        return true;
+    }
+
+    /**
+     * Set the time to wait for more events before sending a partially filled USB packet.<br />
+     * Events queued within this time are sent with one bulk transfer.
+     *
+     * @param flushDeadlineMicroseconds 0(default): send immediately, recommended: 0-1000
+     */
+    public void setFlushDeadline(int flushDeadlineMicroseconds) {
+        if (flushDeadlineMicroseconds < 0) {
+            flushDeadlineMicroseconds = 0;
+        }
+        flushDeadlineNanos = flushDeadlineMicroseconds * 1000L;
+    }
+
+    /**
+     * @return the time to wait for more events before sending a partially filled USB packet, in microseconds
+     */
+    public int getFlushDeadline() {
+        return (int) (flushDeadlineNanos / 1000L);
+    }
+
+    /**
+     * Get the number of bulk transfers since this device attached
+     *
+     * @return the transfer count
+     */
+    public long getTransferCount() {
+        return transferCount;
+    }
+
+    /**
+     * Get the number of events sent since this device attached
+     *
+     * @return the event count
+     */
+    public long getTransferredEventCount() {
+        return transferredEventCount;
+    }
+
+    /**
+     * Get the average number of events sent with one bulk transfer
+     *
+     * @return events per transfer, 0 if nothing sent
+     */
+    public float getEventsPerTransfer() {
+        final long transfers = transferCount;
+        if (transfers == 0) {
+            return 0;
+        }
+        return (float) transferredEventCount / transfers;
+    }
+
+    /**
+     * @return the current health of the device
+     */
+    @NonNull
+    public OutputHealth getHealth() {
+        return health;
+    }
+
+    /**
+     * Set the listener to observe the health changes
+     *
+     * @param healthChangedListener the listener, null to remove
+     */
+    public void setOnMidiOutputHealthChangedListener(@Nullable OnMidiOutputHealthChangedListener healthChangedListener) {
+        this.healthChangedListener = healthChangedListener;
+    }
+
+    /**
+     * Get the number of times the device has changed to the health
+     *
+     * @param health the OutputHealth
+     * @return the transition count
+     */
+    public long getHealthTransitionCount(@NonNull OutputHealth health) {
+        return healthTransitionCounts.get(health.ordinal());
+    }
+
+    /**
+     * Get the number of the retried transfers since this device attached
+     *
+     * @return the retry count
+     */
+    public long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Get the number of events discarded while the device is not {@link OutputHealth#HEALTHY}
+     *
+     * @return the discarded event count
+     */
+    public long getShedEventCount() {
+        return shedEventCount;
+    }
+
+    /**
+     * Get the current timeout of the synchronous bulkTransfer, adapted to the observed transfer latency
+     *
+     * @return the timeout in milliseconds
+     */
+    public int getTransferTimeout() {
+        return waiterThread.transferTimeout;
+    }
+
+    /**
+     * Set the time the transfers keep failing, to stop the device as {@link OutputHealth#DEAD}
+     *
+     * @param deadTimeout the time in milliseconds, default: 3000
+     */
+    public void setDeadTimeout(int deadTimeout) {
+        this.deadTimeout = Math.max(0, deadTimeout);
+    }
+
+    /**
+     * @return the time the transfers keep failing to stop the device, in milliseconds
+     */
+    public int getDeadTimeout() {
+        return deadTimeout;
+    }
+
+    /**
+     * Sets the number of {@link android.hardware.usb.UsbRequest}s used for sending.<br />
+     * 0(default): sends with synchronous bulkTransfer, retrying while failed.<br />
+     * 1 or more: the requests are queued without blocking, and the next packets are encoded while sending. Available on API Level 26 or later, and falls back to 0 if not available.<br />
+     * Ignored if the device is serviced by {@link UsbMidiReactor}.
+     *
+     * @param usbRequestCount the number of requests in flight
+     */
+    public void setUsbRequestCount(int usbRequestCount) {
+        waiterThread.usbRequestCount = Math.max(0, usbRequestCount);
+        waiterThread.wakeUp();
+    }
+
+    /**
+     * @return the number of {@link android.hardware.usb.UsbRequest}s used for sending, 0 if sending with synchronous bulkTransfer
+     */
+    public int getUsbRequestCount() {
+        return waiterThread.usbRequestCount;
+    }
+
+    /**
+     * Sets the time without sending, to release the buffers and the requests.<br />
+     * The sending thread waits without timeout until the next message sent, and prepares them again.
+     * Ignored if the device is serviced by {@link UsbMidiReactor}.
+     *
+     * @param idleTimeout the time in milliseconds, 0 to keep them. default: 10000
+     */
+    public void setIdleTimeout(int idleTimeout) {
+        waiterThread.idleTimeout = Math.max(0, idleTimeout);
+        waiterThread.wakeUp();
+    }
+
+    /**
+     * @return the time without sending to release the buffers and the requests in milliseconds, 0 if kept
+     */
+    public int getIdleTimeout() {
+        return waiterThread.idleTimeout;
+    }
+
+    /**
+     * Set the strategy for the sending thread to wait for the next event.<br />
+     * Ignored if the device is serviced by {@link UsbMidiReactor}.
+     *
+     * @param waitStrategy the WaitStrategy, default: {@link WaitStrategy#PARK}
+     */
+    public void setWaitStrategy(@NonNull WaitStrategy waitStrategy) {
+        waiterThread.waitStrategy = waitStrategy;
+        waiterThread.wakeUpWaiting();
+    }
+
+    /**
+     * @return the strategy for the sending thread to wait for the next event
+     */
+    @NonNull
+    public WaitStrategy getWaitStrategy() {
+        return waiterThread.waitStrategy;
+    }
+
+    /**
+     * @return true if the sending thread is waiting without the buffers and the requests
+     */
+    public boolean isIdle() {
+        return waiterThread.idle;
+    }
+
+    /**
+     * Get the number of messages waiting for the time specified with {@link #sendMidiMessageAt(long, int, int, int, int)}
+     *
+     * @return the number of scheduled messages
+     */
+    public int getScheduledEventCount() {
+        return packetScheduler.size();
+    }
+
+    /**
+     * Discards all messages waiting for the time specified with {@link #sendMidiMessageAt(long, int, int, int, int)}
+     */
+    public void clearScheduledEvents() {
+        packetScheduler.clear();
+    }
+
+    /**
+     * Get the average delay of the scheduled messages, between the specified time and the time actually sent
+     *
+     * @return the average delay in nanoseconds
+     */
+    public long getAverageScheduledJitterNanos() {
+        return packetScheduler.getAverageJitterNanos();
+    }
+
+    /**
+     * Get the maximum delay of the scheduled messages, between the specified time and the time actually sent
+     *
+     * @return the maximum delay in nanoseconds
+     */
+    public long getMaxScheduledJitterNanos() {
+        return packetScheduler.getMaxJitterNanos();
+    }
+
+    /**
+     * Get the product name
+     *
+     * @return the product name. null if API Level < {@link android.os.Build.VERSION_CODES#HONEYCOMB_MR2 }, or the product name is truly null
+     */
+    @Nullable
+    public String getProductName() {
+        return UsbMidiDeviceUtils.getProductName(usbDevice, usbDeviceConnection);
+    }
+
+    /**
+     * Get the manufacturer name
+     *
+     * @return the manufacturer name. null if API Level < {@link android.os.Build.VERSION_CODES#HONEYCOMB_MR2 }, or the manufacturer name is truly null
+     */
+    @Nullable
+    public String getManufacturerName() {
+        return UsbMidiDeviceUtils.getManufacturerName(usbDevice, usbDeviceConnection);
+    }
+
+    /**
+     * Get the device name(linux device path)
+     * @return the device name(linux device path)
+     */
+    @NonNull
+    public String getDeviceAddress() {
+        return usbDevice.getDeviceName();
+    }
+
+    /**
+     * @return the usbDevice
+     */
+    @NonNull
+    public UsbDevice getUsbDevice() {
+        return usbDevice;
+    }
+
+    /**
+     * @return the usbInterface
+     */
+    @Deprecated
+    @NonNull
+    public UsbInterface getUsbInterface() {
+        return usbInterface;
+    }
+
+    /**
+     * @return the usbEndpoint
+     */
+    @Deprecated
+    @NonNull
+    public UsbEndpoint getUsbEndpoint() {
+        return outputEndpoint;
+    }
+
+	/**
+	 * Sending thread for output data. Loops infinitely while stopFlag == false.<br />
+	 * With {@link UsbMidiReactor}, the thread is not started and the reactor thread sends the data instead.
+	 *
+	 * @author K.Shoji
+	 */
+    @SuppressLint("NewApi")
+	private final class WaiterThread extends Thread implements UsbMidiReactor.Task {
+		volatile boolean stopFlag;
+		volatile boolean suspendFlag;
+		volatile int usbRequestCount;
+        volatile boolean started;
+        volatile int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        volatile boolean idle;
+        volatile WaitStrategy waitStrategy = WaitStrategy.PARK;
+        volatile int transferTimeout = INITIAL_TRANSFER_TIMEOUT;
+
+        // smoothed latency of the bulkTransfer and its deviation, in microseconds
+        private long smoothedLatencyMicros = -1;
+        private long latencyDeviationMicros;
+        private int consecutiveSuccessCount;
+
+        // set by wakeUp, cleared by this thread before checking the queues
+        private volatile boolean signalled;
+        // true while this thread is waiting for the signal
+        private volatile boolean waiting;
+        private final Object signalLock = new Object();
+
+        // usb can't send data larger than maxPacketSize, and USB MIDI event packets are 4 bytes boundary.
+        private final int maxPacketSize = outputEndpoint.getMaxPacketSize() & ~3;
+        // obtained from UsbMidiBufferPool while sending
+        private byte[] endpointBuffer = null;
+
+        // the SysEx message sending
+        volatile SystemExclusiveTransfer systemExclusiveTransfer = null;
+        private boolean systemExclusiveEncoded;
+
+        // the SysEx messages and the held back packets, created when a SysEx message queued for the cable
+        private final CableQueue[] cableQueues = new CableQueue[16];
+        // bit n: cableQueues[n] has held back packets
+        private int deferredCables;
+        // the number of the cables can't hold back more packets, the normal lane is not polled while positive
+        private int fullCableQueueCount;
+        // the cable to be checked first when starting a SysEx message
+        private int nextSystemExclusiveCable;
+
+        // for asynchronous sending
+        private UsbRequestDispatcher usbRequestDispatcher = null;
+        private UsbRequestDispatcher.Transfer[] usbRequests = null;
+        private final ArrayDeque<UsbRequestDispatcher.Transfer> freeTransfers = new ArrayDeque<>();
+        private final BlockingQueue<UsbRequestDispatcher.Transfer> completedTransfers = new LinkedBlockingQueue<>();
+
+        // sending on UsbMidiReactor
+        volatile boolean onReactor;
+
+        /**
+		 * Constructor
+		 */
+		WaiterThread() {
+			stopFlag = false;
+			suspendFlag = false;
+		}
+
+        /**
+         * Wakes up the sending thread, to send the queued data
+         */
+        void wakeUp() {
+            if (onReactor) {
+                UsbMidiReactor.wakeUp();
+                return;
+            }
+
+            signalled = true;
+            if (waiting) {
+                wakeUpWaiting();
+            }
+        }
+
+        /**
+         * Wakes up the sending thread waiting with any {@link WaitStrategy}
+         */
+        void wakeUpWaiting() {
+            synchronized (signalLock) {
+                signalLock.notifyAll();
+            }
+            LockSupport.unpark(this);
+        }
+
+        /**
+         * Waits until {@link #wakeUp()} called, or the timeout passed
+         *
+         * @param timeoutNanos the timeout in nanoseconds, {@link Long#MAX_VALUE} to wait infinitely
+         */
+        private void awaitSignal(long timeoutNanos) {
+            final WaitStrategy waitStrategy = this.waitStrategy;
+            if (waitStrategy == WaitStrategy.SPIN_YIELD) {
+                final long startTime = System.nanoTime();
+                final long spinDuration = Math.min(timeoutNanos, SPIN_YIELD_DURATION_NANOS);
+                for (int i = 0; !signalled && !stopFlag; i++) {
+                    if (i >= SPIN_COUNT) {
+                        if (System.nanoTime() - startTime >= spinDuration) {
+                            break;
+                        }
+                        Thread.yield();
+                    }
+                }
+                if (timeoutNanos != Long.MAX_VALUE) {
+                    timeoutNanos -= System.nanoTime() - startTime;
+                }
+            }
+
+            waiting = true;
+            if (!signalled && !stopFlag && timeoutNanos > 0) {
+                if (waitStrategy == WaitStrategy.BLOCKING) {
+                    synchronized (signalLock) {
+                        if (!signalled && !stopFlag) {
+                            try {
+                                signalLock.wait(timeoutNanos == Long.MAX_VALUE ? 0 : Math.max(1, timeoutNanos / 1_000_000L));
+                            } catch (InterruptedException e) {
+                                // interrupted: stopping
+                            }
+                        }
+                    }
+                } else {
+                    LockSupport.parkNanos(this, timeoutNanos);
+                }
+            }
+            waiting = false;
+            signalled = false;
+        }
+
+		@Override
+		public void run() {
+			int endpointBufferLength;
+			long waitNanos;
+			long nextDueTime;
+            int bytesWritten;
+            long transferStartTime;
+            long transferEndTime;
+            long failedSince;
+            UsbRequestDispatcher.Transfer usbRequestTransfer;
+            boolean sentAsynchronously;
+            long lastSentNanos = System.nanoTime();
+
+            while (!stopFlag) {
+                if (endpointBuffer == null) {
+                    endpointBuffer = UsbMidiBufferPool.obtain(maxPacketSize);
+                }
+
+                if (usbRequestCount > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    if (usbRequests == null || usbRequests.length != usbRequestCount) {
+                        closeUsbRequests();
+                        if (!openUsbRequests(usbRequestCount, this::onUsbRequestCompletedAsynchronously)) {
+                            // UsbRequest is not available
+                            usbRequestCount = 0;
+                        }
+                    }
+                } else if (usbRequests != null) {
+                    closeUsbRequests();
+                }
+
+                if (usbRequests != null) {
+                    // reap the completed requests
+                    while ((usbRequestTransfer = completedTransfers.poll()) != null) {
+                        onUsbRequestCompleted(usbRequestTransfer);
+                    }
+                    if (!checkInFlightRequests(System.nanoTime())) {
+                        // maybe disconnected
+                        stopFlag = true;
+                        break;
+                    }
+                }
+
+                if (suspendFlag) {
+                    // wait until event queued, or stopFlag/suspendFlag changed.
+                    awaitSignal(500_000_000L);
+                    continue;
+                }
+
+                endpointBufferLength = fillEndpointBuffer(true);
+
+                sentAsynchronously = false;
+                if (endpointBufferLength > 0 && usbRequests != null) {
+                    // wait for a free request
+                    usbRequestTransfer = freeTransfers.poll();
+                    while (usbRequestTransfer == null && !stopFlag) {
+                        try {
+                            usbRequestTransfer = completedTransfers.poll(Math.min(REQUEST_WAIT_TIMEOUT, transferTimeout), TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            // interrupted: stopping
+                        }
+                        if (usbRequestTransfer != null) {
+                            onUsbRequestCompleted(usbRequestTransfer);
+                        }
+                        if (!checkInFlightRequests(System.nanoTime())) {
+                            // maybe disconnected
+                            stopFlag = true;
+                        }
+                        usbRequestTransfer = freeTransfers.poll();
+                    }
+
+                    if (usbRequestTransfer != null) {
+                        // encode the next packets while sending
+                        sentAsynchronously = queueEndpointBuffer(usbRequestTransfer, endpointBufferLength);
+                    }
+                }
+
+                if (sentAsynchronously) {
+                    // the result is checked when the request completed
+                } else if (endpointBufferLength > 0) {
+                    failedSince = 0;
+                    // if device disconnected, usbDeviceConnection.bulkTransfer returns negative value
+                    while (!stopFlag) {
+                        // loop until transfer completed
+                        synchronized (usbDeviceConnection) {
+                            // measured without waiting for the lock
+                            transferStartTime = System.nanoTime();
+                            bytesWritten = usbDeviceConnection.bulkTransfer(outputEndpoint, endpointBuffer, endpointBufferLength, transferTimeout);
+                            transferEndTime = System.nanoTime();
+                        }
+
+                        if (bytesWritten >= 0) {
+                            onTransferSucceeded(transferEndTime - transferStartTime);
+
+                            // only this thread updates the counters
+                            transferCount++;
+                            transferredEventCount += endpointBufferLength / 4;
+                            break;
+                        }
+
+                        if (failedSince == 0) {
+                            failedSince = transferStartTime;
+                        }
+                        if (!onTransferFailed(transferEndTime - failedSince, transferEndTime - transferStartTime)) {
+                            // maybe disconnected
+                            stopFlag = true;
+                            break;
+                        }
+                    }
+                }
+
+                if (endpointBufferLength > 0) {
+                    lastSentNanos = System.nanoTime();
+                }
+                if (updateSystemExclusiveTransfer() || endpointBufferLength > 0) {
+                    continue;
+                }
+
+				// no more data in queue, wait.
+				nextDueTime = packetScheduler.peekDueTime();
+				if (hasInFlightRequests()) {
+					// check the requests again within the timeout
+					nextDueTime = Math.min(nextDueTime, System.nanoTime() + transferTimeout * 1_000_000L + SCHEDULER_SLEEP_MARGIN_NANOS);
+				} else if (nextDueTime == Long.MAX_VALUE && idleTimeout > 0 && System.nanoTime() - lastSentNanos >= idleTimeout * 1_000_000L) {
+					// idle: release the resources, and wait until the next message sent
+					releaseResources();
+					idle = true;
+					awaitSignal(Long.MAX_VALUE);
+					idle = false;
+					lastSentNanos = System.nanoTime();
+					continue;
+				}
+				waitNanos = nextDueTime == Long.MAX_VALUE ? Long.MAX_VALUE : nextDueTime - System.nanoTime();
+				if (waitNanos <= SCHEDULER_SLEEP_MARGIN_NANOS) {
+					// the scheduled event is coming soon
+					if (waitNanos > 0) {
+						LockSupport.parkNanos(waitNanos);
+					}
+					continue;
+				}
+				// wait until event queued, stopFlag changed, or the scheduled event is coming
+				awaitSignal(Math.min(500_000_000L, waitNanos - SCHEDULER_SLEEP_MARGIN_NANOS));
+			}
+
+            // the thread is finishing now.
+            releaseResources();
+            cancelSystemExclusiveTransfersOnStopped();
+		}
+
+        /**
+         * Starts sending on {@link UsbMidiReactor}, instead of starting the thread
+         *
+         * @return true if started
+         */
+        boolean startOnReactor() {
+            if (!openUsbRequests(UsbMidiReactor.USB_REQUEST_COUNT, this::onReactorTransferCompleted)) {
+                return false;
+            }
+            endpointBuffer = UsbMidiBufferPool.obtain(maxPacketSize);
+            onReactor = true;
+            UsbMidiReactor.register(this);
+            return true;
+        }
+
+        /**
+         * Stops sending on {@link UsbMidiReactor}
+         */
+        void stopOnReactor() {
+            UsbMidiReactor.unregister(this);
+            synchronized (this) {
+                releaseResources();
+                cancelSystemExclusiveTransfersOnStopped();
+            }
+        }
+
+        /**
+         * Called on the reactor thread when a request completed
+         *
+         * @param transfer the completed request
+         */
+        private synchronized void onReactorTransferCompleted(@NonNull UsbRequestDispatcher.Transfer transfer) {
+            onUsbRequestCompleted(transfer);
+        }
+
+        @Override
+        public synchronized long runOnReactor(long nowNanos) {
+            if (stopFlag) {
+                if (!systemExclusiveTransfers.isEmpty()) {
+                    // stopped by itself, such as disconnected
+                    cancelSystemExclusiveTransfersOnStopped();
+                }
+                return Long.MAX_VALUE;
+            }
+            if (suspendFlag || usbRequests == null) {
+                return Long.MAX_VALUE;
+            }
+            if (!checkInFlightRequests(nowNanos)) {
+                // maybe disconnected
+                stopFlag = true;
+                cancelSystemExclusiveTransfersOnStopped();
+                return Long.MAX_VALUE;
+            }
+
+            int endpointBufferLength;
+            while (!freeTransfers.isEmpty()) {
+                // the reactor thread must not wait for the flush deadline
+                endpointBufferLength = fillEndpointBuffer(false);
+                if (endpointBufferLength == 0) {
+                    if (updateSystemExclusiveTransfer()) {
+                        // finished the SysEx, try the next one
+                        continue;
+                    }
+                    break;
+                }
+
+                if (!queueEndpointBuffer(freeTransfers.poll(), endpointBufferLength)) {
+                    // maybe disconnected
+                    updateHealth(OutputHealth.DEAD);
+                    stopFlag = true;
+                    break;
+                }
+
+                updateSystemExclusiveTransfer();
+            }
+            if (stopFlag) {
+                cancelSystemExclusiveTransfersOnStopped();
+                return Long.MAX_VALUE;
+            }
+
+            final long nextCheckTime = hasInFlightRequests() ? nowNanos + transferTimeout * 1_000_000L : Long.MAX_VALUE;
+            if (freeTransfers.isEmpty()) {
+                // called again when a request completed, or the timeout passed
+                return nextCheckTime;
+            }
+            return Math.min(packetScheduler.peekDueTime(), nextCheckTime);
+        }
+
+        /**
+         * Called on the dispatching thread when a request completed, checked by this thread
+         *
+         * @param transfer the completed request
+         */
+        private void onUsbRequestCompletedAsynchronously(@NonNull UsbRequestDispatcher.Transfer transfer) {
+            completedTransfers.offer(transfer);
+            wakeUp();
+        }
+
+        /**
+         * Checks the result of the completed request, called on the thread sending with the requests
+         *
+         * @param transfer the completed request
+         */
+        private void onUsbRequestCompleted(@NonNull UsbRequestDispatcher.Transfer transfer) {
+            if (!UsbRequestDispatcher.contains(usbRequests, transfer) || transfer.queuedTimeNanos == 0) {
+                // closed, or cancelled
+                return;
+            }
+
+            if (transfer.buffer.position() >= transfer.queuedLength) {
+                onTransferSucceeded(-1);
+
+                // only this thread updates the counters
+                transferCount++;
+                transferredEventCount += transfer.queuedLength / 4;
+
+                transfer.queuedTimeNanos = 0;
+                freeTransfers.add(transfer);
+                return;
+            }
+
+            // failed: queue the same data again, after the timeout
+            final long nowNanos = System.nanoTime();
+            if (!onTransferFailed(nowNanos - transfer.queuedTimeNanos, -1)) {
+                // maybe disconnected
+                stopFlag = true;
+                return;
+            }
+            transfer.retryTimeNanos = nowNanos + transferTimeout * 1_000_000L;
+            // already reported as failed
+            transfer.timedOut = true;
+        }
+
+        /**
+         * Queues the failed requests again, and checks the requests not completed within the timeout
+         *
+         * @param nowNanos the current time based on {@link System#nanoTime()}
+         * @return false if the device is dead
+         */
+        private boolean checkInFlightRequests(long nowNanos) {
+            long inFlightNanos = 0;
+            for (UsbRequestDispatcher.Transfer transfer : usbRequests) {
+                if (transfer.queuedTimeNanos == 0) {
+                    continue;
+                }
+
+                if (transfer.retryTimeNanos != 0 && transfer.retryTimeNanos - nowNanos <= 0) {
+                    transfer.retryTimeNanos = 0;
+                    transfer.buffer.position(0);
+                    transfer.buffer.limit(transfer.queuedLength);
+                    if (!transfer.queue()) {
+                        updateHealth(OutputHealth.DEAD);
+                        return false;
+                    }
+                }
+
+                if (nowNanos - transfer.queuedTimeNanos >= transferTimeout * 1_000_000L && !transfer.timedOut) {
+                    // not completed within the timeout, report once for each request
+                    transfer.timedOut = true;
+                    if (!onTransferFailed(nowNanos - transfer.queuedTimeNanos, -1)) {
+                        return false;
+                    }
+                }
+                inFlightNanos = Math.max(inFlightNanos, nowNanos - transfer.queuedTimeNanos);
+            }
+
+            if (inFlightNanos >= STALLED_TIMEOUT * 1_000_000L) {
+                return updateHealthOnFailure(inFlightNanos);
+            }
+            return true;
+        }
+
+        /**
+         * @return true if some requests are not completed yet
+         */
+        private boolean hasInFlightRequests() {
+            return usbRequests != null && freeTransfers.size() < usbRequests.length;
+        }
+
+        /**
+         * Prepares the requests for sending
+         *
+         * @param count the number of requests
+         * @param completionHandler called when a request completed
+         * @return true if prepared
+         */
+        private boolean openUsbRequests(int count, @NonNull UsbRequestDispatcher.CompletionHandler completionHandler) {
+            usbRequestDispatcher = UsbRequestDispatcher.acquire(usbDeviceConnection);
+            usbRequests = usbRequestDispatcher.createTransfers(outputEndpoint, count, maxPacketSize, completionHandler);
+            if (usbRequests == null) {
+                usbRequestDispatcher.release();
+                usbRequestDispatcher = null;
+                return false;
+            }
+
+            freeTransfers.clear();
+            completedTransfers.clear();
+            for (UsbRequestDispatcher.Transfer transfer : usbRequests) {
+                freeTransfers.add(transfer);
+            }
+            return true;
+        }
+
+        /**
+         * Cancels and releases the requests
+         */
+        private void closeUsbRequests() {
+            UsbRequestDispatcher.closeTransfers(usbRequests);
+            usbRequests = null;
+            freeTransfers.clear();
+            completedTransfers.clear();
+            if (usbRequestDispatcher != null) {
+                usbRequestDispatcher.release();
+                usbRequestDispatcher = null;
+            }
+        }
+
+        /**
+         * Releases the requests and the buffers, prepared again when sending
+         */
+        private void releaseResources() {
+            closeUsbRequests();
+            if (endpointBuffer != null) {
+                UsbMidiBufferPool.release(endpointBuffer);
+                endpointBuffer = null;
+            }
+            packetScheduler.trimToSize();
+        }
+
+        /**
+         * Fills the endpoint buffer with queued packets
+         *
+         * @param waitForDeadline true to wait for more packets until the flush deadline
+         * @return the length filled
+         */
+        private int fillEndpointBuffer(boolean waitForDeadline) {
+            long packet;
+            long flushDeadline = 0;
+            long waitNanos;
+            int endpointBufferLength = 0;
+
+            systemExclusiveEncoded = false;
+            takeQueuedSystemExclusiveTransfers();
+            while (endpointBufferLength < maxPacketSize) {
+                // real-time messages first, then scheduled messages
+                packet = realTimePacketBuffer.poll();
+                if (packet == UsbMidiPacketRingBuffer.EMPTY && !packetScheduler.isEmpty() && fullCableQueueCount == 0) {
+                    packet = packetScheduler.pollDue(System.nanoTime());
+                    if (packet != UsbMidiPacketRingBuffer.EMPTY && deferPacket((int) packet, false)) {
+                        continue;
+                    }
+                }
+                if (packet == UsbMidiPacketRingBuffer.EMPTY && deferredCables != 0) {
+                    packet = pollDeferredPacket();
+                }
+                if (packet == UsbMidiPacketRingBuffer.EMPTY && fullCableQueueCount == 0) {
+                    packet = packetBuffer.poll();
+                    if (packet != UsbMidiPacketRingBuffer.EMPTY && deferPacket((int) packet, true)) {
+                        continue;
+                    }
+                }
+                if (packet == UsbMidiPacketRingBuffer.EMPTY) {
+                    if (systemExclusiveTransfer == null) {
+                        systemExclusiveTransfer = pollStartableSystemExclusiveTransfer();
+                    }
+                    if (systemExclusiveTransfer != null) {
+                        if (systemExclusiveTransfer.isEncoded()) {
+                            // notify the transfer finished, before starting the next one
+                            break;
+                        }
+
+                        // queued SysEx fills the rest of the buffer
+                        endpointBufferLength += systemExclusiveTransfer.encodeNextPacket(endpointBuffer, endpointBufferLength);
+                        systemExclusiveEncoded = true;
+                        continue;
+                    }
+
+                    if (endpointBufferLength == 0 || flushDeadlineNanos <= 0 || !waitForDeadline) {
+                        break;
+                    }
+
+                    // wait for more packets until the deadline
+                    waitNanos = flushDeadline - System.nanoTime();
+                    if (waitNanos <= 0) {
+                        break;
+                    }
+                    LockSupport.parkNanos(Math.min(waitNanos, FLUSH_POLLING_INTERVAL_NANOS));
+                    continue;
+                }
+
+                if (isShed(packet)) {
+                    // only this thread updates the counters
+                    shedEventCount++;
+                    continue;
+                }
+
+                if (endpointBufferLength == 0) {
+                    flushDeadline = System.nanoTime() + flushDeadlineNanos;
+                }
+                endpointBuffer[endpointBufferLength] = (byte) (packet >>> 24);
+                endpointBuffer[endpointBufferLength + 1] = (byte) (packet >>> 16);
+                endpointBuffer[endpointBufferLength + 2] = (byte) (packet >>> 8);
+                endpointBuffer[endpointBufferLength + 3] = (byte) packet;
+                endpointBufferLength += 4;
+            }
+
+            if (endpointBufferLength > 0) {
+                checkLowWatermark();
+            }
+            return endpointBufferLength;
+        }
+
+        /**
+         * Moves the SysEx messages queued by the other threads into {@link #cableQueues}
+         */
+        private void takeQueuedSystemExclusiveTransfers() {
+            SystemExclusiveTransfer transfer;
+            while ((transfer = queuedSystemExclusiveTransfers.poll()) != null) {
+                if (cableQueues[transfer.getCable()] == null) {
+                    cableQueues[transfer.getCable()] = new CableQueue();
+                }
+                cableQueues[transfer.getCable()].transfers.add(transfer);
+            }
+        }
+
+        /**
+         * Holds back the packet queued after the SysEx message on the same cable.<br />
+         * Only System Real-time messages can be inserted into the SysEx message, and the SysEx message is sent in the queued order in the cable.
+         *
+         * @param packet the USB MIDI event packet
+         * @param inNormalLane true if the packet has been taken from the normal lane, false if scheduled
+         * @return true if held back
+         */
+        private boolean deferPacket(int packet, boolean inNormalLane) {
+            final int cable = packet >>> 28;
+            final CableQueue cableQueue = cableQueues[cable];
+            if (cableQueue == null) {
+                return false;
+            }
+
+            final SystemExclusiveTransfer firstTransfer = cableQueue.transfers.peek();
+            // the order in the normal lane of the cable
+            final long packetOrdinal = packetBuffer.getPolledCount(cable);
+            if (inNormalLane) {
+                if (cableQueue.size == 0 && (firstTransfer == null || packetOrdinal <= firstTransfer.precedingPacketCount)) {
+                    // queued before the SysEx message
+                    return false;
+                }
+            } else if (firstTransfer == null || firstTransfer != systemExclusiveTransfer) {
+                // the scheduled packets are ordered by the time, only kept out of the SysEx message sending
+                return false;
+            }
+
+            cableQueue.add(packet, packetOrdinal);
+            deferredCables |= 1 << cable;
+            if (cableQueue.isFull()) {
+                fullCableQueueCount++;
+            }
+            return true;
+        }
+
+        /**
+         * Retrieves the held back packet, which can be sent before the SysEx messages of its cable
+         *
+         * @return the packet, or {@link UsbMidiPacketRingBuffer#EMPTY}
+         */
+        private long pollDeferredPacket() {
+            for (int cable = 0; cable < 16; cable++) {
+                if ((deferredCables & (1 << cable)) == 0) {
+                    continue;
+                }
+
+                final CableQueue cableQueue = cableQueues[cable];
+                final SystemExclusiveTransfer firstTransfer = cableQueue.transfers.peek();
+                if (firstTransfer != null && (firstTransfer == systemExclusiveTransfer || cableQueue.peekOrdinal() > firstTransfer.precedingPacketCount)) {
+                    // queued after the SysEx message
+                    continue;
+                }
+
+                if (cableQueue.isFull()) {
+                    fullCableQueueCount--;
+                }
+                final int packet = cableQueue.poll();
+                if (cableQueue.size == 0) {
+                    deferredCables &= ~(1 << cable);
+                }
+                return packet & 0xffffffffL;
+            }
+            return UsbMidiPacketRingBuffer.EMPTY;
+        }
+
+        /**
+         * Retrieves the SysEx message which all the preceding packets of its cable have been sent
+         *
+         * @return the SysEx message, or null
+         */
+        @Nullable
+        private SystemExclusiveTransfer pollStartableSystemExclusiveTransfer() {
+            for (int i = 0; i < 16; i++) {
+                final int cable = (nextSystemExclusiveCable + i) & 0xf;
+                final CableQueue cableQueue = cableQueues[cable];
+                if (cableQueue == null) {
+                    continue;
+                }
+                final SystemExclusiveTransfer firstTransfer = cableQueue.transfers.peek();
+                if (firstTransfer == null) {
+                    continue;
+                }
+                if (packetBuffer.getPolledCount(cable) < firstTransfer.precedingPacketCount) {
+                    // the preceding packets are still in the normal lane
+                    continue;
+                }
+                if (cableQueue.size > 0 && cableQueue.peekOrdinal() <= firstTransfer.precedingPacketCount) {
+                    // the preceding packets are held back
+                    continue;
+                }
+
+                // the other cables first next time
+                nextSystemExclusiveCable = cable + 1;
+                return firstTransfer;
+            }
+            return null;
+        }
+
+        /**
+         * Updates the latency estimation and the health, called when a transfer succeeded
+         *
+         * @param latencyNanos the time taken by the synchronous transfer, negative if unknown
+         */
+        private void onTransferSucceeded(long latencyNanos) {
+            if (latencyNanos >= 0) {
+                final long latencyMicros = latencyNanos / 1000L;
+                if (smoothedLatencyMicros < 0) {
+                    smoothedLatencyMicros = latencyMicros;
+                    latencyDeviationMicros = latencyMicros / 2;
+                } else {
+                    final long error = latencyMicros - smoothedLatencyMicros;
+                    smoothedLatencyMicros += error / 8;
+                    latencyDeviationMicros += (Math.abs(error) - latencyDeviationMicros) / 4;
+                }
+                // as the retransmission timeout of TCP: the smoothed latency with 4 times of the deviation
+                transferTimeout = (int) Math.max(MIN_TRANSFER_TIMEOUT, Math.min(MAX_TRANSFER_TIMEOUT, (smoothedLatencyMicros + 4 * latencyDeviationMicros) / 1000L + 1));
+            }
+
+            consecutiveSuccessCount++;
+            if (health == OutputHealth.STALLED) {
+                updateHealth(OutputHealth.CONGESTED);
+            } else if (health == OutputHealth.CONGESTED && consecutiveSuccessCount >= RECOVERY_TRANSFER_COUNT) {
+                updateHealth(OutputHealth.HEALTHY);
+            }
+        }
+
+        /**
+         * Backs off and updates the health, called when a transfer failed, or a request timed out
+         *
+         * @param failedNanos the time since the first failure for the data, or since the request queued
+         * @param attemptNanos the time taken by the last failed synchronous transfer, negative not to wait
+         * @return false if the device is dead
+         */
+        private boolean onTransferFailed(long failedNanos, long attemptNanos) {
+            // only this thread updates the counters
+            retryCount++;
+            if (!updateHealthOnFailure(failedNanos)) {
+                return false;
+            }
+
+            final int lastTimeout = transferTimeout;
+            // the timeout doubles while failing
+            transferTimeout = Math.min(MAX_TRANSFER_TIMEOUT, lastTimeout * 2);
+            if (attemptNanos >= 0 && attemptNanos < lastTimeout * 500_000L) {
+                // failed without waiting for the timeout, wait instead
+                LockSupport.parkNanos(lastTimeout * 1_000_000L);
+            }
+            return true;
+        }
+
+        /**
+         * Updates the health with the time the data couldn't be sent
+         *
+         * @param failedNanos the time since the first failure for the data, or since the request queued
+         * @return false if the device is dead
+         */
+        private boolean updateHealthOnFailure(long failedNanos) {
+            consecutiveSuccessCount = 0;
+            if (failedNanos >= deadTimeout * 1_000_000L) {
+                updateHealth(OutputHealth.DEAD);
+                return false;
+            }
+            if (failedNanos >= STALLED_TIMEOUT * 1_000_000L) {
+                updateHealth(OutputHealth.STALLED);
+            } else if (health == OutputHealth.HEALTHY) {
+                updateHealth(OutputHealth.CONGESTED);
+            }
+            return true;
+        }
+
+        /**
+         * Changes the health, and notifies the listener
+         *
+         * @param newHealth the new health
+         */
+        private void updateHealth(@NonNull OutputHealth newHealth) {
+            final OutputHealth previousHealth = health;
+            if (previousHealth == newHealth) {
+                return;
+            }
+            health = newHealth;
+            healthTransitionCounts.incrementAndGet(newHealth.ordinal());
+
+            final OnMidiOutputHealthChangedListener healthChangedListener = MidiOutputDevice.this.healthChangedListener;
+            if (healthChangedListener != null) {
+                healthChangedListener.onMidiOutputHealthChanged(MidiOutputDevice.this, previousHealth, newHealth);
+            }
+        }
+
+        /**
+         * Checks if the packet is discarded with the current health
+         *
+         * @param packet the USB MIDI event packet
+         * @return true if the packet should be discarded
+         */
+        private boolean isShed(long packet) {
+            final OutputHealth health = MidiOutputDevice.this.health;
+            if (health == OutputHealth.HEALTHY) {
+                return false;
+            }
+
+            switch ((int) (packet >>> 24) & 0xf) {
+                case 0x5:
+                case 0xf:
+                    // Active Sensing
+                    return ((packet >>> 16) & 0xff) == 0xfe;
+                case 0xa:
+                case 0xd:
+                    // Poly-KeyPress, Channel Pressure
+                    return true;
+                case 0xb:
+                    if (health != OutputHealth.STALLED) {
+                        return false;
+                    }
+                    switch ((int) (packet >>> 8) & 0xff) {
+                        case 0: // Bank Select MSB
+                        case 32: // Bank Select LSB
+                        case 6: // Data Entry MSB
+                        case 38: // Data Entry LSB
+                        case 96: // Data Increment
+                        case 97: // Data Decrement
+                        case 98: // NRPN LSB
+                        case 99: // NRPN MSB
+                        case 100: // RPN LSB
+                        case 101: // RPN MSB
+                            return false;
+                        default:
+                            // continuous controllers, not the channel mode messages
+                            return ((packet >>> 8) & 0xff) < 120;
+                    }
+                case 0xe:
+                    // PitchBend Change
+                    return health == OutputHealth.STALLED;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Queues the endpoint buffer with the request, without waiting for the completion
+         *
+         * @param transfer the free request
+         * @param endpointBufferLength the length of the endpoint buffer
+         * @return true if queued, the request is returned to the free list if failed
+         */
+        private boolean queueEndpointBuffer(@NonNull UsbRequestDispatcher.Transfer transfer, int endpointBufferLength) {
+            transfer.buffer.clear();
+            transfer.buffer.put(endpointBuffer, 0, endpointBufferLength);
+            transfer.buffer.flip();
+            transfer.queuedLength = endpointBufferLength;
+            transfer.queuedTimeNanos = System.nanoTime();
+            transfer.retryTimeNanos = 0;
+            transfer.timedOut = false;
+            if (transfer.queue()) {
+                return true;
+            }
+            transfer.queuedTimeNanos = 0;
+            freeTransfers.add(transfer);
+            return false;
+        }
+
+        /**
+         * Notifies the progress of the SysEx message sending, after the endpoint buffer has been sent
+         *
+         * @return true if a SysEx message is sending
+         */
+        private boolean updateSystemExclusiveTransfer() {
+            if (systemExclusiveTransfer == null || stopFlag) {
+                return false;
+            }
+
+            if (systemExclusiveEncoded) {
+                systemExclusiveEncoded = false;
+                systemExclusiveTransfer.onTransferred();
+                if (systemExclusiveTransfer.transferListener != null && !systemExclusiveTransfer.isCancelled()) {
+                    systemExclusiveTransfer.transferListener.onMidiSystemExclusiveTransferProgress(MidiOutputDevice.this, systemExclusiveTransfer, systemExclusiveTransfer.getTransferredLength(), systemExclusiveTransfer.getLength());
+                }
+            }
+            if (systemExclusiveTransfer.isEncoded()) {
+                cableQueues[systemExclusiveTransfer.getCable()].transfers.remove(systemExclusiveTransfer);
+                finishSystemExclusiveTransfer(systemExclusiveTransfer);
+                systemExclusiveTransfer = null;
+            }
+            return true;
+        }
+
+        /**
+         * Cancels the SysEx messages not sent, when the sending has been stopped.<br />
+         * The messages sent after this call are cancelled by the sender.
+         */
+        private void cancelSystemExclusiveTransfersOnStopped() {
+            synchronized (MidiOutputDevice.this) {
+                // the senders holding the lock have queued the messages, or will see the stopFlag
+                stopFlag = true;
+            }
+            cancelSystemExclusiveTransfers();
+        }
+
+        /**
+         * Cancels the SysEx messages not sent
+         */
+        private void cancelSystemExclusiveTransfers() {
+            if (systemExclusiveTransfer != null) {
+                systemExclusiveTransfer.cancel();
+                finishSystemExclusiveTransfer(systemExclusiveTransfer);
+                systemExclusiveTransfer = null;
+            }
+            takeQueuedSystemExclusiveTransfers();
+            for (int cable = 0; cable < 16; cable++) {
+                final CableQueue cableQueue = cableQueues[cable];
+                if (cableQueue == null) {
+                    continue;
+                }
+                SystemExclusiveTransfer transfer;
+                while ((transfer = cableQueue.transfers.poll()) != null) {
+                    if (!transfer.isFinished()) {
+                        transfer.cancel();
+                        finishSystemExclusiveTransfer(transfer);
+                    }
+                }
+                cableQueues[cable] = null;
+            }
+            deferredCables = 0;
+            fullCableQueueCount = 0;
+        }
+
+        /**
+         * Notify the SysEx transfer has been finished
+         *
+         * @param systemExclusiveTransfer the SystemExclusiveTransfer
+         */
+        private void finishSystemExclusiveTransfer(@NonNull SystemExclusiveTransfer systemExclusiveTransfer) {
+            systemExclusiveTransfers.remove(systemExclusiveTransfer);
+            systemExclusiveTransfer.onFinished();
+            final OnMidiSystemExclusiveTransferListener transferListener = systemExclusiveTransfer.transferListener;
+            if (transferListener == null) {
+                return;
+            }
+            if (systemExclusiveTransfer.isCancelled()) {
+                transferListener.onMidiSystemExclusiveTransferCancelled(MidiOutputDevice.this, systemExclusiveTransfer);
+            } else {
+                transferListener.onMidiSystemExclusiveTransferCompleted(MidiOutputDevice.this, systemExclusiveTransfer);
+            }
+        }
+	}
+
+	/**
+	 * Sends MIDI message to output device.
+	 *
+	 * @param codeIndexNumber Code Index Number(CIN)
+	 * @param cable the cable ID 0-15
+	 * @param byte1 the first byte
+	 * @param byte2 the second byte
+	 * @param byte3 the third byte
+	 */
+	private void sendMidiMessage(int codeIndexNumber, int cable, int byte1, int byte2, int byte3) {
+        final UsbMidiPacketRingBuffer lane = getLane(codeIndexNumber, byte1);
+        if (lane == null) {
+            // already stopped
+            return;
+        }
+
+        if (lane.offer(((((cable & 0xf) << 4) | (codeIndexNumber & 0xf)) << 24) | ((byte1 & 0xff) << 16) | ((byte2 & 0xff) << 8) | (byte3 & 0xff))) {
+            // message has been queued, so wake up the waiter thread
+            waiterThread.wakeUp();
+            checkHighWatermark(cable & 0xf);
+        }
+	}
+
+    /**
+     * Sends MIDI message to output device, without waiting regardless of the {@link BackPressurePolicy}.
+     *
+     * @param codeIndexNumber Code Index Number(CIN)
+     * @param cable the cable ID 0-15
+     * @param byte1 the first byte
+     * @param byte2 the second byte
+     * @param byte3 the third byte
+     * @return true if queued, false if the queue is full or the device has been stopped
+     */
+    private boolean trySendMidiMessage(int codeIndexNumber, int cable, int byte1, int byte2, int byte3) {
+        final UsbMidiPacketRingBuffer lane = getLane(codeIndexNumber, byte1);
+        if (lane == null) {
+            // already stopped
+            return false;
+        }
 
-        // blocks while the thread will stop
-        while (waiterThread.isAlive()) {
-            try {
-                waiterThread.interrupt();
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                // ignore
-            }
+        if (!lane.tryOffer(((((cable & 0xf) << 4) | (codeIndexNumber & 0xf)) << 24) | ((byte1 & 0xff) << 16) | ((byte2 & 0xff) << 8) | (byte3 & 0xff))) {
+            return false;
         }
+        waiterThread.wakeUp();
+        checkHighWatermark(cable & 0xf);
+        return true;
     }
 
     /**
-     * Suspends event sending
+     * Get the sending queue for the message, starts sending if needed
+     *
+     * @param codeIndexNumber Code Index Number(CIN)
+     * @param byte1 the first byte
+     * @return the queue, null if the device has been stopped
      */
-    public void suspend() {
-        waiterThread.suspendFlag = true;
-        waiterThread.interrupt();
+    @Nullable
+    private UsbMidiPacketRingBuffer getLane(int codeIndexNumber, int byte1) {
+        startIfNeeded();
+        if ((codeIndexNumber == 0x5 || codeIndexNumber == 0xf) && (byte1 & 0xff) >= 0xf8) {
+            // System Real-time: Timing Clock, Start, Continue, Stop, Active Sensing, Reset
+            return realTimePacketBuffer;
+        }
+        return packetBuffer;
     }
 
-    /**
-     * Resumes event sending
+	/**
+     * Send a MIDI message with 3 bytes raw MIDI data
+     *
+     * @param cable the cable ID 0-15
+     * @param byte1 the first byte
+     * @param byte2 the second byte: ignored when 1 byte message
+     * @param byte3 the third byte: ignored when 1-2 byte message
      */
-    public void resume() {
-        waiterThread.suspendFlag = false;
-        waiterThread.interrupt();
+    public void sendMidiMessage(int cable, int byte1, int byte2, int byte3) {
+        final int codeIndexNumber = getCodeIndexNumber(byte1, byte2, byte3);
+        if (codeIndexNumber < 0) {
+            // ignored
+            return;
+        }
+
+        sendMidiMessage(codeIndexNumber, cable, byte1, byte2, byte3);
     }
 
     /**
-     * Get the product name
+     * Send a MIDI message with 3 bytes raw MIDI data, returns immediately if the sending queue is full
      *
-     * @return the product name. null if API Level < {@link android.os.Build.VERSION_CODES#HONEYCOMB_MR2 }, or the product name is truly null
+     * @param cable the cable ID 0-15
+     * @param byte1 the first byte
+     * @param byte2 the second byte: ignored when 1 byte message
+     * @param byte3 the third byte: ignored when 1-2 byte message
+     * @return true if queued, false if the message is invalid, the queue is full, or the device has been stopped
      */
-    @Nullable
-    public String getProductName() {
-        return UsbMidiDeviceUtils.getProductName(usbDevice, usbDeviceConnection);
+    public boolean trySendMidiMessage(int cable, int byte1, int byte2, int byte3) {
+        final int codeIndexNumber = getCodeIndexNumber(byte1, byte2, byte3);
+        if (codeIndexNumber < 0) {
+            // ignored
+            return false;
+        }
+
+        return trySendMidiMessage(codeIndexNumber, cable, byte1, byte2, byte3);
     }
 
     /**
-     * Get the manufacturer name
+     * Send the USB MIDI event packets as is, such as the data received with {@link OnMidiInputRawDataListener}.<br />
+     * The packets are queued with the current {@link BackPressurePolicy}. The padding packets(all zero) and the trailing incomplete packet are ignored.
      *
-     * @return the manufacturer name. null if API Level < {@link android.os.Build.VERSION_CODES#HONEYCOMB_MR2 }, or the manufacturer name is truly null
+     * @param packets the USB MIDI event packets, 4 bytes each
+     * @param offset the offset in the array
+     * @param length the length in bytes
+     * @return the number of packets queued
      */
-    @Nullable
-    public String getManufacturerName() {
-        return UsbMidiDeviceUtils.getManufacturerName(usbDevice, usbDeviceConnection);
+    public int sendUsbMidiPackets(@NonNull byte[] packets, int offset, int length) {
+        return queueUsbMidiPackets(packets, offset, length, false);
     }
 
     /**
-     * Get the device name(linux device path)
-     * @return the device name(linux device path)
+     * Send the USB MIDI event packets as is, returns immediately if the sending queue is full.<br />
+     * The packets after the first packet not queued are not sent. The padding packets(all zero) and the trailing incomplete packet are ignored.
+     *
+     * @param packets the USB MIDI event packets, 4 bytes each
+     * @param offset the offset in the array
+     * @param length the length in bytes
+     * @return the number of packets queued
      */
-    @NonNull
-    public String getDeviceAddress() {
-        return usbDevice.getDeviceName();
+    public int trySendUsbMidiPackets(@NonNull byte[] packets, int offset, int length) {
+        return queueUsbMidiPackets(packets, offset, length, true);
     }
 
     /**
-     * @return the usbDevice
+     * Send the USB MIDI event packets packed as int, such as the packets received with {@link OnMidiInputPacketBatchListener}.<br />
+     * The packets are queued with the current {@link BackPressurePolicy}. The padding packets(zero) are ignored.
+     *
+     * @param packets the packets: <code>(header &lt;&lt; 24) | (byte1 &lt;&lt; 16) | (byte2 &lt;&lt; 8) | byte3</code>
+     * @param offset the offset in the array
+     * @param count the number of packets
+     * @return the number of packets queued
      */
-    @NonNull
-    public UsbDevice getUsbDevice() {
-        return usbDevice;
+    public int sendUsbMidiPackets(@NonNull int[] packets, int offset, int count) {
+        int queuedCount = 0;
+        int cables = 0;
+        int result;
+        for (int i = offset; i < offset + count; i++) {
+            if (packets[i] == 0) {
+                continue;
+            }
+            result = queueUsbMidiPacket(packets[i], false);
+            if (result < 0) {
+                break;
+            }
+            queuedCount += result;
+            cables |= 1 << (packets[i] >>> 28);
+        }
+        onUsbMidiPacketsQueued(queuedCount, cables);
+        return queuedCount;
     }
 
     /**
-     * @return the usbInterface
+     * Queues the USB MIDI event packets
+     *
+     * @param packets the USB MIDI event packets, 4 bytes each
+     * @param offset the offset in the array
+     * @param length the length in bytes
+     * @param nonBlocking true to stop at the first packet not queued
+     * @return the number of packets queued
      */
-    @Deprecated
-    @NonNull
-    public UsbInterface getUsbInterface() {
-        return usbInterface;
+    private int queueUsbMidiPackets(@NonNull byte[] packets, int offset, int length, boolean nonBlocking) {
+        final int end = offset + length / 4 * 4;
+        int queuedCount = 0;
+        int cables = 0;
+        int packet;
+        int result;
+        for (int i = offset; i < end; i += 4) {
+            packet = ((packets[i] & 0xff) << 24) | ((packets[i + 1] & 0xff) << 16) | ((packets[i + 2] & 0xff) << 8) | (packets[i + 3] & 0xff);
+            if (packet == 0) {
+                // padding
+                continue;
+            }
+            result = queueUsbMidiPacket(packet, nonBlocking);
+            if (result < 0) {
+                break;
+            }
+            queuedCount += result;
+            cables |= 1 << (packet >>> 28);
+        }
+        onUsbMidiPacketsQueued(queuedCount, cables);
+        return queuedCount;
     }
 
     /**
-     * @return the usbEndpoint
+     * Queues an USB MIDI event packet, without waking up the sending thread unless the queue is full
+     *
+     * @param packet the packet
+     * @param nonBlocking true not to wait regardless of the {@link BackPressurePolicy}
+     * @return 1: queued, 0: discarded by the BackPressurePolicy, -1: the queue is full with nonBlocking, or the device has been stopped
      */
-    @Deprecated
-    @NonNull
-    public UsbEndpoint getUsbEndpoint() {
-        return outputEndpoint;
-    }
-
-	/**
-	 * Sending thread for output data. Loops infinitely while stopFlag == false.
-	 *
-	 * @author K.Shoji
-	 */
-    @SuppressLint("NewApi")
-	private final class WaiterThread extends Thread {
-        final Queue<byte[]> queue = new LinkedList<>();
-
-		volatile boolean stopFlag;
-		volatile boolean suspendFlag;
-
-        /**
-		 * Constructor
-		 */
-		WaiterThread() {
-			stopFlag = false;
-			suspendFlag = false;
-		}
-
-		@Override
-		public void run() {
-			byte[] dequedDataBuffer;
-            int dequedDataBufferLength;
-			int queueSize;
-			final int maxPacketSize = outputEndpoint.getMaxPacketSize();
-			byte[] endpointBuffer = new byte[maxPacketSize];
-			int endpointBufferLength;
-			int bufferPosition;
-            int usbRequestFailCount;
-            int bytesWritten;
-
-            while (!stopFlag) {
-                dequedDataBuffer = null;
-                synchronized (queue) {
-                    queueSize = queue.size();
-                    if (queueSize > 0) {
-                        dequedDataBuffer = queue.poll();
-                    }
-                }
-
-                if (suspendFlag) {
-                    try {
-                        // sleep until interrupted
-                        sleep(500);
-                    } catch (InterruptedException e) {
-                        // interrupted: event queued, or stopFlag/suspendFlag changed.
-                    }
-                    continue;
-                }
-
-                if (dequedDataBuffer != null) {
-                    dequedDataBufferLength = dequedDataBuffer.length;
-
-                    synchronized (usbDeviceConnection) {
-                        // usb can't send data larger than maxPacketSize. split the data.
-                        for (bufferPosition = 0; bufferPosition < dequedDataBufferLength; bufferPosition += maxPacketSize) {
-                            endpointBufferLength = dequedDataBufferLength - bufferPosition;
-                            if (endpointBufferLength > maxPacketSize) {
-                                endpointBufferLength = maxPacketSize;
-                            }
-
-                            usbRequestFailCount = 0;
-                            // if device disconnected, usbDeviceConnection.bulkTransfer returns negative value
-                            while (true) {
-                                // loop until transfer completed
-                                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                                    // JELLY_BEAN_MR2 supports bulkTransfer with offset
-                                    bytesWritten = usbDeviceConnection.bulkTransfer(outputEndpoint, dequedDataBuffer, bufferPosition, endpointBufferLength, 10);
-                                } else {
-                                    if (bufferPosition > 0) {
-                                        // copy the fragment to the endpointBuffer before transfer
-                                        System.arraycopy(dequedDataBuffer, bufferPosition, endpointBuffer, 0, endpointBufferLength);
-                                        bytesWritten = usbDeviceConnection.bulkTransfer(outputEndpoint, endpointBuffer, endpointBufferLength, 10);
-                                    } else {
-                                        // it's the first fragment.. copy is not required
-                                        bytesWritten = usbDeviceConnection.bulkTransfer(outputEndpoint, dequedDataBuffer, endpointBufferLength, 10);
-                                    }
-                                }
-
-                                if (bytesWritten < 0) {
-                                    usbRequestFailCount++;
-                                } else {
-                                    break;
-                                }
-
-                                if (usbRequestFailCount > 10) {
-                                    // maybe disconnected
-                                    stopFlag = true;
-                                    break;
-                                }
-                            }
-
-                            if (stopFlag) {
-                                break;
-                            }
-                        }
-                    }
-
-                    if (dequedDataBuffer.length == 4) {
-                        synchronized (queue) {
-                            bufferPool.addLast(dequedDataBuffer);
-                        }
-                    }
-                }
-
-				// no more data in queue, sleep.
-				if (queueSize == 0 && !interrupted()) {
-					try {
-						// sleep until interrupted
-						sleep(500);
-					} catch (InterruptedException e) {
-						// interrupted: event queued, or stopFlag changed.
-					}
-				}
-			}
-		}
-	}
+    private int queueUsbMidiPacket(int packet, boolean nonBlocking) {
+        final UsbMidiPacketRingBuffer lane = getLane((packet >>> 24) & 0xf, (packet >>> 16) & 0xff);
+        if (lane == null) {
+            // already stopped
+            return -1;
+        }
+        if (lane.tryOffer(packet)) {
+            return 1;
+        }
+        if (nonBlocking) {
+            return -1;
+        }
 
-	/**
-	 * Sends MIDI message to output device.
-	 *
-	 * @param codeIndexNumber Code Index Number(CIN)
-	 * @param cable the cable ID 0-15
-	 * @param byte1 the first byte
-	 * @param byte2 the second byte
-	 * @param byte3 the third byte
-	 */
-	private void sendMidiMessage(int codeIndexNumber, int cable, int byte1, int byte2, int byte3) {
-        while (bufferPool.isEmpty()) {
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException ignored) {
+        // let the sending thread make room
+        waiterThread.wakeUp();
+        return lane.offer(packet) ? 1 : 0;
+    }
 
+    /**
+     * Wakes up the sending thread and checks the watermarks, after the packets queued
+     *
+     * @param queuedCount the number of packets queued
+     * @param cables the bits of the cables queued
+     */
+    private void onUsbMidiPacketsQueued(int queuedCount, int cables) {
+        if (queuedCount == 0) {
+            return;
+        }
+        waiterThread.wakeUp();
+        for (int cable = 0; cable < 16; cable++) {
+            if ((cables & (1 << cable)) != 0) {
+                checkHighWatermark(cable);
             }
         }
+    }
 
-        synchronized (waiterThread.queue) {
-			byte[] writeBuffer = bufferPool.removeFirst();
-
-			writeBuffer[0] = (byte) (((cable & 0xf) << 4) | (codeIndexNumber & 0xf));
-			writeBuffer[1] = (byte) byte1;
-			writeBuffer[2] = (byte) byte2;
-			writeBuffer[3] = (byte) byte3;
-
-			waiterThread.queue.add(writeBuffer);
-		}
-
-		// message has been queued, so interrupt the waiter thread
-		waiterThread.interrupt();
-	}
-
-	/**
-     * Send a MIDI message with 3 bytes raw MIDI data
+    /**
+     * Send a MIDI message with 3 bytes raw MIDI data, at the specified time<br />
+     * The message is sent immediately if the time has already passed.
      *
+     * @param timestampNanos the time to send, based on {@link System#nanoTime()}
      * @param cable the cable ID 0-15
      * @param byte1 the first byte
      * @param byte2 the second byte: ignored when 1 byte message
      * @param byte3 the third byte: ignored when 1-2 byte message
      */
-    public void sendMidiMessage(int cable, int byte1, int byte2, int byte3) {
+    public void sendMidiMessageAt(long timestampNanos, int cable, int byte1, int byte2, int byte3) {
+        final int codeIndexNumber = getCodeIndexNumber(byte1, byte2, byte3);
+        if (codeIndexNumber < 0) {
+            // ignored
+            return;
+        }
+
+        startIfNeeded();
+        packetScheduler.schedule(timestampNanos, ((((cable & 0xf) << 4) | codeIndexNumber) << 24) | ((byte1 & 0xff) << 16) | ((byte2 & 0xff) << 8) | (byte3 & 0xff));
+
+        // the next due time may be changed, so wake up the waiter thread
+        waiterThread.wakeUp();
+    }
+
+    /**
+     * Get the Code Index Number for the raw MIDI data
+     *
+     * @param byte1 the first byte
+     * @param byte2 the second byte
+     * @param byte3 the third byte
+     * @return the Code Index Number, -1 if the message should be ignored
+     */
+    private static int getCodeIndexNumber(int byte1, int byte2, int byte3) {
         int codeIndexNumber = 0;
 
         switch (byte1 & 0xf0) {
@@ -349,19 +1941,19 @@ public final class MidiOutputDevice {
                             codeIndexNumber = 0x7;
                         } else {
                             // ignored
-                            return;
+                            return -1;
                         }
                         break;
                     case 0xf7: // End of Exclusive
                         // ignored
-                        return;
+                        return -1;
 
                     case 0xf4: // (Undefined MIDI System Common)
                     case 0xf5: // (Undefined MIDI System Common / Bus Select?)
                     case 0xf9: // (Undefined MIDI System Real-time)
                     case 0xfd: // (Undefined MIDI System Real-time)
                         // ignored
-                        return;
+                        return -1;
 
                     case 0xf6: // Tune Request
                     case 0xf8: // Timing Clock
@@ -390,10 +1982,10 @@ public final class MidiOutputDevice {
                 break;
             default:
                 // ignored
-                return;
+                return -1;
         }
 
-        sendMidiMessage(codeIndexNumber, cable, byte1, byte2, byte3);
+        return codeIndexNumber;
     }
 
     /**
@@ -454,51 +2046,8 @@ public final class MidiOutputDevice {
 	 */
     public void sendMidiSystemExclusive(int cable, @NonNull byte[] systemExclusive) {
         if (systemExclusive.length > 3) {
-            sysexTransferDataStream.reset();
-
-            for (int sysexIndex = 0; sysexIndex < systemExclusive.length; sysexIndex += 3) {
-                if ((sysexIndex + 3 < systemExclusive.length)) {
-                    // sysex starts or continues...
-                    sysexTransferDataStream.write((((cable & 0xf) << 4) | 0x4));
-                    sysexTransferDataStream.write(systemExclusive[sysexIndex] & 0xff);
-                    sysexTransferDataStream.write(systemExclusive[sysexIndex + 1] & 0xff);
-                    sysexTransferDataStream.write(systemExclusive[sysexIndex + 2] & 0xff);
-                } else {
-                    switch (systemExclusive.length % 3) {
-                        case 1:
-                            // sysex end with 1 byte
-                            sysexTransferDataStream.write((((cable & 0xf) << 4) | 0x5));
-                            sysexTransferDataStream.write(systemExclusive[sysexIndex] & 0xff);
-                            sysexTransferDataStream.write(0);
-                            sysexTransferDataStream.write(0);
-                            break;
-                        case 2:
-                            // sysex end with 2 bytes
-                            sysexTransferDataStream.write((((cable & 0xf) << 4) | 0x6));
-                            sysexTransferDataStream.write(systemExclusive[sysexIndex] & 0xff);
-                            sysexTransferDataStream.write(systemExclusive[sysexIndex + 1] & 0xff);
-                            sysexTransferDataStream.write(0);
-                            break;
-                        case 0:
-                            // sysex end with 3 bytes
-                            sysexTransferDataStream.write((((cable & 0xf) << 4) | 0x7));
-                            sysexTransferDataStream.write(systemExclusive[sysexIndex] & 0xff);
-                            sysexTransferDataStream.write(systemExclusive[sysexIndex + 1] & 0xff);
-                            sysexTransferDataStream.write(systemExclusive[sysexIndex + 2] & 0xff);
-                            break;
-                        default:
-                            break;
-                    }
-                }
-            }
-
-            synchronized (waiterThread.queue) {
-                // allocating new byte[] here...
-                waiterThread.queue.add(sysexTransferDataStream.toByteArray());
-            }
-
-            // message has been queued, so interrupt the waiter thread
-            waiterThread.interrupt();
+            // the caller may reuse the array
+            sendMidiSystemExclusive(cable, systemExclusive.clone(), null);
         } else {
             switch (systemExclusive.length) {
                 case 1:
@@ -517,6 +2066,44 @@ public final class MidiOutputDevice {
         }
     }
 
+    /**
+     * SysEx Code Index Number : 0x4, 0x5, 0x6, 0x7<br />
+     * Returns immediately, the message is encoded and sent piece by piece, between the events for the other cables and System Real-time messages.
+     * The order of the messages for the same cable is kept.<br />
+     * The array is not copied, so it must not be modified until the transfer finished.
+     *
+     * @param cable           the cable ID 0-15
+     * @param systemExclusive start with 'F0', and end with 'F7'
+     * @param transferListener the listener to observe the progress, or null
+     * @return the SystemExclusiveTransfer to observe or cancel the transfer
+     */
+    @NonNull
+    public SystemExclusiveTransfer sendMidiSystemExclusive(int cable, @NonNull byte[] systemExclusive, @Nullable OnMidiSystemExclusiveTransferListener transferListener) {
+        startIfNeeded();
+        final UsbMidiPacketRingBuffer packetBuffer = this.packetBuffer;
+        // sent after the messages already queued for the cable
+        final SystemExclusiveTransfer transfer = new SystemExclusiveTransfer(cable, systemExclusive, transferListener, packetBuffer == null ? 0 : packetBuffer.getOfferedCount(cable & 0xf));
+        final boolean queued;
+        synchronized (this) {
+            // the waiter thread cancels the messages queued before stopped
+            queued = !waiterThread.stopFlag;
+            if (queued) {
+                systemExclusiveTransfers.add(transfer);
+                queuedSystemExclusiveTransfers.add(transfer);
+            }
+        }
+        if (!queued) {
+            // stopped, never be sent
+            transfer.cancel();
+            waiterThread.finishSystemExclusiveTransfer(transfer);
+            return transfer;
+        }
+
+        // message has been queued, so wake up the waiter thread
+        waiterThread.wakeUp();
+        return transfer;
+    }
+
 	/**
 	 * Note-off Code Index Number : 0x8
 	 *
@@ -610,6 +2197,94 @@ public final class MidiOutputDevice {
         sendMidiMessage(0xe, cable, 0xe0 | (channel & 0xf), amount & 0x7f, (amount >> 7) & 0x7f);
     }
 
+    /**
+     * Note-off Code Index Number : 0x8, returns immediately if the sending queue is full
+     *
+     * @param cable    the cable ID 0-15
+     * @param channel  the MIDI channel number 0-15
+     * @param note     0-127
+     * @param velocity 0-127
+     * @return true if queued
+     */
+    public boolean trySendMidiNoteOff(int cable, int channel, int note, int velocity) {
+        return trySendMidiMessage(0x8, cable, 0x80 | (channel & 0xf), note, velocity);
+    }
+
+    /**
+     * Note-on Code Index Number : 0x9, returns immediately if the sending queue is full
+     *
+     * @param cable    the cable ID 0-15
+     * @param channel  the MIDI channel number 0-15
+     * @param note     0-127
+     * @param velocity 0-127
+     * @return true if queued
+     */
+    public boolean trySendMidiNoteOn(int cable, int channel, int note, int velocity) {
+        return trySendMidiMessage(0x9, cable, 0x90 | (channel & 0xf), note, velocity);
+    }
+
+    /**
+     * Poly-KeyPress Code Index Number : 0xa, returns immediately if the sending queue is full
+     *
+     * @param cable    the cable ID 0-15
+     * @param channel  the MIDI channel number 0-15
+     * @param note     0-127
+     * @param pressure 0-127
+     * @return true if queued
+     */
+    public boolean trySendMidiPolyphonicAftertouch(int cable, int channel, int note, int pressure) {
+        return trySendMidiMessage(0xa, cable, 0xa0 | (channel & 0xf), note, pressure);
+    }
+
+    /**
+     * Control Change Code Index Number : 0xb, returns immediately if the sending queue is full
+     *
+     * @param cable    the cable ID 0-15
+     * @param channel  the MIDI channel number 0-15
+     * @param function 0-127
+     * @param value    0-127
+     * @return true if queued
+     */
+    public boolean trySendMidiControlChange(int cable, int channel, int function, int value) {
+        return trySendMidiMessage(0xb, cable, 0xb0 | (channel & 0xf), function, value);
+    }
+
+    /**
+     * Program Change Code Index Number : 0xc, returns immediately if the sending queue is full
+     *
+     * @param cable   the cable ID 0-15
+     * @param channel the MIDI channel number 0-15
+     * @param program 0-127
+     * @return true if queued
+     */
+    public boolean trySendMidiProgramChange(int cable, int channel, int program) {
+        return trySendMidiMessage(0xc, cable, 0xc0 | (channel & 0xf), program, 0);
+    }
+
+    /**
+     * Channel Pressure Code Index Number : 0xd, returns immediately if the sending queue is full
+     *
+     * @param cable    the cable ID 0-15
+     * @param channel  the MIDI channel number 0-15
+     * @param pressure 0-127
+     * @return true if queued
+     */
+    public boolean trySendMidiChannelAftertouch(int cable, int channel, int pressure) {
+        return trySendMidiMessage(0xd, cable, 0xd0 | (channel & 0xf), pressure, 0);
+    }
+
+    /**
+     * PitchBend Change Code Index Number : 0xe, returns immediately if the sending queue is full
+     *
+     * @param cable   the cable ID 0-15
+     * @param channel the MIDI channel number 0-15
+     * @param amount  0(low)-8192(center)-16383(high)
+     * @return true if queued
+     */
+    public boolean trySendMidiPitchWheel(int cable, int channel, int amount) {
+        return trySendMidiMessage(0xe, cable, 0xe0 | (channel & 0xf), amount & 0x7f, (amount >> 7) & 0x7f);
+    }
+
     /**
      * Single Byte Code Index Number : 0xf
      *
@@ -773,4 +2448,56 @@ public final class MidiOutputDevice {
         sendMidiControlChange(cable, channel, 101, 0x7f);
         sendMidiControlChange(cable, channel, 100, 0x7f);
     }
+
+    /**
+     * The SysEx messages and the packets held back for a cable, accessed from the sending thread
+     */
+    private static final class CableQueue {
+        // waiting or sending, in the queued order
+        final ArrayDeque<SystemExclusiveTransfer> transfers = new ArrayDeque<>();
+        // the held back packets, with the order in the normal lane
+        private final int[] packets = new int[DEFERRED_PACKET_COUNT];
+        private final long[] ordinals = new long[DEFERRED_PACKET_COUNT];
+        private int head;
+        int size;
+
+        /**
+         * Adds the packet to the tail
+         *
+         * @param packet the USB MIDI event packet
+         * @param ordinal the order in the normal lane of the cable
+         */
+        void add(int packet, long ordinal) {
+            final int index = (head + size) % DEFERRED_PACKET_COUNT;
+            packets[index] = packet;
+            ordinals[index] = ordinal;
+            size++;
+        }
+
+        /**
+         * @return the order of the first packet in the normal lane, must not be empty
+         */
+        long peekOrdinal() {
+            return ordinals[head];
+        }
+
+        /**
+         * Retrieves the first packet, must not be empty
+         *
+         * @return the packet
+         */
+        int poll() {
+            final int packet = packets[head];
+            head = (head + 1) % DEFERRED_PACKET_COUNT;
+            size--;
+            return packet;
+        }
+
+        /**
+         * @return true if can't hold more packets
+         */
+        boolean isFull() {
+            return size >= DEFERRED_PACKET_COUNT;
+        }
+    }
 }
@@ -0,0 +1,184 @@
+package jp.kshoji.driver.midi.device;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Received SysEx message, borrowed from the pool of {@link MidiInputDevice}.<br />
+ * The data is valid until {@link #release()} called, and must not be modified.
+ * Call {@link #release()} when the message is no longer used, then the buffer will be reused for the next message.
+ *
+ * @author K.Shoji
+ */
+public final class SystemExclusiveSlice {
+    private static final int INITIAL_CAPACITY = 1024;
+    // buffers extended beyond this size are large, only a few of them are kept in the pool
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+    // the number and the total bytes of large buffers kept in a pool, for repeated large SysEx such as a dump
+    private static final int MAX_POOLED_LARGE_SLICES = 1;
+    private static final int MAX_POOLED_LARGE_BYTES = 1024 * 1024;
+
+    private final Pool pool;
+    private byte[] data = new byte[INITIAL_CAPACITY];
+    private int length;
+    private boolean released;
+
+    /**
+     * Constructor
+     *
+     * @param pool the pool to return
+     */
+    private SystemExclusiveSlice(@NonNull Pool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Get the backing array, the message is stored from {@link #getOffset()} with {@link #getLength()} bytes
+     *
+     * @return the backing array
+     */
+    @NonNull
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return the offset of the message in {@link #getData()}
+     */
+    public int getOffset() {
+        return 0;
+    }
+
+    /**
+     * @return the length of the message
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Get the read-only view of the message
+     *
+     * @return the ByteBuffer shares the backing array
+     */
+    @NonNull
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(data, 0, length).asReadOnlyBuffer();
+    }
+
+    /**
+     * Copy the message into new array
+     *
+     * @return the copy of the message
+     */
+    @NonNull
+    public byte[] toByteArray() {
+        final byte[] result = new byte[length];
+        System.arraycopy(data, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Returns this slice to the pool. The data must not be accessed after this call.
+     */
+    public void release() {
+        pool.recycle(this);
+    }
+
+    /**
+     * Append a byte to the message
+     *
+     * @param value the byte
+     */
+    void append(int value) {
+        if (length == data.length) {
+            final byte[] extended = new byte[data.length * 2];
+            System.arraycopy(data, 0, extended, 0, length);
+            data = extended;
+        }
+        data[length++] = (byte) value;
+    }
+
+    /**
+     * Clears the message
+     */
+    void reset() {
+        length = 0;
+    }
+
+    /**
+     * Pool of {@link SystemExclusiveSlice}
+     */
+    static final class Pool {
+        private final ArrayDeque<SystemExclusiveSlice> slices = new ArrayDeque<>();
+        private final int maxPooledSlices;
+        // large buffers currently kept in the pool, guarded by slices
+        private int pooledLargeSlices;
+        private int pooledLargeBytes;
+
+        /**
+         * Constructor
+         *
+         * @param maxPooledSlices the maximum number of the slices kept in this pool
+         */
+        Pool(int maxPooledSlices) {
+            this.maxPooledSlices = maxPooledSlices;
+        }
+
+        /**
+         * Obtain an empty slice, creates new one if the pool is empty
+         *
+         * @return the SystemExclusiveSlice
+         */
+        @NonNull
+        SystemExclusiveSlice obtain() {
+            SystemExclusiveSlice slice;
+            synchronized (slices) {
+                slice = slices.poll();
+                if (slice != null && slice.data.length > MAX_POOLED_CAPACITY) {
+                    pooledLargeSlices--;
+                    pooledLargeBytes -= slice.data.length;
+                }
+            }
+            if (slice == null) {
+                slice = new SystemExclusiveSlice(this);
+            }
+            slice.released = false;
+            return slice;
+        }
+
+        /**
+         * Returns the slice to the pool
+         *
+         * @param slice the SystemExclusiveSlice
+         */
+        void recycle(@NonNull SystemExclusiveSlice slice) {
+            synchronized (slices) {
+                if (slice.released) {
+                    // already released
+                    return;
+                }
+                slice.released = true;
+                slice.length = 0;
+                if (slices.size() >= maxPooledSlices) {
+                    // the pool is full, discard
+                    return;
+                }
+
+                final int capacity = slice.data.length;
+                if (capacity > MAX_POOLED_CAPACITY) {
+                    if (pooledLargeSlices < MAX_POOLED_LARGE_SLICES && pooledLargeBytes + capacity <= MAX_POOLED_LARGE_BYTES) {
+                        pooledLargeSlices++;
+                        pooledLargeBytes += capacity;
+                    } else {
+                        // too many large buffers, shrink
+                        slice.data = new byte[INITIAL_CAPACITY];
+                    }
+                }
+                slices.offer(slice);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package jp.kshoji.driver.midi.device;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import jp.kshoji.driver.midi.listener.OnMidiSystemExclusiveTransferListener;
+
+/**
+ * SysEx message queued on {@link MidiOutputDevice}.<br />
+ * The message is encoded into USB MIDI event packets while sending, so the array must not be modified until the transfer finished.
+ *
+ * @author K.Shoji
+ */
+public final class SystemExclusiveTransfer {
+    private final int cable;
+    private final byte[] systemExclusive;
+    @Nullable
+    final OnMidiSystemExclusiveTransferListener transferListener;
+    // the number of packets queued for the cable before this message, sent before this message
+    final long precedingPacketCount;
+
+    // the number of bytes encoded, accessed from the sending thread
+    private int position;
+    private volatile int transferredLength;
+    private volatile boolean cancelled;
+    private volatile boolean finished;
+
+    /**
+     * Constructor
+     *
+     * @param cable the cable ID 0-15
+     * @param systemExclusive start with 'F0', and end with 'F7'
+     * @param transferListener the listener, or null
+     * @param precedingPacketCount the {@link jp.kshoji.driver.midi.util.UsbMidiPacketRingBuffer#getOfferedCount(int)} of the cable, when this message queued
+     */
+    SystemExclusiveTransfer(int cable, @NonNull byte[] systemExclusive, @Nullable OnMidiSystemExclusiveTransferListener transferListener, long precedingPacketCount) {
+        this.cable = cable & 0xf;
+        this.systemExclusive = systemExclusive;
+        this.transferListener = transferListener;
+        this.precedingPacketCount = precedingPacketCount;
+    }
+
+    /**
+     * Cancels sending the rest of the message.<br />
+     * If a part of the message has already been sent, the message will be terminated with 'F7'.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if {@link #cancel()} has been called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true if the whole message has been sent, or the transfer has been cancelled
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return the cable ID 0-15
+     */
+    public int getCable() {
+        return cable;
+    }
+
+    /**
+     * @return the length of the message in bytes
+     */
+    public int getLength() {
+        return systemExclusive.length;
+    }
+
+    /**
+     * @return the length of the message sent to the device in bytes
+     */
+    public int getTransferredLength() {
+        return transferredLength;
+    }
+
+    /**
+     * @return true if the whole message has been encoded
+     */
+    boolean isEncoded() {
+        return position >= systemExclusive.length;
+    }
+
+    /**
+     * Encodes next USB MIDI event packet into the buffer.<br />
+     * If cancelled, encodes the packet to terminate the message if needed.
+     *
+     * @param buffer the buffer
+     * @param offset the offset, 4 bytes can be written
+     * @return the number of bytes written, 4 or 0
+     */
+    int encodeNextPacket(@NonNull byte[] buffer, int offset) {
+        if (cancelled) {
+            if (position == 0 || position >= systemExclusive.length) {
+                // not started, or already finished
+                position = systemExclusive.length;
+                return 0;
+            }
+
+            // sysex end with 1 byte
+            buffer[offset] = (byte) ((cable << 4) | 0x5);
+            buffer[offset + 1] = (byte) 0xf7;
+            buffer[offset + 2] = 0;
+            buffer[offset + 3] = 0;
+            position = systemExclusive.length;
+            return 4;
+        }
+
+        final int remaining = systemExclusive.length - position;
+        if (remaining > 3) {
+            // sysex starts or continues...
+            buffer[offset] = (byte) ((cable << 4) | 0x4);
+            buffer[offset + 1] = systemExclusive[position];
+            buffer[offset + 2] = systemExclusive[position + 1];
+            buffer[offset + 3] = systemExclusive[position + 2];
+            position += 3;
+            return 4;
+        }
+
+        switch (remaining) {
+            case 1:
+                // sysex end with 1 byte
+                buffer[offset] = (byte) ((cable << 4) | 0x5);
+                buffer[offset + 1] = systemExclusive[position];
+                buffer[offset + 2] = 0;
+                buffer[offset + 3] = 0;
+                break;
+            case 2:
+                // sysex end with 2 bytes
+                buffer[offset] = (byte) ((cable << 4) | 0x6);
+                buffer[offset + 1] = systemExclusive[position];
+                buffer[offset + 2] = systemExclusive[position + 1];
+                buffer[offset + 3] = 0;
+                break;
+            case 3:
+                // sysex end with 3 bytes
+                buffer[offset] = (byte) ((cable << 4) | 0x7);
+                buffer[offset + 1] = systemExclusive[position];
+                buffer[offset + 2] = systemExclusive[position + 1];
+                buffer[offset + 3] = systemExclusive[position + 2];
+                break;
+            default:
+                return 0;
+        }
+        position = systemExclusive.length;
+        return 4;
+    }
+
+    /**
+     * Marks the encoded bytes have been sent
+     */
+    void onTransferred() {
+        if (!cancelled) {
+            transferredLength = position;
+        }
+    }
+
+    /**
+     * Marks the transfer has been finished
+     */
+    void onFinished() {
+        finished = true;
+    }
+}
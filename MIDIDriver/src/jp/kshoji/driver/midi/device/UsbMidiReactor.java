@@ -0,0 +1,329 @@
+package jp.kshoji.driver.midi.device;
+
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shared I/O thread for USB MIDI devices.<br />
+ * When enabled, the {@link MidiInputDevice}s and {@link MidiOutputDevice}s created after that don't start their own threads,
+ * and one reactor thread services all of their endpoints with queued {@link android.hardware.usb.UsbRequest}s.
+ * The number of threads doesn't increase with the number of devices.<br />
+ * <br />
+ * Android can't wait for the requests of multiple connections at once, so the reactor polls the connections,
+ * and sleeps up to the idle interval while nothing has been transferred. The idle interval is the maximum additional input latency.<br />
+ * With only one connection receiving, the reactor waits for its requests instead, up to 1 second while idle.
+ * Sending wakes it up by cancelling a request of the input endpoint.
+ * Without receiving, the reactor sleeps up to 1 second while nothing is sending.<br />
+ * Requires API Level 26 or later, the devices start their own threads on older versions.
+ *
+ * @author K.Shoji
+ */
+public final class UsbMidiReactor {
+    // the number of UsbRequests for each endpoint
+    static final int USB_REQUEST_COUNT = 4;
+
+    // the idle interval starts from this value, and doubles while nothing transferred
+    private static final long MIN_IDLE_INTERVAL_NANOS = 100_000L;
+    private static final int DEFAULT_MAX_IDLE_INTERVAL = 2000;
+    // the idle interval limit while nothing can be received without waking up
+    private static final long MAX_WAITING_INTERVAL_NANOS = UsbRequestDispatcher.REQUEST_WAIT_TIMEOUT * 1_000_000L;
+
+    private static volatile boolean enabled = false;
+    private static volatile long maxIdleIntervalNanos = DEFAULT_MAX_IDLE_INTERVAL * 1000L;
+
+    private static final CopyOnWriteArrayList<UsbRequestDispatcher> dispatchers = new CopyOnWriteArrayList<>();
+    private static final CopyOnWriteArrayList<Task> tasks = new CopyOnWriteArrayList<>();
+    // cleared by the thread itself when exiting, updated holding the lock of UsbMidiReactor.class
+    private static volatile ReactorThread reactorThread = null;
+
+    // statistics, only the reactor thread updates
+    private static volatile long loopCount = 0;
+    private static volatile long idleWaitCount = 0;
+
+    /**
+     * Work done on the reactor thread, in addition to delivering the completed requests
+     */
+    interface Task {
+        /**
+         * Called on every loop of the reactor thread
+         *
+         * @param nowNanos the current time, based on {@link System#nanoTime()}
+         * @return the time to be called again at the latest, or {@link Long#MAX_VALUE}
+         */
+        long runOnReactor(long nowNanos);
+    }
+
+    private UsbMidiReactor() {
+    }
+
+    /**
+     * Enables or disables the reactor.<br />
+     * Affects the devices created after this method called.
+     *
+     * @param enabled true to service the devices with the shared thread
+     */
+    public static void setEnabled(boolean enabled) {
+        UsbMidiReactor.enabled = enabled;
+    }
+
+    /**
+     * @return true if the reactor is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the maximum sleeping time of the reactor thread while nothing has been transferred, polling multiple connections
+     *
+     * @param maxIdleInterval the interval in microseconds, default: 2000
+     */
+    public static void setMaxIdleInterval(int maxIdleInterval) {
+        maxIdleIntervalNanos = Math.max(MIN_IDLE_INTERVAL_NANOS, maxIdleInterval * 1000L);
+    }
+
+    /**
+     * @return the maximum sleeping time of the reactor thread in microseconds
+     */
+    public static int getMaxIdleInterval() {
+        return (int) (maxIdleIntervalNanos / 1000L);
+    }
+
+    /**
+     * Get the number of loops the reactor thread has run
+     *
+     * @return the loop count
+     */
+    public static long getLoopCount() {
+        return loopCount;
+    }
+
+    /**
+     * Get the number of times the reactor thread went to sleep, each one costs a context switch
+     *
+     * @return the sleep count
+     */
+    public static long getIdleWaitCount() {
+        return idleWaitCount;
+    }
+
+    /**
+     * @return true if the devices should use the reactor
+     */
+    static boolean isAvailable() {
+        return enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+    }
+
+    /**
+     * Starts polling the connection
+     *
+     * @param dispatcher the UsbRequestDispatcher of the connection
+     */
+    static synchronized void register(@NonNull UsbRequestDispatcher dispatcher) {
+        dispatchers.add(dispatcher);
+        startIfNeeded();
+        // stop waiting for another dispatcher
+        wakeUp();
+    }
+
+    /**
+     * Stops polling the connection
+     *
+     * @param dispatcher the UsbRequestDispatcher of the connection
+     */
+    static synchronized void unregister(@NonNull UsbRequestDispatcher dispatcher) {
+        dispatchers.remove(dispatcher);
+        stopIfIdle();
+    }
+
+    /**
+     * Starts calling the task on every loop
+     *
+     * @param task the Task
+     */
+    static synchronized void register(@NonNull Task task) {
+        tasks.add(task);
+        startIfNeeded();
+        wakeUp();
+    }
+
+    /**
+     * Stops calling the task
+     *
+     * @param task the Task
+     */
+    static synchronized void unregister(@NonNull Task task) {
+        tasks.remove(task);
+        stopIfIdle();
+    }
+
+    /**
+     * Wakes up the reactor thread, to run the tasks immediately
+     */
+    static void wakeUp() {
+        final ReactorThread thread = reactorThread;
+        if (thread != null) {
+            thread.wakeUp();
+        }
+    }
+
+    private static void startIfNeeded() {
+        final ReactorThread thread = reactorThread;
+        if (thread != null) {
+            // not exited yet, continue looping
+            thread.stopFlag = false;
+            return;
+        }
+
+        final ReactorThread newThread = new ReactorThread();
+        newThread.setName("UsbMidiReactor.ReactorThread");
+        newThread.setPriority(8);
+        reactorThread = newThread;
+        newThread.start();
+    }
+
+    private static void stopIfIdle() {
+        final ReactorThread thread = reactorThread;
+        if (thread != null && dispatchers.isEmpty() && tasks.isEmpty()) {
+            thread.stopFlag = true;
+            thread.wakeUp();
+        }
+    }
+
+    /**
+     * Called by the reactor thread when stopFlag has been set
+     *
+     * @param thread the reactor thread
+     * @return true if the thread should exit, false if restarted by {@link #startIfNeeded()}
+     */
+    private static synchronized boolean onStopping(@NonNull ReactorThread thread) {
+        if (!thread.stopFlag) {
+            return false;
+        }
+        if (reactorThread == thread) {
+            reactorThread = null;
+        }
+        return true;
+    }
+
+    /**
+     * The reactor thread. Loops infinitely while stopFlag == false.
+     *
+     * @author K.Shoji
+     */
+    private static final class ReactorThread extends Thread {
+        volatile boolean stopFlag = false;
+        // the dispatcher this thread is waiting for, null if not waiting
+        private volatile UsbRequestDispatcher waitingDispatcher = null;
+        // wakeUp() called since this thread started the current loop
+        private volatile boolean wakeUpRequested = false;
+
+        /**
+         * Wakes up this thread, sleeping or waiting for the dispatcher
+         */
+        void wakeUp() {
+            wakeUpRequested = true;
+            LockSupport.unpark(this);
+            final UsbRequestDispatcher dispatcher = waitingDispatcher;
+            if (dispatcher != null) {
+                dispatcher.interruptWait();
+            }
+        }
+
+        @Override
+        public void run() {
+            long idleIntervalNanos = MIN_IDLE_INTERVAL_NANOS;
+            long nowNanos;
+            long nextDueTime;
+            long waitNanos;
+            long maxIntervalNanos;
+            boolean transferred;
+            UsbRequestDispatcher receivingDispatcher;
+            int receivingCount;
+
+            while (!stopFlag || !onStopping(this)) {
+                wakeUpRequested = false;
+                transferred = false;
+                receivingDispatcher = null;
+                receivingCount = 0;
+                for (UsbRequestDispatcher dispatcher : dispatchers) {
+                    if (dispatcher.dispatchCompleted() > 0) {
+                        transferred = true;
+                    }
+                    if (dispatcher.isInterruptible()) {
+                        receivingDispatcher = dispatcher;
+                        receivingCount++;
+                    }
+                }
+
+                nowNanos = System.nanoTime();
+                nextDueTime = Long.MAX_VALUE;
+                for (Task task : tasks) {
+                    nextDueTime = Math.min(nextDueTime, task.runOnReactor(nowNanos));
+                }
+                loopCount++;
+
+                if (transferred) {
+                    // more data may be coming soon
+                    idleIntervalNanos = MIN_IDLE_INTERVAL_NANOS;
+                    continue;
+                }
+
+                waitNanos = idleIntervalNanos;
+                if (nextDueTime != Long.MAX_VALUE) {
+                    waitNanos = Math.min(waitNanos, nextDueTime - nowNanos);
+                }
+                if (waitNanos > 0) {
+                    idleWaitCount++;
+                    if (receivingCount == 1 && dispatchers.size() == 1 && waitNanos >= 1_000_000L) {
+                        if (waitForDispatcher(receivingDispatcher, waitNanos) > 0) {
+                            // received, or interrupted by wakeUp()
+                            idleIntervalNanos = MIN_IDLE_INTERVAL_NANOS;
+                            continue;
+                        }
+                    } else {
+                        // unparked by wakeUp()
+                        LockSupport.parkNanos(this, waitNanos);
+                    }
+                }
+
+                if ((receivingCount == 1 && dispatchers.size() == 1) || (receivingCount == 0 && nextDueTime == Long.MAX_VALUE)) {
+                    // waiting for the only connection, or nothing to be received nor sent: wakes up on arrival
+                    maxIntervalNanos = MAX_WAITING_INTERVAL_NANOS;
+                } else {
+                    maxIntervalNanos = maxIdleIntervalNanos;
+                }
+                idleIntervalNanos = Math.min(idleIntervalNanos * 2, maxIntervalNanos);
+            }
+        }
+
+        /**
+         * Waits for the requests of the dispatcher, instead of sleeping
+         *
+         * @param dispatcher the only dispatcher
+         * @param waitNanos the time to wait
+         * @return the number of requests delivered, -1 if the connection has been closed
+         */
+        private int waitForDispatcher(@NonNull UsbRequestDispatcher dispatcher, long waitNanos) {
+            waitingDispatcher = dispatcher;
+            try {
+                if (wakeUpRequested) {
+                    // wakeUp() called before waitingDispatcher assigned
+                    return 0;
+                }
+                final int count = dispatcher.dispatchCompleted(waitNanos / 1_000_000L);
+                if (count < 0) {
+                    // maybe disconnected, wait without the connection
+                    LockSupport.parkNanos(this, waitNanos);
+                }
+                return count;
+            } finally {
+                waitingDispatcher = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package jp.kshoji.driver.midi.device;
+
+import android.annotation.SuppressLint;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waits for the {@link UsbRequest}s queued on a connection, and delivers each completed request to its owner.<br />
+ * {@link UsbDeviceConnection#requestWait(long)} returns the requests of any endpoint on the connection,
+ * so the input and the output device sharing one connection must use the same dispatcher.<br />
+ * The dispatcher has its own thread, or is polled by {@link UsbMidiReactor} if enabled.<br />
+ * Requires API Level 26 or later.
+ *
+ * @author K.Shoji
+ */
+@SuppressLint("NewApi")
+final class UsbRequestDispatcher {
+    // timeout(msec) for waiting the requests, to check the stopFlag
+    static final int REQUEST_WAIT_TIMEOUT = 1000;
+
+    private static final Map<UsbDeviceConnection, UsbRequestDispatcher> dispatchers = new HashMap<>();
+
+    private final UsbDeviceConnection usbDeviceConnection;
+    @Nullable
+    private final DispatcherThread dispatcherThread;
+    private int referenceCount;
+
+    // a request of the input endpoint, cancelled to return from waiting on the reactor thread
+    @Nullable
+    private volatile Transfer interruptTransfer;
+
+    /**
+     * Called when a request completed, on the dispatching thread
+     */
+    interface CompletionHandler {
+        /**
+         * The request has been completed
+         *
+         * @param transfer the completed transfer
+         */
+        void onTransferCompleted(@NonNull Transfer transfer);
+    }
+
+    /**
+     * {@link UsbRequest} with its buffer, and the handler to deliver on completion
+     */
+    static final class Transfer {
+        final UsbRequest request;
+        final ByteBuffer buffer;
+        private final CompletionHandler completionHandler;
+
+        // for sending, accessed by the owner: the length and the time(System.nanoTime()) first queued, 0 if not queued
+        int queuedLength;
+        long queuedTimeNanos;
+        // the time to queue again after failed, 0 if not failed
+        long retryTimeNanos;
+        // true if the timeout or the failure has been reported
+        boolean timedOut;
+
+        /**
+         * Constructor
+         *
+         * @param request the initialized UsbRequest
+         * @param buffer the direct buffer
+         * @param completionHandler the handler to deliver on completion
+         */
+        Transfer(@NonNull UsbRequest request, @NonNull ByteBuffer buffer, @NonNull CompletionHandler completionHandler) {
+            this.request = request;
+            this.buffer = buffer;
+            this.completionHandler = completionHandler;
+            request.setClientData(this);
+        }
+
+        /**
+         * Queues the request with the buffer
+         *
+         * @return true if queued
+         */
+        boolean queue() {
+            return request.queue(buffer);
+        }
+
+        /**
+         * Cancels and releases the request
+         */
+        void close() {
+            request.cancel();
+            request.close();
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param usbDeviceConnection the UsbDeviceConnection
+     */
+    private UsbRequestDispatcher(@NonNull UsbDeviceConnection usbDeviceConnection) {
+        this.usbDeviceConnection = usbDeviceConnection;
+        if (UsbMidiReactor.isAvailable()) {
+            dispatcherThread = null;
+            UsbMidiReactor.register(this);
+        } else {
+            dispatcherThread = new DispatcherThread();
+            dispatcherThread.setName("UsbRequestDispatcher.DispatcherThread");
+            dispatcherThread.start();
+        }
+    }
+
+    /**
+     * Get the dispatcher for the connection, starts dispatching if needed.<br />
+     * {@link #release()} must be called when finished using.
+     *
+     * @param usbDeviceConnection the UsbDeviceConnection
+     * @return the dispatcher
+     */
+    @NonNull
+    static UsbRequestDispatcher acquire(@NonNull UsbDeviceConnection usbDeviceConnection) {
+        synchronized (dispatchers) {
+            UsbRequestDispatcher dispatcher = dispatchers.get(usbDeviceConnection);
+            if (dispatcher == null) {
+                dispatcher = new UsbRequestDispatcher(usbDeviceConnection);
+                dispatchers.put(usbDeviceConnection, dispatcher);
+            }
+            dispatcher.referenceCount++;
+            return dispatcher;
+        }
+    }
+
+    /**
+     * Finishes using the dispatcher. The requests must be closed before calling this method.
+     */
+    void release() {
+        synchronized (dispatchers) {
+            referenceCount--;
+            if (referenceCount <= 0) {
+                dispatchers.remove(usbDeviceConnection);
+                if (dispatcherThread != null) {
+                    dispatcherThread.stopFlag = true;
+                } else {
+                    UsbMidiReactor.unregister(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the transfers for the endpoint
+     *
+     * @param usbEndpoint the endpoint
+     * @param count the number of transfers
+     * @param bufferSize the size of buffer for each transfer
+     * @param completionHandler the handler to deliver on completion
+     * @return the transfers, null if {@link UsbRequest} is not available
+     */
+    @Nullable
+    Transfer[] createTransfers(@NonNull UsbEndpoint usbEndpoint, int count, int bufferSize, @NonNull CompletionHandler completionHandler) {
+        final Transfer[] transfers = new Transfer[count];
+        for (int i = 0; i < count; i++) {
+            final UsbRequest request = new UsbRequest();
+            if (!request.initialize(usbDeviceConnection, usbEndpoint)) {
+                closeTransfers(transfers);
+                return null;
+            }
+            transfers[i] = new Transfer(request, ByteBuffer.allocateDirect(bufferSize), completionHandler);
+        }
+        return transfers;
+    }
+
+    /**
+     * Cancels and releases the transfers
+     *
+     * @param transfers the transfers, nullable
+     */
+    static void closeTransfers(@Nullable Transfer[] transfers) {
+        if (transfers == null) {
+            return;
+        }
+        for (Transfer transfer : transfers) {
+            if (transfer != null) {
+                transfer.close();
+            }
+        }
+    }
+
+    /**
+     * Checks if the transfer is one of the transfers
+     *
+     * @param transfers the transfers, nullable
+     * @param transfer the transfer
+     * @return true if contained
+     */
+    static boolean contains(@Nullable Transfer[] transfers, @NonNull Transfer transfer) {
+        if (transfers == null) {
+            return false;
+        }
+        for (Transfer t : transfers) {
+            if (t == transfer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the request cancelled by {@link #interruptWait()}.<br />
+     * It must be a request of the input endpoint, queued again whenever completed including cancelled.
+     *
+     * @param transfer the transfer
+     */
+    void setInterruptTransfer(@NonNull Transfer transfer) {
+        interruptTransfer = transfer;
+        // the reactor may be sleeping long without receiving
+        UsbMidiReactor.wakeUp();
+    }
+
+    /**
+     * Clears the request set by {@link #setInterruptTransfer(Transfer)}, if it is one of the transfers
+     *
+     * @param transfers the transfers to be closed, nullable
+     */
+    void clearInterruptTransfer(@Nullable Transfer[] transfers) {
+        final Transfer transfer = interruptTransfer;
+        if (transfer != null && contains(transfers, transfer)) {
+            interruptTransfer = null;
+        }
+    }
+
+    /**
+     * @return true if {@link #dispatchCompleted(long)} can be interrupted
+     */
+    boolean isInterruptible() {
+        return interruptTransfer != null;
+    }
+
+    /**
+     * Makes {@link #dispatchCompleted(long)} return, by cancelling the request of the input endpoint.
+     * The cancelled request is delivered to its handler as completed.
+     */
+    void interruptWait() {
+        final Transfer transfer = interruptTransfer;
+        if (transfer != null) {
+            transfer.request.cancel();
+        }
+    }
+
+    /**
+     * Waits for a request completed, and delivers the completed requests, called by {@link UsbMidiReactor}
+     *
+     * @param timeoutMillis the timeout in milliseconds, returns earlier with {@link #interruptWait()}
+     * @return the number of requests delivered, -1 if the connection has been closed
+     */
+    int dispatchCompleted(long timeoutMillis) {
+        final UsbRequest request;
+        try {
+            request = usbDeviceConnection.requestWait(timeoutMillis);
+        } catch (TimeoutException e) {
+            return 0;
+        }
+        if (request == null) {
+            // connection closed, or error
+            return -1;
+        }
+        dispatch(request);
+        return 1 + dispatchCompleted();
+    }
+
+    /**
+     * Delivers the completed requests without waiting, called by {@link UsbMidiReactor}
+     *
+     * @return the number of requests delivered
+     */
+    int dispatchCompleted() {
+        int count = 0;
+        UsbRequest request;
+        while (true) {
+            try {
+                // 0: doesn't wait
+                request = usbDeviceConnection.requestWait(0);
+            } catch (TimeoutException e) {
+                break;
+            }
+            if (request == null) {
+                // connection closed, or error
+                break;
+            }
+            dispatch(request);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Delivers the completed request to its handler
+     *
+     * @param request the completed request
+     */
+    private static void dispatch(@NonNull UsbRequest request) {
+        final Object clientData = request.getClientData();
+        if (clientData instanceof Transfer) {
+            final Transfer transfer = (Transfer) clientData;
+            transfer.completionHandler.onTransferCompleted(transfer);
+        }
+    }
+
+    /**
+     * Thread to wait for the requests
+     *
+     * @author K.Shoji
+     */
+    private final class DispatcherThread extends Thread {
+        volatile boolean stopFlag;
+
+        @Override
+        public void run() {
+            UsbRequest request;
+            while (!stopFlag) {
+                try {
+                    request = usbDeviceConnection.requestWait(REQUEST_WAIT_TIMEOUT);
+                } catch (TimeoutException e) {
+                    continue;
+                }
+
+                if (request == null) {
+                    // connection closed, or error
+                    if (stopFlag) {
+                        break;
+                    }
+                    try {
+                        sleep(10);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                    continue;
+                }
+
+                dispatch(request);
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package jp.kshoji.driver.midi.listener;
+
+import android.hardware.usb.UsbDevice;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Listener for measuring the time to process USB MIDI device attached / detached events
+ *
+ * @author K.Shoji
+ */
+public interface OnMidiDeviceConnectionLatencyListener {
+
+    /**
+     * device attaching has been processed
+     *
+     * @param usbDevice the attached UsbDevice
+     * @param latencyNanos the time from the attach noticed, until the MIDI devices are notified. Includes the time waiting for the user permission.
+     */
+    void onMidiDeviceAttachLatency(@NonNull UsbDevice usbDevice, long latencyNanos);
+
+    /**
+     * device detaching has been processed
+     *
+     * @param usbDevice the detached UsbDevice
+     * @param latencyNanos the time from the detach noticed, until the MIDI devices are stopped and notified
+     */
+    void onMidiDeviceDetachLatency(@NonNull UsbDevice usbDevice, long latencyNanos);
+}
@@ -0,0 +1,22 @@
+package jp.kshoji.driver.midi.listener;
+
+import androidx.annotation.NonNull;
+
+import jp.kshoji.driver.midi.device.MidiInputDevice;
+
+/**
+ * Listener for the read failures, noticed before the device detached event
+ *
+ * @author K.Shoji
+ */
+public interface OnMidiInputDeviceDisconnectSuspectedListener {
+
+    /**
+     * reading from the device has failed repeatedly, the device may have been disconnected.<br />
+     * Called on the receiving thread, once until reading succeeds again.
+     *
+     * @param midiInputDevice the MIDI Input device
+     * @param failedReadCount the number of consecutive failed reads
+     */
+    void onMidiInputDeviceDisconnectSuspected(@NonNull MidiInputDevice midiInputDevice, int failedReadCount);
+}
@@ -0,0 +1,27 @@
+package jp.kshoji.driver.midi.listener;
+
+import androidx.annotation.NonNull;
+
+import jp.kshoji.driver.midi.device.MidiInputDevice;
+import jp.kshoji.driver.midi.util.UsbMidiPacketUtils;
+
+/**
+ * Listener for the USB MIDI event packets, delivered once per transfer without decoding.<br />
+ * Each packet is packed as one int: <code>(header &lt;&lt; 24) | (byte1 &lt;&lt; 16) | (byte2 &lt;&lt; 8) | byte3</code>,
+ * use {@link UsbMidiPacketUtils} to decode.
+ *
+ * @author K.Shoji
+ */
+public interface OnMidiInputPacketBatchListener {
+
+    /**
+     * USB MIDI event packets have been received.<br />
+     * Called on the receiving thread. The array is reused for the next transfer, so copy the packets to keep them.
+     *
+     * @param sender the Object which the event sent
+     * @param packets the packets, the first count elements are valid
+     * @param count the number of packets
+     * @param timestampNanos the time received, based on {@link System#nanoTime()}
+     */
+    void onMidiInputPacketBatch(@NonNull MidiInputDevice sender, @NonNull int[] packets, int count, long timestampNanos);
+}
@@ -0,0 +1,27 @@
+package jp.kshoji.driver.midi.listener;
+
+import androidx.annotation.NonNull;
+
+import jp.kshoji.driver.midi.device.MidiInputDevice;
+
+/**
+ * Listener for the received data, delivered as is without decoding.<br />
+ * The data is a stream of 4 bytes USB MIDI event packets, and can be sent to another device with
+ * {@link jp.kshoji.driver.midi.device.MidiOutputDevice#sendUsbMidiPackets(byte[], int, int)}.
+ *
+ * @author K.Shoji
+ */
+public interface OnMidiInputRawDataListener {
+
+    /**
+     * Data has been received.<br />
+     * Called on the receiving thread. The array is reused for the next transfer, so copy the data to keep it.
+     *
+     * @param sender the Object which the event sent
+     * @param data the received data, not modified
+     * @param offset the offset of the received data in the array
+     * @param length the length of the received data, includes the padding packets(all zero) if the device sends them
+     * @param timestampNanos the time received, based on {@link System#nanoTime()}
+     */
+    void onMidiInputRawData(@NonNull MidiInputDevice sender, @NonNull byte[] data, int offset, int length, long timestampNanos);
+}
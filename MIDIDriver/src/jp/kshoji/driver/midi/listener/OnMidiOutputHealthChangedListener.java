@@ -0,0 +1,23 @@
+package jp.kshoji.driver.midi.listener;
+
+import androidx.annotation.NonNull;
+
+import jp.kshoji.driver.midi.device.MidiOutputDevice;
+import jp.kshoji.driver.midi.util.OutputHealth;
+
+/**
+ * Listener for the health changes of the output device. The method is called on the sending thread.
+ *
+ * @author K.Shoji
+ */
+public interface OnMidiOutputHealthChangedListener {
+
+    /**
+     * The health of the device has been changed
+     *
+     * @param sender the device sending the events
+     * @param previousHealth the health before changed
+     * @param health the current health
+     */
+    void onMidiOutputHealthChanged(@NonNull MidiOutputDevice sender, @NonNull OutputHealth previousHealth, @NonNull OutputHealth health);
+}
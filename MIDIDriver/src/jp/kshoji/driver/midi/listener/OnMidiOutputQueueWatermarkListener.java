@@ -0,0 +1,33 @@
+package jp.kshoji.driver.midi.listener;
+
+import androidx.annotation.NonNull;
+
+import jp.kshoji.driver.midi.device.MidiOutputDevice;
+
+/**
+ * Listener for the sending queue depth, to adapt the amount of the events sent
+ *
+ * @author K.Shoji
+ */
+public interface OnMidiOutputQueueWatermarkListener {
+
+    /**
+     * The number of queued events has reached the high watermark.<br />
+     * Called on the thread sending the event, once until the low watermark reached.
+     *
+     * @param sender the device sending the events
+     * @param cable the cable ID 0-15, or {@link MidiOutputDevice#ALL_CABLES} for the whole device
+     * @param queuedEventCount the number of queued events
+     */
+    void onMidiOutputQueueHighWatermark(@NonNull MidiOutputDevice sender, int cable, int queuedEventCount);
+
+    /**
+     * The number of queued events has fallen to the low watermark, after the high watermark reached.<br />
+     * Called on the sending thread.
+     *
+     * @param sender the device sending the events
+     * @param cable the cable ID 0-15, or {@link MidiOutputDevice#ALL_CABLES} for the whole device
+     * @param queuedEventCount the number of queued events
+     */
+    void onMidiOutputQueueLowWatermark(@NonNull MidiOutputDevice sender, int cable, int queuedEventCount);
+}
@@ -0,0 +1,24 @@
+package jp.kshoji.driver.midi.listener;
+
+import androidx.annotation.NonNull;
+
+import jp.kshoji.driver.midi.device.MidiInputDevice;
+import jp.kshoji.driver.midi.device.SystemExclusiveSlice;
+
+/**
+ * Listener for SysEx messages, delivered without copying
+ *
+ * @author K.Shoji
+ */
+public interface OnMidiSystemExclusiveSliceListener {
+
+    /**
+     * SysEx
+     * Code Index Number : 0x4, 0x5, 0x6, 0x7
+     *
+     * @param sender the Object which the event sent
+     * @param cable the cable ID 0-15
+     * @param systemExclusive the SysEx message, call {@link SystemExclusiveSlice#release()} after used
+     */
+    void onMidiSystemExclusive(@NonNull MidiInputDevice sender, int cable, @NonNull SystemExclusiveSlice systemExclusive);
+}
@@ -0,0 +1,49 @@
+package jp.kshoji.driver.midi.listener;
+
+import androidx.annotation.NonNull;
+
+import jp.kshoji.driver.midi.device.MidiInputDevice;
+
+/**
+ * Listener for SysEx messages, delivered piece by piece while receiving.<br />
+ * The events of each cable are notified in order: started, chunk(zero or more times), then completed or aborted.
+ *
+ * @author K.Shoji
+ */
+public interface OnMidiSystemExclusiveStreamListener {
+
+    /**
+     * SysEx message has been started
+     *
+     * @param sender the Object which the event sent
+     * @param cable the cable ID 0-15
+     */
+    void onMidiSystemExclusiveStarted(@NonNull MidiInputDevice sender, int cable);
+
+    /**
+     * Part of SysEx message has been received
+     *
+     * @param sender the Object which the event sent
+     * @param cable the cable ID 0-15
+     * @param data the received bytes, valid only while this method is called
+     * @param offset the offset of the received bytes in data
+     * @param length the length of the received bytes
+     */
+    void onMidiSystemExclusiveChunk(@NonNull MidiInputDevice sender, int cable, @NonNull byte[] data, int offset, int length);
+
+    /**
+     * SysEx message has been finished with 'F7'
+     *
+     * @param sender the Object which the event sent
+     * @param cable the cable ID 0-15
+     */
+    void onMidiSystemExclusiveCompleted(@NonNull MidiInputDevice sender, int cable);
+
+    /**
+     * SysEx message has been interrupted by the next SysEx, or the device has been stopped
+     *
+     * @param sender the Object which the event sent
+     * @param cable the cable ID 0-15
+     */
+    void onMidiSystemExclusiveAborted(@NonNull MidiInputDevice sender, int cable);
+}
@@ -0,0 +1,40 @@
+package jp.kshoji.driver.midi.listener;
+
+import androidx.annotation.NonNull;
+
+import jp.kshoji.driver.midi.device.MidiOutputDevice;
+import jp.kshoji.driver.midi.device.SystemExclusiveTransfer;
+
+/**
+ * Listener for SysEx sending progress. The methods are called on the sending thread.
+ *
+ * @author K.Shoji
+ */
+public interface OnMidiSystemExclusiveTransferListener {
+
+    /**
+     * Part of SysEx message has been sent
+     *
+     * @param sender the device sending the message
+     * @param transfer the SystemExclusiveTransfer
+     * @param transferredLength the length sent in bytes
+     * @param totalLength the length of the message in bytes
+     */
+    void onMidiSystemExclusiveTransferProgress(@NonNull MidiOutputDevice sender, @NonNull SystemExclusiveTransfer transfer, int transferredLength, int totalLength);
+
+    /**
+     * The whole SysEx message has been sent
+     *
+     * @param sender the device sending the message
+     * @param transfer the SystemExclusiveTransfer
+     */
+    void onMidiSystemExclusiveTransferCompleted(@NonNull MidiOutputDevice sender, @NonNull SystemExclusiveTransfer transfer);
+
+    /**
+     * Sending SysEx message has been cancelled, or the device has been stopped
+     *
+     * @param sender the device sending the message
+     * @param transfer the SystemExclusiveTransfer
+     */
+    void onMidiSystemExclusiveTransferCancelled(@NonNull MidiOutputDevice sender, @NonNull SystemExclusiveTransfer transfer);
+}
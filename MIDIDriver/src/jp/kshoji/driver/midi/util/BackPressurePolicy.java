@@ -0,0 +1,29 @@
+package jp.kshoji.driver.midi.util;
+
+/**
+ * Policy applied when a MIDI event is sent while the output queue is full
+ *
+ * @author K.Shoji
+ */
+public enum BackPressurePolicy {
+    /**
+     * The sender blocks until the queue has room
+     */
+    BLOCK,
+
+    /**
+     * The oldest queued event is discarded to make room for the new one
+     */
+    DROP_OLDEST,
+
+    /**
+     * The new event is discarded
+     */
+    DROP_NEWEST,
+
+    /**
+     * Continuous controllers(Control Change, Pitch Bend, Channel / Polyphonic Pressure) overwrite the pending value with the same destination.
+     * Other events are discarded like {@link #DROP_NEWEST}.
+     */
+    COALESCE
+}
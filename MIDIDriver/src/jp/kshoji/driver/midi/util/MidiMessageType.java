@@ -0,0 +1,75 @@
+package jp.kshoji.driver.midi.util;
+
+/**
+ * Types of the MIDI messages, used to subscribe the input events
+ *
+ * @author K.Shoji
+ */
+public enum MidiMessageType {
+    /**
+     * Note-off
+     */
+    NOTE_OFF,
+
+    /**
+     * Note-on
+     */
+    NOTE_ON,
+
+    /**
+     * Poly-KeyPress
+     */
+    POLYPHONIC_AFTERTOUCH,
+
+    /**
+     * Control Change, includes the RPN/NRPN events
+     */
+    CONTROL_CHANGE,
+
+    /**
+     * Program Change
+     */
+    PROGRAM_CHANGE,
+
+    /**
+     * Channel Pressure
+     */
+    CHANNEL_AFTERTOUCH,
+
+    /**
+     * PitchBend Change
+     */
+    PITCH_WHEEL,
+
+    /**
+     * SysEx
+     */
+    SYSTEM_EXCLUSIVE,
+
+    /**
+     * System Common messages: MIDI Time Code Quarter Frame, Song Position Pointer, Song Select, Tune Request
+     */
+    SYSTEM_COMMON,
+
+    /**
+     * System Real-time messages: Timing Clock, Start, Continue, Stop, Active Sensing, Reset
+     */
+    SYSTEM_REAL_TIME,
+
+    /**
+     * Single Byte(Code Index Number 0xf)
+     */
+    SINGLE_BYTE,
+
+    /**
+     * Miscellaneous function codes, and Cable events(Code Index Number 0x0, 0x1)
+     */
+    MISCELLANEOUS;
+
+    /**
+     * @return true if the message has the MIDI channel
+     */
+    public boolean isChannelMessage() {
+        return ordinal() <= PITCH_WHEEL.ordinal();
+    }
+}
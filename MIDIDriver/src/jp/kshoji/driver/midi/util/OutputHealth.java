@@ -0,0 +1,28 @@
+package jp.kshoji.driver.midi.util;
+
+/**
+ * Health of the output device, determined by the results of the transfers
+ *
+ * @author K.Shoji
+ */
+public enum OutputHealth {
+    /**
+     * The transfers are succeeding
+     */
+    HEALTHY,
+
+    /**
+     * Some transfers have been retried, Active Sensing and aftertouch events are discarded
+     */
+    CONGESTED,
+
+    /**
+     * The transfers have failed repeatedly, continuous controllers and pitch bend events are also discarded
+     */
+    STALLED,
+
+    /**
+     * The transfers have failed for too long, the device has been stopped
+     */
+    DEAD
+}
@@ -0,0 +1,142 @@
+package jp.kshoji.driver.midi.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+
+/**
+ * Process-wide pool of the byte arrays used for the USB transfers.<br />
+ * The arrays are classified by the power of two sizes(16 - 16384 bytes), and shared among the devices.
+ * The total size of the pooled arrays is limited by {@link #setMaxPooledBytes(long)}.
+ *
+ * @author K.Shoji
+ */
+public final class UsbMidiBufferPool {
+    // size classes: 2^4 to 2^14 bytes
+    private static final int MIN_SIZE_SHIFT = 4;
+    private static final int MAX_SIZE_SHIFT = 14;
+    private static final long DEFAULT_MAX_POOLED_BYTES = 256 * 1024;
+
+    @SuppressWarnings("unchecked")
+    private static final ArrayDeque<byte[]>[] pools = new ArrayDeque[MAX_SIZE_SHIFT + 1];
+    private static long maxPooledBytes = DEFAULT_MAX_POOLED_BYTES;
+    private static long pooledBytes = 0;
+
+    // statistics
+    private static long obtainedCount = 0;
+    private static long reusedCount = 0;
+
+    static {
+        for (int i = MIN_SIZE_SHIFT; i <= MAX_SIZE_SHIFT; i++) {
+            pools[i] = new ArrayDeque<>();
+        }
+    }
+
+    private UsbMidiBufferPool() {
+    }
+
+    /**
+     * Obtains an array, from the pool if available
+     *
+     * @param minLength the required length
+     * @return the array, its length may be longer than the required length
+     */
+    @NonNull
+    public static synchronized byte[] obtain(int minLength) {
+        obtainedCount++;
+        final int sizeShift = getSizeShift(minLength);
+        if (sizeShift < 0) {
+            // too large to pool
+            return new byte[minLength];
+        }
+
+        final byte[] buffer = pools[sizeShift].poll();
+        if (buffer == null) {
+            return new byte[1 << sizeShift];
+        }
+        pooledBytes -= buffer.length;
+        reusedCount++;
+        return buffer;
+    }
+
+    /**
+     * Returns the array to the pool.<br />
+     * The array must not be used after this method called.
+     *
+     * @param buffer the array obtained with {@link #obtain(int)}
+     */
+    public static synchronized void release(@NonNull byte[] buffer) {
+        final int sizeShift = getSizeShift(buffer.length);
+        if (sizeShift < 0 || buffer.length != 1 << sizeShift) {
+            // not obtained from the pool
+            return;
+        }
+        if (pooledBytes + buffer.length > maxPooledBytes) {
+            // the pool is full, leave it to GC
+            return;
+        }
+        pools[sizeShift].add(buffer);
+        pooledBytes += buffer.length;
+    }
+
+    /**
+     * Sets the maximum total size of the pooled arrays, the arrays exceeding the limit are discarded
+     *
+     * @param maxPooledBytes the size in bytes, default: 262144
+     */
+    public static synchronized void setMaxPooledBytes(long maxPooledBytes) {
+        UsbMidiBufferPool.maxPooledBytes = Math.max(0, maxPooledBytes);
+
+        // discard larger arrays first
+        for (int i = MAX_SIZE_SHIFT; i >= MIN_SIZE_SHIFT && pooledBytes > UsbMidiBufferPool.maxPooledBytes; i--) {
+            while (!pools[i].isEmpty() && pooledBytes > UsbMidiBufferPool.maxPooledBytes) {
+                pooledBytes -= pools[i].poll().length;
+            }
+        }
+    }
+
+    /**
+     * @return the maximum total size of the pooled arrays in bytes
+     */
+    public static synchronized long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    /**
+     * @return the total size of the arrays currently pooled in bytes
+     */
+    public static synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     * @return the number of {@link #obtain(int)} called
+     */
+    public static synchronized long getObtainedCount() {
+        return obtainedCount;
+    }
+
+    /**
+     * @return the number of {@link #obtain(int)} satisfied with the pooled array
+     */
+    public static synchronized long getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * Get the size class for the length
+     *
+     * @param length the length
+     * @return the shift count of the size class, -1 if too large
+     */
+    private static int getSizeShift(int length) {
+        if (length <= 1 << MIN_SIZE_SHIFT) {
+            return MIN_SIZE_SHIFT;
+        }
+        final int sizeShift = 32 - Integer.numberOfLeadingZeros(length - 1);
+        if (sizeShift > MAX_SIZE_SHIFT) {
+            return -1;
+        }
+        return sizeShift;
+    }
+}
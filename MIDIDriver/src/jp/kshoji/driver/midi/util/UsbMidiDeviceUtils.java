@@ -237,4 +237,39 @@ public final class UsbMidiDeviceUtils {
 
         return null;
     }
+
+    // interval(msec) to check the thread while joining
+    private static final int THREAD_JOIN_INTERVAL = 100;
+
+    /**
+     * Waits for the thread to die, until the deadline
+     *
+     * @param thread the Thread
+     * @param deadlineNanos the deadline based on {@link System#nanoTime()}, {@link Long#MAX_VALUE} to wait infinitely
+     * @param interrupt true to interrupt the thread periodically while waiting
+     * @return true if the thread has died
+     */
+    public static boolean joinThread(@NonNull Thread thread, long deadlineNanos, boolean interrupt) {
+        long waitMillis;
+        while (thread.isAlive()) {
+            waitMillis = THREAD_JOIN_INTERVAL;
+            if (deadlineNanos != Long.MAX_VALUE) {
+                final long remainingNanos = deadlineNanos - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                waitMillis = Math.max(1, Math.min(waitMillis, remainingNanos / 1_000_000L));
+            }
+
+            if (interrupt) {
+                thread.interrupt();
+            }
+            try {
+                thread.join(waitMillis);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+        return true;
+    }
 }
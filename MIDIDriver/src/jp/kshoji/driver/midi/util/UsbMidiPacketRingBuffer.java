@@ -0,0 +1,334 @@
+package jp.kshoji.driver.midi.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free queue of USB MIDI event packets.<br />
+ * Each 4 bytes packet is stored as one int: <code>(header &lt;&lt; 24) | (byte1 &lt;&lt; 16) | (byte2 &lt;&lt; 8) | byte3</code>.<br />
+ * <br />
+ * Any number of threads may offer packets, and one thread polls them.
+ * The storage is allocated at construction, so no instances are created per event.
+ *
+ * @author K.Shoji
+ */
+public final class UsbMidiPacketRingBuffer {
+    /**
+     * Returned by {@link #poll()} when the queue is empty
+     */
+    public static final long EMPTY = -1L;
+
+    // the slot is being read or rewritten by some thread
+    private static final long CLAIMED = Long.MIN_VALUE;
+
+    // sleep time while blocking on the full queue
+    private static final long BLOCK_WAIT_NANOS = 100_000L;
+
+    private final int capacity;
+    private final int mask;
+    private final int[] packets;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    // the number of packets offered and polled for each cable, since constructed
+    private final AtomicLongArray offeredCounts = new AtomicLongArray(16);
+    private final AtomicLongArray polledCounts = new AtomicLongArray(16);
+
+    private volatile BackPressurePolicy backPressurePolicy;
+
+    /**
+     * Constructor
+     *
+     * @param capacity the number of packets, rounded up to the power of two
+     * @param backPressurePolicy the policy used when the queue is full
+     */
+    public UsbMidiPacketRingBuffer(int capacity, @NonNull BackPressurePolicy backPressurePolicy) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be 2 or more");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.capacity = size;
+        mask = size - 1;
+        packets = new int[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.backPressurePolicy = backPressurePolicy;
+    }
+
+    /**
+     * Offers the packet, with the current {@link BackPressurePolicy}
+     *
+     * @param packet the USB MIDI event packet
+     * @return true if the packet has been queued, or merged into the queued one
+     */
+    public boolean offer(int packet) {
+        if (tryOffer(packet)) {
+            return true;
+        }
+
+        switch (backPressurePolicy) {
+            case BLOCK:
+                put(packet);
+                return true;
+
+            case DROP_OLDEST:
+                while (!tryOffer(packet)) {
+                    if (poll() != EMPTY) {
+                        droppedCount.incrementAndGet();
+                    }
+                }
+                return true;
+
+            case COALESCE:
+                if (coalesce(packet)) {
+                    droppedCount.incrementAndGet();
+                    return true;
+                }
+                // not coalesced, retry once and drop if still full
+                if (tryOffer(packet)) {
+                    return true;
+                }
+                droppedCount.incrementAndGet();
+                return false;
+
+            case DROP_NEWEST:
+            default:
+                droppedCount.incrementAndGet();
+                return false;
+        }
+    }
+
+    /**
+     * Offers the packet, blocks while the queue is full regardless of the {@link BackPressurePolicy}
+     *
+     * @param packet the USB MIDI event packet
+     */
+    public void put(int packet) {
+        while (!tryOffer(packet)) {
+            LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+        }
+    }
+
+    /**
+     * Offers the packet without waiting
+     *
+     * @param packet the USB MIDI event packet
+     * @return true if the packet has been queued, false if the queue is full
+     */
+    public boolean tryOffer(int packet) {
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) position & mask;
+            final long sequence = sequences.get(index);
+
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    packets[index] = packet;
+                    offeredCounts.incrementAndGet(packet >>> 28);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence == CLAIMED || sequence < position) {
+                // the slot hasn't been consumed yet: full
+                return false;
+            }
+            // another producer took the slot, retry
+        }
+    }
+
+    /**
+     * Retrieves the oldest packet
+     *
+     * @return the packet as unsigned int value, or {@link #EMPTY} if no packets queued
+     */
+    public long poll() {
+        while (true) {
+            final long position = head.get();
+            final int index = (int) position & mask;
+            final long sequence = sequences.get(index);
+
+            if (sequence == position + 1) {
+                if (sequences.compareAndSet(index, sequence, CLAIMED)) {
+                    final int packet = packets[index];
+                    polledCounts.incrementAndGet(packet >>> 28);
+                    head.set(position + 1);
+                    sequences.set(index, position + capacity);
+                    return packet & 0xffffffffL;
+                }
+            } else if (sequence == CLAIMED) {
+                // being rewritten by the coalescing producer, or dropped by the other thread
+                Thread.yield();
+            } else if (sequence <= position) {
+                return EMPTY;
+            }
+            // head has been moved, retry
+        }
+    }
+
+    /**
+     * Overwrites the newest queued packet which has the same destination(cable, status, and number)
+     *
+     * @param packet the USB MIDI event packet
+     * @return true if overwritten
+     */
+    private boolean coalesce(int packet) {
+        final int keyMask = coalescingKeyMask(packet);
+        if (keyMask == 0) {
+            return false;
+        }
+
+        final long first = head.get();
+        for (long position = tail.get() - 1; position >= first; position--) {
+            final int index = (int) position & mask;
+            if (!sequences.compareAndSet(index, position + 1, CLAIMED)) {
+                continue;
+            }
+            if ((packets[index] & keyMask) == (packet & keyMask)) {
+                packets[index] = packet;
+                sequences.set(index, position + 1);
+                return true;
+            }
+            sequences.set(index, position + 1);
+        }
+        return false;
+    }
+
+    /**
+     * Get the mask to compare destinations of continuous controller events
+     *
+     * @param packet the USB MIDI event packet
+     * @return the mask, 0 if the packet can't be coalesced
+     */
+    private static int coalescingKeyMask(int packet) {
+        switch ((packet >>> 24) & 0xf) {
+            case 0xa:
+                // poly key press: cable, channel, note
+                return 0xffffff00;
+            case 0xb:
+                switch ((packet >>> 8) & 0xff) {
+                    case 0: // Bank Select MSB
+                    case 32: // Bank Select LSB
+                    case 6: // Data Entry MSB
+                    case 38: // Data Entry LSB
+                    case 96: // Data Increment
+                    case 97: // Data Decrement
+                    case 98: // NRPN LSB
+                    case 99: // NRPN MSB
+                    case 100: // RPN LSB
+                    case 101: // RPN MSB
+                        // the order is meaningful
+                        return 0;
+                    default:
+                        if (((packet >>> 8) & 0xff) >= 120) {
+                            // channel mode messages
+                            return 0;
+                        }
+                        // control change: cable, channel, function
+                        return 0xffffff00;
+                }
+            case 0xd:
+            case 0xe:
+                // channel pressure, pitch bend: cable, channel
+                return 0xffff0000;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Get the number of queued packets
+     *
+     * @return the number of queued packets
+     */
+    public int size() {
+        final long size = tail.get() - head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, capacity);
+    }
+
+    /**
+     * Get the number of queued packets for the cable
+     *
+     * @param cable the cable ID 0-15
+     * @return the number of queued packets
+     */
+    public int size(int cable) {
+        // read the polled count first, the offered count is not smaller than it
+        final long polledCount = polledCounts.get(cable & 0xf);
+        return (int) Math.min(offeredCounts.get(cable & 0xf) - polledCount, capacity);
+    }
+
+    /**
+     * Get the number of packets queued for the cable since constructed.<br />
+     * The packets overwritten by {@link BackPressurePolicy#COALESCE} are counted once.
+     *
+     * @param cable the cable ID 0-15
+     * @return the number of queued packets
+     */
+    public long getOfferedCount(int cable) {
+        return offeredCounts.get(cable & 0xf);
+    }
+
+    /**
+     * Get the number of packets retrieved for the cable since constructed, including the packets dropped by {@link BackPressurePolicy#DROP_OLDEST}.<br />
+     * The packets for a cable are retrieved in the queued order, so the packet queued as <code>n</code>-th is retrieved when this count reaches <code>n</code>.
+     *
+     * @param cable the cable ID 0-15
+     * @return the number of retrieved packets
+     */
+    public long getPolledCount(int cable) {
+        return polledCounts.get(cable & 0xf);
+    }
+
+    /**
+     * @return true if no packets queued
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the number of packets this buffer can hold
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of discarded or overwritten packets since constructed
+     *
+     * @return the dropped packet count
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the current BackPressurePolicy
+     */
+    @NonNull
+    public BackPressurePolicy getBackPressurePolicy() {
+        return backPressurePolicy;
+    }
+
+    /**
+     * Set the policy used when the queue is full
+     *
+     * @param backPressurePolicy the BackPressurePolicy
+     */
+    public void setBackPressurePolicy(@NonNull BackPressurePolicy backPressurePolicy) {
+        this.backPressurePolicy = backPressurePolicy;
+    }
+}
@@ -0,0 +1,202 @@
+package jp.kshoji.driver.midi.util;
+
+/**
+ * Time ordered queue of USB MIDI event packets, releases the packets at their due time.<br />
+ * The packets are kept in a binary heap of primitive arrays, packets with the same due time are released in the scheduled order.<br />
+ * The arrays are allocated when the first packet scheduled.
+ *
+ * @author K.Shoji
+ */
+public final class UsbMidiPacketScheduler {
+    /**
+     * Returned by {@link #pollDue(long)} when no packets are due
+     */
+    public static final long EMPTY = -1L;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // allocated when the first packet scheduled
+    private long[] dueTimes = new long[0];
+    private long[] orders = new long[0];
+    private int[] packets = new int[0];
+    private volatile int size;
+    private long nextOrder;
+
+    // for jitter measurement
+    private long releasedCount;
+    private long totalLatenessNanos;
+    private long maxLatenessNanos;
+
+    /**
+     * Schedules the packet
+     *
+     * @param dueTimeNanos the time to release the packet, based on {@link System#nanoTime()}
+     * @param packet the USB MIDI event packet
+     */
+    public synchronized void schedule(long dueTimeNanos, int packet) {
+        if (size == dueTimes.length) {
+            final int capacity = Math.max(INITIAL_CAPACITY, dueTimes.length * 2);
+            final long[] newDueTimes = new long[capacity];
+            final long[] newOrders = new long[capacity];
+            final int[] newPackets = new int[capacity];
+            System.arraycopy(dueTimes, 0, newDueTimes, 0, size);
+            System.arraycopy(orders, 0, newOrders, 0, size);
+            System.arraycopy(packets, 0, newPackets, 0, size);
+            dueTimes = newDueTimes;
+            orders = newOrders;
+            packets = newPackets;
+        }
+
+        // sift up
+        int index = size;
+        final long order = nextOrder++;
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            if (!isEarlier(dueTimeNanos, order, dueTimes[parent], orders[parent])) {
+                break;
+            }
+            dueTimes[index] = dueTimes[parent];
+            orders[index] = orders[parent];
+            packets[index] = packets[parent];
+            index = parent;
+        }
+        dueTimes[index] = dueTimeNanos;
+        orders[index] = order;
+        packets[index] = packet;
+        size++;
+    }
+
+    /**
+     * Get the due time of the earliest packet
+     *
+     * @return the due time based on {@link System#nanoTime()}, or {@link Long#MAX_VALUE} if empty
+     */
+    public synchronized long peekDueTime() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        return dueTimes[0];
+    }
+
+    /**
+     * Retrieves the earliest packet if its due time has come
+     *
+     * @param nowNanos the current time, based on {@link System#nanoTime()}
+     * @return the packet as unsigned int value, or {@link #EMPTY} if no packets are due
+     */
+    public synchronized long pollDue(long nowNanos) {
+        if (size == 0 || dueTimes[0] - nowNanos > 0) {
+            return EMPTY;
+        }
+
+        final long lateness = nowNanos - dueTimes[0];
+        releasedCount++;
+        totalLatenessNanos += lateness;
+        if (lateness > maxLatenessNanos) {
+            maxLatenessNanos = lateness;
+        }
+
+        final int result = packets[0];
+        size--;
+
+        // sift down the last element
+        final long dueTime = dueTimes[size];
+        final long order = orders[size];
+        final int packet = packets[size];
+        int index = 0;
+        while (true) {
+            int child = index * 2 + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && isEarlier(dueTimes[child + 1], orders[child + 1], dueTimes[child], orders[child])) {
+                child++;
+            }
+            if (!isEarlier(dueTimes[child], orders[child], dueTime, order)) {
+                break;
+            }
+            dueTimes[index] = dueTimes[child];
+            orders[index] = orders[child];
+            packets[index] = packets[child];
+            index = child;
+        }
+        dueTimes[index] = dueTime;
+        orders[index] = order;
+        packets[index] = packet;
+
+        return result & 0xffffffffL;
+    }
+
+    /**
+     * Compares the order of packets
+     *
+     * @return true if the first one should be released earlier
+     */
+    private static boolean isEarlier(long dueTime1, long order1, long dueTime2, long order2) {
+        final long difference = dueTime1 - dueTime2;
+        if (difference != 0) {
+            return difference < 0;
+        }
+        return order1 < order2;
+    }
+
+    /**
+     * @return true if no packets scheduled
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of scheduled packets
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all scheduled packets
+     */
+    public synchronized void clear() {
+        size = 0;
+    }
+
+    /**
+     * Releases the storage if no packets scheduled, allocated again when scheduled
+     */
+    public synchronized void trimToSize() {
+        if (size == 0 && dueTimes.length > 0) {
+            dueTimes = new long[0];
+            orders = new long[0];
+            packets = new int[0];
+        }
+    }
+
+    /**
+     * @return the number of packets released since constructed
+     */
+    public synchronized long getReleasedCount() {
+        return releasedCount;
+    }
+
+    /**
+     * Get the average delay between the due time and the time actually released
+     *
+     * @return the average delay in nanoseconds
+     */
+    public synchronized long getAverageJitterNanos() {
+        if (releasedCount == 0) {
+            return 0;
+        }
+        return totalLatenessNanos / releasedCount;
+    }
+
+    /**
+     * Get the maximum delay between the due time and the time actually released
+     *
+     * @return the maximum delay in nanoseconds
+     */
+    public synchronized long getMaxJitterNanos() {
+        return maxLatenessNanos;
+    }
+}
@@ -0,0 +1,175 @@
+package jp.kshoji.driver.midi.util;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Utilities for USB MIDI event packets packed as int: <code>(header &lt;&lt; 24) | (byte1 &lt;&lt; 16) | (byte2 &lt;&lt; 8) | byte3</code>
+ *
+ * @author K.Shoji
+ */
+public final class UsbMidiPacketUtils {
+    // Code Index Number(0-15) to the number of MIDI bytes in the packet, 3 for the reserved ones
+    private static final int[] CODE_INDEX_NUMBER_LENGTHS = {
+            3, 3, 2, 3,
+            3, 1, 2, 3,
+            3, 3, 3, 3,
+            2, 2, 3, 1,
+    };
+
+    private UsbMidiPacketUtils() {
+    }
+
+    /**
+     * Get the cable ID of the packet
+     *
+     * @param packet the USB MIDI event packet
+     * @return the cable ID 0-15
+     */
+    public static int getCable(int packet) {
+        return packet >>> 28;
+    }
+
+    /**
+     * Get the Code Index Number of the packet
+     *
+     * @param packet the USB MIDI event packet
+     * @return the Code Index Number 0-15
+     */
+    public static int getCodeIndexNumber(int packet) {
+        return (packet >>> 24) & 0xf;
+    }
+
+    /**
+     * Get the first MIDI byte: the status byte, or the SysEx data
+     *
+     * @param packet the USB MIDI event packet
+     * @return the byte 0-255
+     */
+    public static int getByte1(int packet) {
+        return (packet >>> 16) & 0xff;
+    }
+
+    /**
+     * Get the second MIDI byte
+     *
+     * @param packet the USB MIDI event packet
+     * @return the byte 0-255
+     */
+    public static int getByte2(int packet) {
+        return (packet >>> 8) & 0xff;
+    }
+
+    /**
+     * Get the third MIDI byte
+     *
+     * @param packet the USB MIDI event packet
+     * @return the byte 0-255
+     */
+    public static int getByte3(int packet) {
+        return packet & 0xff;
+    }
+
+    /**
+     * Get the MIDI channel of the channel message
+     *
+     * @param packet the USB MIDI event packet
+     * @return the channel 0-15
+     */
+    public static int getChannel(int packet) {
+        return (packet >>> 16) & 0xf;
+    }
+
+    /**
+     * Get the 14 bits value of PitchBend Change, Song Position Pointer
+     *
+     * @param packet the USB MIDI event packet
+     * @return the value 0-16383
+     */
+    public static int get14BitValue(int packet) {
+        return ((packet & 0x7f) << 7) | ((packet >>> 8) & 0x7f);
+    }
+
+    /**
+     * Check if the packet is a channel message(Code Index Number: 0x8-0xe)
+     *
+     * @param packet the USB MIDI event packet
+     * @return true if channel message
+     */
+    public static boolean isChannelMessage(int packet) {
+        final int codeIndexNumber = getCodeIndexNumber(packet);
+        return codeIndexNumber >= 0x8 && codeIndexNumber <= 0xe;
+    }
+
+    /**
+     * Check if the packet is a part of SysEx message(Code Index Number: 0x4-0x7, except the single byte System Common message)
+     *
+     * @param packet the USB MIDI event packet
+     * @return true if SysEx
+     */
+    public static boolean isSystemExclusive(int packet) {
+        switch (getCodeIndexNumber(packet)) {
+            case 0x4:
+            case 0x6:
+            case 0x7:
+                return true;
+            case 0x5:
+                return getByte1(packet) == 0xf7;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get the number of MIDI bytes in the packet
+     *
+     * @param packet the USB MIDI event packet
+     * @return the length 1-3
+     */
+    public static int getMessageLength(int packet) {
+        return CODE_INDEX_NUMBER_LENGTHS[getCodeIndexNumber(packet)];
+    }
+
+    /**
+     * Get the number of MIDI bytes in the packet with the Code Index Number
+     *
+     * @param codeIndexNumber the Code Index Number 0-15
+     * @return the length 1-3
+     */
+    public static int getMessageLengthOfCodeIndexNumber(int codeIndexNumber) {
+        return CODE_INDEX_NUMBER_LENGTHS[codeIndexNumber & 0xf];
+    }
+
+    /**
+     * Copies the MIDI bytes in the packet
+     *
+     * @param packet the USB MIDI event packet
+     * @param destination the destination array
+     * @param offset the offset of the destination
+     * @return the number of bytes copied
+     */
+    public static int copyMessage(int packet, @NonNull byte[] destination, int offset) {
+        final int length = getMessageLength(packet);
+        destination[offset] = (byte) (packet >>> 16);
+        if (length > 1) {
+            destination[offset + 1] = (byte) (packet >>> 8);
+        }
+        if (length > 2) {
+            destination[offset + 2] = (byte) packet;
+        }
+        return length;
+    }
+
+    /**
+     * Packs the USB MIDI event packet into int
+     *
+     * @param cable the cable ID 0-15
+     * @param codeIndexNumber the Code Index Number 0-15
+     * @param byte1 the first MIDI byte
+     * @param byte2 the second MIDI byte
+     * @param byte3 the third MIDI byte
+     * @return the packed packet
+     */
+    public static int pack(int cable, int codeIndexNumber, int byte1, int byte2, int byte3) {
+        return ((((cable & 0xf) << 4) | (codeIndexNumber & 0xf)) << 24) | ((byte1 & 0xff) << 16) | ((byte2 & 0xff) << 8) | (byte3 & 0xff);
+    }
+}
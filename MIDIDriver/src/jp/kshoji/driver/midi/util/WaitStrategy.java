@@ -0,0 +1,24 @@
+package jp.kshoji.driver.midi.util;
+
+/**
+ * Strategy for the sending thread to wait for the next event, trades the CPU usage for the wake up latency
+ *
+ * @author K.Shoji
+ */
+public enum WaitStrategy {
+    /**
+     * The thread parks, and the sender unparks it only if parked
+     */
+    PARK,
+
+    /**
+     * The thread busy-spins, and then yields for a short time before parking.<br />
+     * Lowest latency for the events sent in bursts, with the highest CPU usage.
+     */
+    SPIN_YIELD,
+
+    /**
+     * The thread waits on a monitor, and the sender notifies it only if waiting
+     */
+    BLOCKING
+}
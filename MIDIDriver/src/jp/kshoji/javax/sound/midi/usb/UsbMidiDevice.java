@@ -31,6 +31,9 @@ public final class UsbMidiDevice implements MidiDevice {
     private final Map<MidiOutputDevice, Receiver> receivers = new HashMap<>();
     private final Map<MidiInputDevice, Transmitter> transmitters = new HashMap<>();
 
+    // the origin of getMicrosecondPosition(), shared by all the devices to pass the time stamps between them
+    private static final long TIME_ORIGIN_NANOS = System.nanoTime();
+
     private boolean isOpened;
 
     private Info cachedInfo = null;
@@ -141,8 +144,19 @@ public final class UsbMidiDevice implements MidiDevice {
 
     @Override
     public long getMicrosecondPosition() {
-        // time-stamping is not supported
-        return -1;
+        if (!isOpened) {
+            return -1;
+        }
+        return (System.nanoTime() - TIME_ORIGIN_NANOS) / 1000L;
+    }
+
+    /**
+     * Get the origin of {@link #getMicrosecondPosition()}, shared by all the UsbMidiDevices
+     *
+     * @return the time based on {@link System#nanoTime()}
+     */
+    static long getTimeOriginNanos() {
+        return TIME_ORIGIN_NANOS;
     }
 
     @Override
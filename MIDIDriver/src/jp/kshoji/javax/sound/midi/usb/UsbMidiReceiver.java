@@ -48,6 +48,11 @@ public final class UsbMidiReceiver implements MidiDeviceReceiver {
 		} else if (message instanceof SysexMessage) {
 			final SysexMessage sysexMessage = (SysexMessage) message;
 			outputDevice.sendMidiSystemExclusive(cableId, sysexMessage.getData());
+		} else if (message instanceof ShortMessage && timeStamp >= 0 && usbMidiDevice.isOpen()) {
+			// time-stamped: send at the time based on UsbMidiDevice#getMicrosecondPosition(), shared by all the devices
+			final byte[] data = message.getMessage();
+			final int length = message.getLength();
+			outputDevice.sendMidiMessageAt(UsbMidiDevice.getTimeOriginNanos() + timeStamp * 1000L, cableId, data[0] & 0xff, length > 1 ? data[1] & 0xff : 0, length > 2 ? data[2] & 0xff : 0);
 		} else if (message instanceof ShortMessage) {
 			final ShortMessage shortMessage = (ShortMessage) message;
 			switch (shortMessage.getCommand()) {
@@ -70,6 +70,19 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
         return usbMidiDevice;
     }
 
+    /**
+     * Get the time stamp of the event currently notified, based on {@link UsbMidiDevice#getMicrosecondPosition()}
+     *
+     * @param sender the MidiInputDevice
+     * @return the time stamp in microseconds, -1 if the device is not opened
+     */
+    private long getTimeStamp(@NonNull MidiInputDevice sender) {
+        if (!usbMidiDevice.isOpen()) {
+            return -1;
+        }
+        return Math.max(0, (sender.getEventTimestamp() - UsbMidiDevice.getTimeOriginNanos()) / 1000L);
+    }
+
     class OnMidiInputEventListenerImpl implements OnMidiInputEventListener {
 		@Override
 		public void onMidiMiscellaneousFunctionCodes(@NonNull MidiInputDevice sender, int cable, int byte1, int byte2, int byte3) {
@@ -77,7 +90,7 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
 				try {
 					final SysexMessage message = new SysexMessage();
 					message.setMessage(new byte[] {(byte) (byte1 & 0xff), (byte) (byte2 & 0xff), (byte) (byte3 & 0xff)}, 3);
-					receiver.send(message, -1);
+					receiver.send(message, getTimeStamp(sender));
 				} catch (final InvalidMidiDataException e) {
 					Log.d(Constants.TAG, "InvalidMidiDataException", e);
 				}
@@ -90,7 +103,7 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
 				try {
 					final SysexMessage message = new SysexMessage();
 					message.setMessage(new byte[] {(byte) (byte1 & 0xff), (byte) (byte2 & 0xff), (byte) (byte3 & 0xff)}, 3);
-					receiver.send(message, -1);
+					receiver.send(message, getTimeStamp(sender));
 				} catch (final InvalidMidiDataException e) {
 					Log.d(Constants.TAG, "InvalidMidiDataException", e);
 				}
@@ -103,7 +116,7 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
 				try {
 					final SysexMessage message = new SysexMessage();
 					message.setMessage(bytes, bytes.length);
-					receiver.send(message, -1);
+					receiver.send(message, getTimeStamp(sender));
 				} catch (final InvalidMidiDataException e) {
 					Log.d(Constants.TAG, "InvalidMidiDataException", e);
 				}
@@ -116,7 +129,7 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
 				try {
 					final SysexMessage message = new SysexMessage();
 					message.setMessage(systemExclusive, systemExclusive.length);
-					receiver.send(message, -1);
+					receiver.send(message, getTimeStamp(sender));
 				} catch (final InvalidMidiDataException e) {
 					Log.d(Constants.TAG, "InvalidMidiDataException", e);
 }
@@ -129,7 +142,7 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
 				try {
 					final ShortMessage message = new ShortMessage();
 					message.setMessage(ShortMessage.NOTE_OFF, channel, note, velocity);
-					receiver.send(message, -1);
+					receiver.send(message, getTimeStamp(sender));
 				} catch (final InvalidMidiDataException e) {
 					Log.d(Constants.TAG, "InvalidMidiDataException", e);
 				}
@@ -142,7 +155,7 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
 				try {
 					final ShortMessage message = new ShortMessage();
 					message.setMessage(ShortMessage.NOTE_ON, channel, note, velocity);
-					receiver.send(message, -1);
+					receiver.send(message, getTimeStamp(sender));
 				} catch (final InvalidMidiDataException e) {
 					Log.d(Constants.TAG, "InvalidMidiDataException", e);
 				}
@@ -155,7 +168,7 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
 				try {
 					final ShortMessage message = new ShortMessage();
 					message.setMessage(ShortMessage.POLY_PRESSURE, channel, note, pressure);
-					receiver.send(message, -1);
+					receiver.send(message, getTimeStamp(sender));
 				} catch (final InvalidMidiDataException e) {
 					Log.d(Constants.TAG, "InvalidMidiDataException", e);
 				}
@@ -168,7 +181,7 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
 				try {
 					final ShortMessage message = new ShortMessage();
 					message.setMessage(ShortMessage.CONTROL_CHANGE, channel, function, value);
-					receiver.send(message, -1);
+					receiver.send(message, getTimeStamp(sender));
 				} catch (final InvalidMidiDataException e) {
 					Log.d(Constants.TAG, "InvalidMidiDataException", e);
 				}
@@ -181,7 +194,7 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
 				try {
 					final ShortMessage message = new ShortMessage();
 					message.setMessage(ShortMessage.PROGRAM_CHANGE, channel, program, 0);
-					receiver.send(message, -1);
+					receiver.send(message, getTimeStamp(sender));
 				} catch (final InvalidMidiDataException e) {
 					Log.d(Constants.TAG, "InvalidMidiDataException", e);
 				}
@@ -194,7 +207,7 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
 				try {
 					final ShortMessage message = new ShortMessage();
 					message.setMessage(ShortMessage.CHANNEL_PRESSURE, channel, pressure, 0);
-					receiver.send(message, -1);
+					receiver.send(message, getTimeStamp(sender));
 				} catch (final InvalidMidiDataException e) {
 					Log.d(Constants.TAG, "InvalidMidiDataException", e);
 				}
@@ -207,7 +220,7 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
 				try {
 					final ShortMessage message = new ShortMessage();
 					message.setMessage(ShortMessage.PITCH_BEND, channel, amount & 0x7f, (amount >> 7) & 0x7f);
-					receiver.send(message, -1);
+					receiver.send(message, getTimeStamp(sender));
 				} catch (final InvalidMidiDataException e) {
 					Log.d(Constants.TAG, "InvalidMidiDataException", e);
 				}
@@ -220,7 +233,7 @@ public final class UsbMidiTransmitter implements MidiDeviceTransmitter {
                 try {
                     final ShortMessage message = new ShortMessage();
                     message.setMessage(new byte[] {(byte) (byte1 & 0xff)}, 1);
-                    receiver.send(message, -1);
+                    receiver.send(message, getTimeStamp(sender));
                 } catch (final InvalidMidiDataException e) {
                     Log.d(Constants.TAG, "InvalidMidiDataException", e);
                 }
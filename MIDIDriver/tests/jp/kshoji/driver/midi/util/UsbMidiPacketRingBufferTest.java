@@ -0,0 +1,193 @@
+package jp.kshoji.driver.midi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-producer stress test of {@link UsbMidiPacketRingBuffer}, for each {@link BackPressurePolicy}.<br />
+ * Several producers offer numbered packets into a small buffer, and one consumer polls them.
+ * Each producer uses its own cable, so the order of each producer is checked with the numbers.
+ *
+ * @author K.Shoji
+ */
+public class UsbMidiPacketRingBufferTest {
+    private static final int CAPACITY = 64;
+    private static final int PRODUCER_COUNT = 4;
+    // 14 bits: the number is stored in the 2nd and 3rd bytes of the packet
+    private static final int PACKETS_PER_PRODUCER = 16000;
+    private static final int ROUNDS = 20;
+
+    /**
+     * The result of polling all the packets
+     */
+    private static final class Result {
+        long polledCount;
+        long orderErrorCount;
+        // the number of each producer last polled, -1 if nothing polled
+        final int[] lastNumbers = new int[PRODUCER_COUNT];
+        // the packets polled for each producer
+        final long[] polledCounts = new long[PRODUCER_COUNT];
+    }
+
+    /**
+     * Packet for the producer, with the number
+     *
+     * @param codeIndexNumber the Code Index Number
+     * @param producer the producer, used as the cable ID
+     * @param number the number 0-16383
+     * @return the packet
+     */
+    private static int packet(int codeIndexNumber, int producer, int number) {
+        return (producer << 28) | (codeIndexNumber << 24) | ((0x80 | (codeIndexNumber << 4)) << 16) | (number & 0x3fff);
+    }
+
+    /**
+     * Offers the packets from the producers, and polls them on this thread until all the producers finished
+     *
+     * @param buffer the buffer
+     * @param codeIndexNumber the Code Index Number of the packets: 0x9 Note-on, or 0xe Pitch Bend to be coalesced
+     * @param offeredCount counts the packets the offer method returned true
+     * @return the Result
+     */
+    private static Result run(final UsbMidiPacketRingBuffer buffer, final int codeIndexNumber, final AtomicLong offeredCount) throws InterruptedException {
+        final Thread[] producers = new Thread[PRODUCER_COUNT];
+        for (int p = 0; p < PRODUCER_COUNT; p++) {
+            final int producer = p;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < PACKETS_PER_PRODUCER; i++) {
+                    if (buffer.offer(packet(codeIndexNumber, producer, i))) {
+                        offeredCount.incrementAndGet();
+                    }
+                }
+            });
+            producers[p].start();
+        }
+
+        final Result result = new Result();
+        Arrays.fill(result.lastNumbers, -1);
+        boolean producing = true;
+        while (true) {
+            final long polled = buffer.poll();
+            if (polled == UsbMidiPacketRingBuffer.EMPTY) {
+                if (!producing) {
+                    break;
+                }
+                producing = false;
+                for (Thread producer : producers) {
+                    producing |= producer.isAlive();
+                }
+                continue;
+            }
+
+            final int packet = (int) polled;
+            final int producer = packet >>> 28;
+            final int number = packet & 0x3fff;
+            assertEquals("the packet must not be modified", codeIndexNumber, (packet >>> 24) & 0xf);
+            if (number <= result.lastNumbers[producer]) {
+                result.orderErrorCount++;
+            }
+            result.lastNumbers[producer] = number;
+            result.polledCounts[producer]++;
+            result.polledCount++;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        return result;
+    }
+
+    @Test(timeout = 120000)
+    public void blockDeliversAllPacketsInOrder() throws InterruptedException {
+        for (int round = 0; round < ROUNDS; round++) {
+            final UsbMidiPacketRingBuffer buffer = new UsbMidiPacketRingBuffer(CAPACITY, BackPressurePolicy.BLOCK);
+            final AtomicLong offeredCount = new AtomicLong();
+            final Result result = run(buffer, 0x9, offeredCount);
+
+            assertEquals(0, result.orderErrorCount);
+            assertEquals(0, buffer.getDroppedCount());
+            assertEquals(PRODUCER_COUNT * PACKETS_PER_PRODUCER, result.polledCount);
+            for (int p = 0; p < PRODUCER_COUNT; p++) {
+                assertEquals(PACKETS_PER_PRODUCER, result.polledCounts[p]);
+                assertEquals(PACKETS_PER_PRODUCER - 1, result.lastNumbers[p]);
+            }
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void dropNewestLosesOnlyDroppedPackets() throws InterruptedException {
+        for (int round = 0; round < ROUNDS; round++) {
+            final UsbMidiPacketRingBuffer buffer = new UsbMidiPacketRingBuffer(CAPACITY, BackPressurePolicy.DROP_NEWEST);
+            final AtomicLong offeredCount = new AtomicLong();
+            final Result result = run(buffer, 0x9, offeredCount);
+
+            assertEquals(0, result.orderErrorCount);
+            assertEquals(offeredCount.get(), result.polledCount);
+            assertEquals(PRODUCER_COUNT * PACKETS_PER_PRODUCER, result.polledCount + buffer.getDroppedCount());
+            assertCableCounts(buffer);
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void dropOldestLosesOnlyDroppedPackets() throws InterruptedException {
+        for (int round = 0; round < ROUNDS; round++) {
+            // the producers poll to drop the oldest packets, concurrently with the consumer
+            final UsbMidiPacketRingBuffer buffer = new UsbMidiPacketRingBuffer(CAPACITY, BackPressurePolicy.DROP_OLDEST);
+            final AtomicLong offeredCount = new AtomicLong();
+            final Result result = run(buffer, 0x9, offeredCount);
+
+            assertEquals(0, result.orderErrorCount);
+            assertEquals(PRODUCER_COUNT * PACKETS_PER_PRODUCER, offeredCount.get());
+            assertEquals(PRODUCER_COUNT * PACKETS_PER_PRODUCER, result.polledCount + buffer.getDroppedCount());
+            assertCableCounts(buffer);
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void coalesceKeepsOrderAndOverwritesOnlySameDestination() throws InterruptedException {
+        for (int round = 0; round < ROUNDS; round++) {
+            // Pitch Bend: coalesced with the queued one of the same cable and channel
+            final UsbMidiPacketRingBuffer buffer = new UsbMidiPacketRingBuffer(CAPACITY, BackPressurePolicy.COALESCE);
+            final AtomicLong offeredCount = new AtomicLong();
+            final Result result = run(buffer, 0xe, offeredCount);
+
+            // an overwritten packet has the newer number, so the order is kept
+            assertEquals(0, result.orderErrorCount);
+            assertEquals(PRODUCER_COUNT * PACKETS_PER_PRODUCER, result.polledCount + buffer.getDroppedCount());
+            assertCableCounts(buffer);
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void coalesceDoesNotOverwriteOtherEvents() throws InterruptedException {
+        for (int round = 0; round < ROUNDS; round++) {
+            // Note-on: never coalesced, discarded like DROP_NEWEST
+            final UsbMidiPacketRingBuffer buffer = new UsbMidiPacketRingBuffer(CAPACITY, BackPressurePolicy.COALESCE);
+            final AtomicLong offeredCount = new AtomicLong();
+            final Result result = run(buffer, 0x9, offeredCount);
+
+            assertEquals(0, result.orderErrorCount);
+            assertEquals(offeredCount.get(), result.polledCount);
+            assertEquals(PRODUCER_COUNT * PACKETS_PER_PRODUCER, result.polledCount + buffer.getDroppedCount());
+            assertCableCounts(buffer);
+        }
+    }
+
+    /**
+     * Checks the offered and polled counts of each cable agree, after all the packets polled
+     *
+     * @param buffer the buffer
+     */
+    private static void assertCableCounts(UsbMidiPacketRingBuffer buffer) {
+        assertTrue(buffer.isEmpty());
+        for (int cable = 0; cable < 16; cable++) {
+            assertEquals(buffer.getOfferedCount(cable), buffer.getPolledCount(cable));
+            assertEquals(0, buffer.size(cable));
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package android.annotation;
+
+/**
+ * Stand-in for android.annotation.SuppressLint
+ *
+ * @author K.Shoji
+ */
+public @interface SuppressLint {
+    String[] value();
+}
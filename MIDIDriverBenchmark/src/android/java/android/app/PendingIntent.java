@@ -0,0 +1,32 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Stand-in for android.app.PendingIntent
+ *
+ * @author K.Shoji
+ */
+public final class PendingIntent {
+    public static final int FLAG_UPDATE_CURRENT = 1 << 27;
+    public static final int FLAG_MUTABLE = 1 << 25;
+    public static final int FLAG_ALLOW_UNSAFE_IMPLICIT_INTENT = 1 << 24;
+
+    private final Intent intent;
+
+    private PendingIntent(Intent intent) {
+        this.intent = intent;
+    }
+
+    public static PendingIntent getBroadcast(Context context, int requestCode, Intent intent, int flags) {
+        return new PendingIntent(intent);
+    }
+
+    /**
+     * @return the Intent to broadcast, not in the Android API
+     */
+    public Intent getIntent() {
+        return intent;
+    }
+}
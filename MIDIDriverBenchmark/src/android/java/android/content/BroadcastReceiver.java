@@ -0,0 +1,10 @@
+package android.content;
+
+/**
+ * Stand-in for android.content.BroadcastReceiver
+ *
+ * @author K.Shoji
+ */
+public abstract class BroadcastReceiver {
+    public abstract void onReceive(Context context, Intent intent);
+}
@@ -0,0 +1,50 @@
+package android.content;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stand-in for android.content.Context, the broadcasts are delivered on the main looper
+ *
+ * @author K.Shoji
+ */
+public class Context {
+    public static final int RECEIVER_NOT_EXPORTED = 4;
+
+    private final Map<BroadcastReceiver, IntentFilter> receivers = new ConcurrentHashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public String getPackageName() {
+        return "jp.kshoji.driver.midi.benchmark";
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        receivers.put(receiver, filter);
+        return null;
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter, int flags) {
+        return registerReceiver(receiver, filter);
+    }
+
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+        receivers.remove(receiver);
+    }
+
+    public void sendBroadcast(final Intent intent) {
+        mainHandler.post(() -> {
+            for (Map.Entry<BroadcastReceiver, IntentFilter> entry : receivers.entrySet()) {
+                if (entry.getValue().hasAction(intent.getAction()) && receivers.containsKey(entry.getKey())) {
+                    entry.getKey().onReceive(this, intent);
+                }
+            }
+        });
+    }
+}
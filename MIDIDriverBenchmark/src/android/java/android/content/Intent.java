@@ -0,0 +1,67 @@
+package android.content;
+
+import android.os.Parcelable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for android.content.Intent
+ *
+ * @author K.Shoji
+ */
+public class Intent {
+    private final String action;
+    private final Map<String, Object> extras = new HashMap<>();
+    private String packageName;
+
+    public Intent(String action) {
+        this.action = action;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public String getPackage() {
+        return packageName;
+    }
+
+    public Intent setPackage(String packageName) {
+        this.packageName = packageName;
+        return this;
+    }
+
+    public Intent putExtra(String name, String value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, boolean value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, Parcelable value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public String getStringExtra(String name) {
+        return (String) extras.get(name);
+    }
+
+    public boolean getBooleanExtra(String name, boolean defaultValue) {
+        Object value = extras.get(name);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> T getParcelableExtra(String name) {
+        return (T) extras.get(name);
+    }
+
+    public <T> T getParcelableExtra(String name, Class<T> clazz) {
+        return clazz.cast(extras.get(name));
+    }
+}
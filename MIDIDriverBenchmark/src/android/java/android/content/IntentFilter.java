@@ -0,0 +1,25 @@
+package android.content;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for android.content.IntentFilter
+ *
+ * @author K.Shoji
+ */
+public class IntentFilter {
+    private final List<String> actions = new ArrayList<>();
+
+    public IntentFilter(String action) {
+        actions.add(action);
+    }
+
+    public final void addAction(String action) {
+        actions.add(action);
+    }
+
+    public final boolean hasAction(String action) {
+        return actions.contains(action);
+    }
+}
@@ -0,0 +1,22 @@
+package android.hardware.usb;
+
+/**
+ * Stand-in for android.hardware.usb.UsbConstants
+ *
+ * @author K.Shoji
+ */
+public final class UsbConstants {
+    public static final int USB_ENDPOINT_DIR_MASK = 0x80;
+    public static final int USB_DIR_OUT = 0;
+    public static final int USB_DIR_IN = 0x80;
+    public static final int USB_ENDPOINT_NUMBER_MASK = 0x0f;
+    public static final int USB_ENDPOINT_XFERTYPE_MASK = 0x03;
+    public static final int USB_ENDPOINT_XFER_CONTROL = 0;
+    public static final int USB_ENDPOINT_XFER_ISOC = 1;
+    public static final int USB_ENDPOINT_XFER_BULK = 2;
+    public static final int USB_ENDPOINT_XFER_INT = 3;
+    public static final int USB_CLASS_AUDIO = 1;
+
+    private UsbConstants() {
+    }
+}
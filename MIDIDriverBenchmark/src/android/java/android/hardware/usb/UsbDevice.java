@@ -0,0 +1,61 @@
+package android.hardware.usb;
+
+import android.os.Parcelable;
+
+import java.util.Arrays;
+
+/**
+ * Stand-in for android.hardware.usb.UsbDevice
+ *
+ * @author K.Shoji
+ */
+public class UsbDevice implements Parcelable {
+    private final String deviceName;
+    private final int vendorId;
+    private final int productId;
+    private final UsbInterface[] interfaces;
+
+    public UsbDevice(String deviceName, int vendorId, int productId, UsbInterface... interfaces) {
+        this.deviceName = deviceName;
+        this.vendorId = vendorId;
+        this.productId = productId;
+        this.interfaces = Arrays.copyOf(interfaces, interfaces.length);
+    }
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    public int getDeviceId() {
+        return deviceName.hashCode();
+    }
+
+    public int getVendorId() {
+        return vendorId;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public String getManufacturerName() {
+        return null;
+    }
+
+    public String getProductName() {
+        return null;
+    }
+
+    public int getInterfaceCount() {
+        return interfaces.length;
+    }
+
+    public UsbInterface getInterface(int index) {
+        return interfaces[index];
+    }
+
+    @Override
+    public String toString() {
+        return "UsbDevice[" + deviceName + "]";
+    }
+}
@@ -0,0 +1,79 @@
+package android.hardware.usb;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Stand-in for android.hardware.usb.UsbDeviceConnection<br />
+ * No device is behind it: transfers fail and queued requests never complete, unless a subclass overrides them.
+ *
+ * @author K.Shoji
+ */
+public class UsbDeviceConnection {
+    private final UsbDevice device;
+
+    public UsbDeviceConnection(UsbDevice device) {
+        this.device = device;
+    }
+
+    public boolean claimInterface(UsbInterface usbInterface, boolean force) {
+        return true;
+    }
+
+    public boolean releaseInterface(UsbInterface usbInterface) {
+        return true;
+    }
+
+    public byte[] getRawDescriptors() {
+        return null;
+    }
+
+    public int controlTransfer(int requestType, int request, int value, int index, byte[] buffer, int length, int timeout) {
+        return -1;
+    }
+
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int length, int timeout) {
+        return bulkTransfer(endpoint, buffer, 0, length, timeout);
+    }
+
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int offset, int length, int timeout) {
+        return -1;
+    }
+
+    public UsbRequest requestWait() {
+        return null;
+    }
+
+    public UsbRequest requestWait(long timeout) throws TimeoutException {
+        throw new TimeoutException();
+    }
+
+    public void close() {
+    }
+
+    /**
+     * Called by {@link UsbRequest#queue(ByteBuffer)}, not in the Android API
+     *
+     * @param request the request
+     * @param buffer the buffer queued
+     * @return true if queued
+     */
+    protected boolean onRequestQueued(UsbRequest request, ByteBuffer buffer) {
+        return true;
+    }
+
+    /**
+     * Called by {@link UsbRequest#cancel()}, not in the Android API
+     *
+     * @param request the request
+     * @return true if cancelled
+     */
+    protected boolean onRequestCancelled(UsbRequest request) {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "UsbDeviceConnection[" + device + "]";
+    }
+}
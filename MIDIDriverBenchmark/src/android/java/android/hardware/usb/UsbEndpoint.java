@@ -0,0 +1,48 @@
+package android.hardware.usb;
+
+/**
+ * Stand-in for android.hardware.usb.UsbEndpoint
+ *
+ * @author K.Shoji
+ */
+public class UsbEndpoint {
+    private final int address;
+    private final int attributes;
+    private final int maxPacketSize;
+    private final int interval;
+
+    public UsbEndpoint(int address, int attributes, int maxPacketSize, int interval) {
+        this.address = address;
+        this.attributes = attributes;
+        this.maxPacketSize = maxPacketSize;
+        this.interval = interval;
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+    public int getEndpointNumber() {
+        return address & UsbConstants.USB_ENDPOINT_NUMBER_MASK;
+    }
+
+    public int getDirection() {
+        return address & UsbConstants.USB_ENDPOINT_DIR_MASK;
+    }
+
+    public int getAttributes() {
+        return attributes;
+    }
+
+    public int getType() {
+        return attributes & UsbConstants.USB_ENDPOINT_XFERTYPE_MASK;
+    }
+
+    public int getMaxPacketSize() {
+        return maxPacketSize;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+}
@@ -0,0 +1,42 @@
+package android.hardware.usb;
+
+import java.util.Arrays;
+
+/**
+ * Stand-in for android.hardware.usb.UsbInterface
+ *
+ * @author K.Shoji
+ */
+public class UsbInterface {
+    private final int id;
+    private final int interfaceClass;
+    private final int interfaceSubclass;
+    private final UsbEndpoint[] endpoints;
+
+    public UsbInterface(int id, int interfaceClass, int interfaceSubclass, UsbEndpoint... endpoints) {
+        this.id = id;
+        this.interfaceClass = interfaceClass;
+        this.interfaceSubclass = interfaceSubclass;
+        this.endpoints = Arrays.copyOf(endpoints, endpoints.length);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getInterfaceClass() {
+        return interfaceClass;
+    }
+
+    public int getInterfaceSubclass() {
+        return interfaceSubclass;
+    }
+
+    public int getEndpointCount() {
+        return endpoints.length;
+    }
+
+    public UsbEndpoint getEndpoint(int index) {
+        return endpoints[index];
+    }
+}
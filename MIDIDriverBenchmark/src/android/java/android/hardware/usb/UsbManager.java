@@ -0,0 +1,32 @@
+package android.hardware.usb;
+
+import android.app.PendingIntent;
+
+import java.util.HashMap;
+
+/**
+ * Stand-in for android.hardware.usb.UsbManager, no device is attached unless a subclass overrides it
+ *
+ * @author K.Shoji
+ */
+public class UsbManager {
+    public static final String ACTION_USB_DEVICE_ATTACHED = "android.hardware.usb.action.USB_DEVICE_ATTACHED";
+    public static final String ACTION_USB_DEVICE_DETACHED = "android.hardware.usb.action.USB_DEVICE_DETACHED";
+    public static final String EXTRA_DEVICE = "device";
+    public static final String EXTRA_PERMISSION_GRANTED = "permission";
+
+    public HashMap<String, UsbDevice> getDeviceList() {
+        return new HashMap<>();
+    }
+
+    public UsbDeviceConnection openDevice(UsbDevice device) {
+        return null;
+    }
+
+    public boolean hasPermission(UsbDevice device) {
+        return true;
+    }
+
+    public void requestPermission(UsbDevice device, PendingIntent pi) {
+    }
+}
@@ -0,0 +1,49 @@
+package android.hardware.usb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stand-in for android.hardware.usb.UsbRequest<br />
+ * Queueing and cancelling are left to the {@link UsbDeviceConnection}.
+ *
+ * @author K.Shoji
+ */
+public class UsbRequest {
+    private UsbDeviceConnection connection;
+    private UsbEndpoint endpoint;
+    private Object clientData;
+
+    public boolean initialize(UsbDeviceConnection connection, UsbEndpoint endpoint) {
+        this.connection = connection;
+        this.endpoint = endpoint;
+        return true;
+    }
+
+    public void close() {
+    }
+
+    public UsbEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public Object getClientData() {
+        return clientData;
+    }
+
+    public void setClientData(Object data) {
+        clientData = data;
+    }
+
+    public boolean queue(ByteBuffer buffer) {
+        return connection.onRequestQueued(this, buffer);
+    }
+
+    public boolean queue(ByteBuffer buffer, int length) {
+        buffer.limit(buffer.position() + length);
+        return connection.onRequestQueued(this, buffer);
+    }
+
+    public boolean cancel() {
+        return connection.onRequestCancelled(this);
+    }
+}
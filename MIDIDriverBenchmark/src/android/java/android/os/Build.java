@@ -0,0 +1,27 @@
+package android.os;
+
+/**
+ * Stand-in for android.os.Build
+ *
+ * @author K.Shoji
+ */
+public class Build {
+    public static class VERSION {
+        /**
+         * API Level to run as, set with -Dandroid.sdk=n
+         */
+        public static final int SDK_INT = Integer.getInteger("android.sdk", VERSION_CODES.UPSIDE_DOWN_CAKE);
+    }
+
+    public static class VERSION_CODES {
+        public static final int HONEYCOMB_MR1 = 12;
+        public static final int HONEYCOMB_MR2 = 13;
+        public static final int JELLY_BEAN_MR2 = 18;
+        public static final int LOLLIPOP = 21;
+        public static final int M = 23;
+        public static final int O = 26;
+        public static final int P = 28;
+        public static final int TIRAMISU = 33;
+        public static final int UPSIDE_DOWN_CAKE = 34;
+    }
+}
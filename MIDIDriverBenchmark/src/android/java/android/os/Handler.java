@@ -0,0 +1,26 @@
+package android.os;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for android.os.Handler
+ *
+ * @author K.Shoji
+ */
+public class Handler {
+    private final Looper looper;
+
+    public Handler(Looper looper) {
+        this.looper = looper;
+    }
+
+    public final boolean post(Runnable runnable) {
+        looper.executor.execute(runnable);
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable runnable, long delayMillis) {
+        looper.executor.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+}
@@ -0,0 +1,26 @@
+package android.os;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Stand-in for android.os.Looper, the main looper runs the messages on a thread named "main"
+ *
+ * @author K.Shoji
+ */
+public final class Looper {
+    private static final Looper MAIN_LOOPER = new Looper();
+
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "main");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN_LOOPER;
+    }
+}
@@ -0,0 +1,9 @@
+package android.os;
+
+/**
+ * Stand-in for android.os.Parcelable
+ *
+ * @author K.Shoji
+ */
+public interface Parcelable {
+}
@@ -0,0 +1,38 @@
+package android.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for android.util.SparseIntArray
+ *
+ * @author K.Shoji
+ */
+public class SparseIntArray {
+    private final Map<Integer, Integer> values = new HashMap<>();
+
+    public int get(int key) {
+        return get(key, 0);
+    }
+
+    public int get(int key, int valueIfKeyNotFound) {
+        Integer value = values.get(key);
+        return value == null ? valueIfKeyNotFound : value;
+    }
+
+    public void put(int key, int value) {
+        values.put(key, value);
+    }
+
+    public void delete(int key) {
+        values.remove(key);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public void clear() {
+        values.clear();
+    }
+}
@@ -0,0 +1,22 @@
+package jp.kshoji.driver.usb.util;
+
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stand-in for the DeviceFilter read from the resources, matches no device
+ *
+ * @author K.Shoji
+ */
+public final class DeviceFilter {
+    public static List<DeviceFilter> getDeviceFilters(Context context) {
+        return Collections.emptyList();
+    }
+
+    public boolean matches(UsbDevice device) {
+        return false;
+    }
+}
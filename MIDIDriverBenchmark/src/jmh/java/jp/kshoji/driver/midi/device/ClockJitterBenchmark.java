@@ -0,0 +1,102 @@
+package jp.kshoji.driver.midi.device;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Enqueue-to-wire latency of the Timing Clock sent with {@link MidiOutputDevice}, while bulk traffic is queued.<br />
+ * The device takes 125 microseconds for each 64-byte transfer.
+ * Before each sample, the bulk traffic is queued: 256 Control Changes, or a 1 KiB SysEx.
+ * The spread of the samples is the jitter added to the clock interval.
+ *
+ * @author K.Shoji
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClockJitterBenchmark {
+    private static final long TRANSFER_NANOS = 125_000L;
+    private static final int CONTROL_CHANGE_COUNT = 256;
+    private static final int SYSTEM_EXCLUSIVE_SIZE = 1024;
+
+    /**
+     * none, controlChange or systemExclusive
+     */
+    @Param({"none", "controlChange", "systemExclusive"})
+    public String bulkTraffic;
+
+    private MidiOutputDevice midiOutputDevice;
+    private WireUsbDeviceConnection usbDeviceConnection;
+    private byte[] systemExclusive;
+    private long packetCount;
+    private long timingClockCount;
+
+    @Setup
+    public void setUp() {
+        UsbEndpoint usbEndpoint = new UsbEndpoint(UsbConstants.USB_DIR_OUT | 2, UsbConstants.USB_ENDPOINT_XFER_BULK, 64, 0);
+        UsbInterface usbInterface = new UsbInterface(0, UsbConstants.USB_CLASS_AUDIO, 3, usbEndpoint);
+        UsbDevice usbDevice = new UsbDevice("/dev/bus/usb/001/002", 0, 0, usbInterface);
+        usbDeviceConnection = new WireUsbDeviceConnection(usbDevice, TRANSFER_NANOS);
+        midiOutputDevice = new MidiOutputDevice(usbDevice, usbDeviceConnection, usbInterface, usbEndpoint);
+
+        systemExclusive = new byte[SYSTEM_EXCLUSIVE_SIZE];
+        systemExclusive[0] = (byte) 0xf0;
+        systemExclusive[SYSTEM_EXCLUSIVE_SIZE - 1] = (byte) 0xf7;
+    }
+
+    @TearDown
+    public void tearDown() {
+        midiOutputDevice.stop();
+    }
+
+    @Setup(Level.Invocation)
+    public void queueBulkTraffic() {
+        // the previous bulk traffic has been sent
+        while (usbDeviceConnection.getPacketCount() < packetCount) {
+            LockSupport.parkNanos(TRANSFER_NANOS);
+        }
+
+        if ("controlChange".equals(bulkTraffic)) {
+            for (int i = 0; i < CONTROL_CHANGE_COUNT; i++) {
+                midiOutputDevice.sendMidiControlChange(0, i & 0xf, 1, i & 0x7f);
+            }
+            packetCount += CONTROL_CHANGE_COUNT;
+        } else if ("systemExclusive".equals(bulkTraffic)) {
+            midiOutputDevice.sendMidiSystemExclusive(0, systemExclusive);
+            packetCount += (SYSTEM_EXCLUSIVE_SIZE + 2) / 3;
+        }
+    }
+
+    @Benchmark
+    public long sendTimingClock() {
+        packetCount++;
+        timingClockCount++;
+        midiOutputDevice.sendMidiTimingClock(0);
+        while (usbDeviceConnection.getTimingClockCount() < timingClockCount) {
+            Thread.yield();
+        }
+        return timingClockCount;
+    }
+}
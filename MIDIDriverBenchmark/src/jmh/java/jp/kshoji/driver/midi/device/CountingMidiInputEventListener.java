@@ -0,0 +1,190 @@
+package jp.kshoji.driver.midi.device;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.locks.LockSupport;
+
+import jp.kshoji.driver.midi.listener.OnMidiInputEventListener;
+import jp.kshoji.driver.midi.listener.OnMidiInputPacketBatchListener;
+
+/**
+ * OnMidiInputEventListener counting the events, called from one receiving thread.<br />
+ * As an OnMidiInputPacketBatchListener, counts each packet as an event.
+ *
+ * @author K.Shoji
+ */
+class CountingMidiInputEventListener implements OnMidiInputEventListener, OnMidiInputPacketBatchListener {
+    // only the receiving thread updates
+    private volatile long eventCount;
+    private volatile long awaitedEventCount = Long.MAX_VALUE;
+    private volatile Thread awaitingThread;
+
+    /**
+     * @return the number of events received
+     */
+    long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Waits until the number of events reaches the count
+     *
+     * @param count the event count to wait
+     */
+    void awaitEventCount(long count) {
+        awaitingThread = Thread.currentThread();
+        awaitedEventCount = count;
+        while (eventCount < count) {
+            LockSupport.park(this);
+        }
+        awaitedEventCount = Long.MAX_VALUE;
+    }
+
+    /**
+     * Counts the events
+     *
+     * @param events the number of events received
+     */
+    final void onEvents(int events) {
+        long count = eventCount + events;
+        eventCount = count;
+        if (count >= awaitedEventCount) {
+            LockSupport.unpark(awaitingThread);
+        }
+    }
+
+    @Override
+    public void onMidiInputPacketBatch(@NonNull MidiInputDevice sender, @NonNull int[] packets, int count, long timestampNanos) {
+        onEvents(count);
+    }
+
+    @Override
+    public void onMidiMiscellaneousFunctionCodes(@NonNull MidiInputDevice sender, int cable, int byte1, int byte2, int byte3) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiCableEvents(@NonNull MidiInputDevice sender, int cable, int byte1, int byte2, int byte3) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiSystemCommonMessage(@NonNull MidiInputDevice sender, int cable, byte[] bytes) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiSystemExclusive(@NonNull MidiInputDevice sender, int cable, byte[] systemExclusive) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiNoteOff(@NonNull MidiInputDevice sender, int cable, int channel, int note, int velocity) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiNoteOn(@NonNull MidiInputDevice sender, int cable, int channel, int note, int velocity) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiPolyphonicAftertouch(@NonNull MidiInputDevice sender, int cable, int channel, int note, int pressure) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiControlChange(@NonNull MidiInputDevice sender, int cable, int channel, int function, int value) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiProgramChange(@NonNull MidiInputDevice sender, int cable, int channel, int program) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiChannelAftertouch(@NonNull MidiInputDevice sender, int cable, int channel, int pressure) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiPitchWheel(@NonNull MidiInputDevice sender, int cable, int channel, int amount) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiSingleByte(@NonNull MidiInputDevice sender, int cable, int byte1) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiTimeCodeQuarterFrame(@NonNull MidiInputDevice sender, int cable, int timing) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiSongSelect(@NonNull MidiInputDevice sender, int cable, int song) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiSongPositionPointer(@NonNull MidiInputDevice sender, int cable, int position) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiTuneRequest(@NonNull MidiInputDevice sender, int cable) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiTimingClock(@NonNull MidiInputDevice sender, int cable) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiStart(@NonNull MidiInputDevice sender, int cable) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiContinue(@NonNull MidiInputDevice sender, int cable) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiStop(@NonNull MidiInputDevice sender, int cable) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiActiveSensing(@NonNull MidiInputDevice sender, int cable) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiReset(@NonNull MidiInputDevice sender, int cable) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiRPNReceived(@NonNull MidiInputDevice sender, int cable, int channel, int function, int valueMSB, int valueLSB) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiNRPNReceived(@NonNull MidiInputDevice sender, int cable, int channel, int function, int valueMSB, int valueLSB) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiRPNReceived(@NonNull MidiInputDevice sender, int cable, int channel, int function, int value) {
+        onEvents(1);
+    }
+
+    @Override
+    public void onMidiNRPNReceived(@NonNull MidiInputDevice sender, int cable, int channel, int function, int value) {
+        onEvents(1);
+    }
+}
@@ -0,0 +1,195 @@
+package jp.kshoji.driver.midi.device;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+
+import androidx.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jp.kshoji.driver.midi.listener.OnMidiDeviceAttachedListener;
+import jp.kshoji.driver.midi.listener.OnMidiDeviceDetachedListener;
+
+/**
+ * Time from starting {@link MidiDeviceConnectionWatcher} until all of the attached devices are ready,
+ * by the number of devices.<br />
+ * Each device has one MIDIStreaming interface with an IN and an OUT endpoint, and is ready when both of its
+ * {@link MidiInputDevice} and {@link MidiOutputDevice} are notified to the {@link OnMidiDeviceAttachedListener}.<br />
+ * The USB host is simulated: the permission dialog answers {@link #GRANT_MILLIS} after the request, when the
+ * permission has not been granted yet, and {@link UsbManager#openDevice(UsbDevice)} blocks for {@link #OPEN_MILLIS}.
+ * These are assumptions, not the measurements of a real device.
+ *
+ * @author K.Shoji
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DeviceOpenBenchmark {
+    private static final long GRANT_MILLIS = 50;
+    private static final long OPEN_MILLIS = 30;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    @Param({"1", "4", "8", "16"})
+    public int deviceCount;
+
+    @Param({"false", "true"})
+    public boolean granted;
+
+    private Context context;
+    private SimulatedUsbManager usbManager;
+    private CountDownLatch readyLatch;
+    private OnMidiDeviceAttachedListener deviceAttachedListener;
+    private MidiDeviceConnectionWatcher deviceConnectionWatcher;
+
+    private static final OnMidiDeviceDetachedListener DEVICE_DETACHED_LISTENER = new OnMidiDeviceDetachedListener() {
+        @Override
+        public void onDeviceDetached(@NonNull UsbDevice usbDevice) {
+        }
+
+        @Override
+        public void onMidiInputDeviceDetached(@NonNull MidiInputDevice midiInputDevice) {
+        }
+
+        @Override
+        public void onMidiOutputDeviceDetached(@NonNull MidiOutputDevice midiOutputDevice) {
+        }
+    };
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        context = new Context();
+        usbManager = new SimulatedUsbManager(context, deviceCount, granted);
+        final CountDownLatch latch = new CountDownLatch(deviceCount * 2);
+        readyLatch = latch;
+        deviceAttachedListener = new OnMidiDeviceAttachedListener() {
+            @Override
+            public void onDeviceAttached(@NonNull UsbDevice usbDevice) {
+            }
+
+            @Override
+            public void onMidiInputDeviceAttached(@NonNull MidiInputDevice midiInputDevice) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onMidiOutputDeviceAttached(@NonNull MidiOutputDevice midiOutputDevice) {
+                latch.countDown();
+            }
+        };
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        if (deviceConnectionWatcher != null) {
+            deviceConnectionWatcher.stop();
+            deviceConnectionWatcher = null;
+        }
+        usbManager.shutdown();
+    }
+
+    @Benchmark
+    public MidiDeviceConnectionWatcher attach() throws InterruptedException {
+        deviceConnectionWatcher = new MidiDeviceConnectionWatcher(context, usbManager, deviceAttachedListener, DEVICE_DETACHED_LISTENER);
+        if (!readyLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("devices not ready in " + TIMEOUT_SECONDS + " seconds");
+        }
+        return deviceConnectionWatcher;
+    }
+
+    /**
+     * UsbManager with the MIDI devices attached, answering the permission requests with the broadcasts
+     */
+    private static final class SimulatedUsbManager extends UsbManager {
+        private final Context context;
+        private final HashMap<String, UsbDevice> deviceMap = new HashMap<>();
+        private final Set<UsbDevice> grantedDevices = ConcurrentHashMap.newKeySet();
+        private final ScheduledExecutorService permissionDialog = Executors.newSingleThreadScheduledExecutor();
+
+        /**
+         * Constructor
+         *
+         * @param context the Context to send the permission results
+         * @param deviceCount the number of the attached devices
+         * @param granted true: the permissions have been granted already
+         */
+        SimulatedUsbManager(@NonNull Context context, int deviceCount, boolean granted) {
+            this.context = context;
+            for (int i = 0; i < deviceCount; i++) {
+                UsbEndpoint inEndpoint = new UsbEndpoint(UsbConstants.USB_DIR_IN | 1, UsbConstants.USB_ENDPOINT_XFER_BULK, 64, 0);
+                UsbEndpoint outEndpoint = new UsbEndpoint(UsbConstants.USB_DIR_OUT | 2, UsbConstants.USB_ENDPOINT_XFER_BULK, 64, 0);
+                UsbInterface usbInterface = new UsbInterface(0, UsbConstants.USB_CLASS_AUDIO, 3, inEndpoint, outEndpoint);
+                UsbDevice usbDevice = new UsbDevice("/dev/bus/usb/001/" + (i + 2), 0, 0, usbInterface);
+                deviceMap.put(usbDevice.getDeviceName(), usbDevice);
+                if (granted) {
+                    grantedDevices.add(usbDevice);
+                }
+            }
+        }
+
+        void shutdown() {
+            permissionDialog.shutdownNow();
+        }
+
+        @Override
+        public HashMap<String, UsbDevice> getDeviceList() {
+            return new HashMap<>(deviceMap);
+        }
+
+        @Override
+        public UsbDeviceConnection openDevice(UsbDevice device) {
+            try {
+                Thread.sleep(OPEN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return new FeedingUsbDeviceConnection(device);
+        }
+
+        @Override
+        public boolean hasPermission(UsbDevice device) {
+            return grantedDevices.contains(device);
+        }
+
+        @Override
+        public void requestPermission(final UsbDevice device, final PendingIntent pi) {
+            permissionDialog.schedule(() -> {
+                grantedDevices.add(device);
+                Intent intent = pi.getIntent();
+                intent.putExtra(UsbManager.EXTRA_DEVICE, device);
+                intent.putExtra(UsbManager.EXTRA_PERMISSION_GRANTED, true);
+                context.sendBroadcast(intent);
+            }, GRANT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
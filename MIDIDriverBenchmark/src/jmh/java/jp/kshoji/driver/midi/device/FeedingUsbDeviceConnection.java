@@ -0,0 +1,135 @@
+package jp.kshoji.driver.midi.device;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * UsbDeviceConnection receiving the USB MIDI packets fed by the benchmark on the IN endpoint,
+ * with bulkTransfer or with the queued UsbRequests. The OUT requests complete at once.
+ *
+ * @author K.Shoji
+ */
+final class FeedingUsbDeviceConnection extends UsbDeviceConnection {
+    // guarded by this
+    private final ArrayDeque<byte[]> fedData = new ArrayDeque<>();
+    private final ArrayDeque<UsbRequest> pendingRequests = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> pendingBuffers = new ArrayDeque<>();
+
+    private final LinkedBlockingQueue<UsbRequest> completedRequests = new LinkedBlockingQueue<>();
+
+    /**
+     * Constructor
+     *
+     * @param usbDevice the UsbDevice
+     */
+    FeedingUsbDeviceConnection(@NonNull UsbDevice usbDevice) {
+        super(usbDevice);
+    }
+
+    /**
+     * Receives the data on the IN endpoint
+     *
+     * @param data the USB MIDI packets, not longer than the read length
+     */
+    synchronized void feed(@NonNull byte[] data) {
+        final UsbRequest request = pendingRequests.poll();
+        if (request != null) {
+            pendingBuffers.poll().put(data);
+            completedRequests.add(request);
+            return;
+        }
+        fedData.add(data);
+        notifyAll();
+    }
+
+    @Override
+    public synchronized int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int offset, int length, int timeout) {
+        if (endpoint.getDirection() == UsbConstants.USB_DIR_OUT) {
+            return length;
+        }
+        if (fedData.isEmpty()) {
+            try {
+                wait(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+        final byte[] data = fedData.poll();
+        if (data == null) {
+            return -1;
+        }
+        System.arraycopy(data, 0, buffer, offset, data.length);
+        return data.length;
+    }
+
+    @Override
+    protected synchronized boolean onRequestQueued(UsbRequest request, ByteBuffer buffer) {
+        if (request.getEndpoint().getDirection() == UsbConstants.USB_DIR_OUT) {
+            buffer.position(buffer.limit());
+            completedRequests.add(request);
+            return true;
+        }
+        final byte[] data = fedData.poll();
+        if (data != null) {
+            buffer.put(data);
+            completedRequests.add(request);
+            return true;
+        }
+        pendingRequests.add(request);
+        pendingBuffers.add(buffer);
+        return true;
+    }
+
+    @Override
+    protected synchronized boolean onRequestCancelled(UsbRequest request) {
+        final Iterator<ByteBuffer> buffers = pendingBuffers.iterator();
+        for (Iterator<UsbRequest> requests = pendingRequests.iterator(); requests.hasNext(); ) {
+            buffers.next();
+            if (requests.next() == request) {
+                requests.remove();
+                buffers.remove();
+                completedRequests.add(request);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public UsbRequest requestWait() {
+        try {
+            return completedRequests.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public UsbRequest requestWait(long timeout) throws TimeoutException {
+        final UsbRequest request;
+        try {
+            request = timeout == 0 ? completedRequests.poll() : completedRequests.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException();
+        }
+        if (request == null) {
+            throw new TimeoutException();
+        }
+        return request;
+    }
+}
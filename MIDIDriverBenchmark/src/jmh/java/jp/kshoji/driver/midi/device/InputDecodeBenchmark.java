@@ -0,0 +1,72 @@
+package jp.kshoji.driver.midi.device;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to receive one event with {@link MidiInputDevice}: from the read, through the decoder, to the listener callback.<br />
+ * The recorded traffic is replayed on the input thread in transfers of transferSize bytes,
+ * 62 bytes splits the packets across the transfers.
+ *
+ * @author K.Shoji
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputDecodeBenchmark {
+    private static final int EVENT_COUNT = 10000;
+
+    @Param({"64", "62"})
+    public int transferSize;
+
+    private MidiInputDevice midiInputDevice;
+    private ReplayUsbDeviceConnection usbDeviceConnection;
+    private CountingMidiInputEventListener midiEventListener;
+
+    @Setup
+    public void setUp() {
+        UsbEndpoint usbEndpoint = new UsbEndpoint(UsbConstants.USB_DIR_IN | 1, UsbConstants.USB_ENDPOINT_XFER_BULK, 64, 0);
+        UsbInterface usbInterface = new UsbInterface(0, UsbConstants.USB_CLASS_AUDIO, 3, usbEndpoint);
+        UsbDevice usbDevice = new UsbDevice("/dev/bus/usb/001/002", 0, 0, usbInterface);
+        usbDeviceConnection = new ReplayUsbDeviceConnection(usbDevice, UsbMidiTraffic.performance(EVENT_COUNT), transferSize);
+
+        midiEventListener = new CountingMidiInputEventListener();
+        midiInputDevice = new MidiInputDevice(usbDevice, usbDeviceConnection, usbInterface, usbEndpoint);
+        midiInputDevice.setMidiEventListener(midiEventListener);
+    }
+
+    @TearDown
+    public void tearDown() {
+        midiInputDevice.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public long receive() {
+        long eventCount = midiEventListener.getEventCount() + EVENT_COUNT;
+        usbDeviceConnection.replay();
+        midiEventListener.awaitEventCount(eventCount);
+        return eventCount;
+    }
+}
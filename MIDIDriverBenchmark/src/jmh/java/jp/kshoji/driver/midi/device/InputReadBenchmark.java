@@ -0,0 +1,120 @@
+package jp.kshoji.driver.midi.device;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receiving 10k events with {@link MidiInputDevice}, by the read size and the listener.<br />
+ * The connection returns as many queued packets as each read asks for, like the kernel coalescing them into one transfer.
+ * The counters report the events, the transfers and the CPU time of the input thread, per iteration:
+ * events / transfers is the events per syscall, cpuNanos * 10000 / events is the CPU time per 10k events.
+ *
+ * @author K.Shoji
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputReadBenchmark {
+    private static final int EVENT_COUNT = 10000;
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    /**
+     * {@link MidiInputDevice#setReadPacketCount(int)}
+     */
+    @Param({"1", "8", "32"})
+    public int readPacketCount;
+
+    /**
+     * event: {@link jp.kshoji.driver.midi.listener.OnMidiInputEventListener}, decoded events<br />
+     * batch: {@link jp.kshoji.driver.midi.listener.OnMidiInputPacketBatchListener}, packets without decoding
+     */
+    @Param({"event", "batch"})
+    public String listener;
+
+    private MidiInputDevice midiInputDevice;
+    private ReplayUsbDeviceConnection usbDeviceConnection;
+    private CountingMidiInputEventListener midiEventListener;
+    private int eventCount;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long events;
+        public long transfers;
+        public long cpuNanos;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            events = 0;
+            transfers = 0;
+            cpuNanos = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        byte[] traffic = UsbMidiTraffic.performance(EVENT_COUNT);
+        UsbEndpoint usbEndpoint = new UsbEndpoint(UsbConstants.USB_DIR_IN | 1, UsbConstants.USB_ENDPOINT_XFER_BULK, 64, 0);
+        UsbInterface usbInterface = new UsbInterface(0, UsbConstants.USB_CLASS_AUDIO, 3, usbEndpoint);
+        UsbDevice usbDevice = new UsbDevice("/dev/bus/usb/001/002", 0, 0, usbInterface);
+        usbDeviceConnection = new ReplayUsbDeviceConnection(usbDevice, traffic, Integer.MAX_VALUE);
+
+        midiEventListener = new CountingMidiInputEventListener();
+        midiInputDevice = new MidiInputDevice(usbDevice, usbDeviceConnection, usbInterface, usbEndpoint);
+        midiInputDevice.setReadPacketCount(readPacketCount);
+        if ("batch".equals(listener)) {
+            midiInputDevice.setMidiInputPacketBatchListener(midiEventListener);
+            eventCount = traffic.length / 4;
+        } else {
+            midiInputDevice.setMidiEventListener(midiEventListener);
+            eventCount = EVENT_COUNT;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        midiInputDevice.stop();
+    }
+
+    @Benchmark
+    public long receive(Counters counters) {
+        long transferCount = usbDeviceConnection.getTransferCount();
+        Thread readingThread = usbDeviceConnection.getReadingThread();
+        long cpuNanos = readingThread == null ? 0 : THREAD_MX_BEAN.getThreadCpuTime(readingThread.getId());
+
+        long eventCount = midiEventListener.getEventCount() + this.eventCount;
+        usbDeviceConnection.replay();
+        midiEventListener.awaitEventCount(eventCount);
+
+        if (readingThread != null) {
+            counters.cpuNanos += THREAD_MX_BEAN.getThreadCpuTime(readingThread.getId()) - cpuNanos;
+        }
+        counters.transfers += usbDeviceConnection.getTransferCount() - transferCount;
+        counters.events += EVENT_COUNT;
+        return eventCount;
+    }
+}
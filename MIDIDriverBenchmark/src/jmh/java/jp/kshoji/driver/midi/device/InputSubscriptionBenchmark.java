@@ -0,0 +1,92 @@
+package jp.kshoji.driver.midi.device;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.kshoji.driver.midi.util.MidiMessageType;
+
+/**
+ * Dispatching one Note On to the subscribers of {@link MidiInputDevice}.<br />
+ * Each subscriber listens to the Note On of its own cable and channel, the events go round the 4 cables and 16 channels.
+ * registry: the per-cable dispatch tables of {@link MidiInputSubscriptionRegistry},
+ * fanOut: calling every subscriber that matches, the way to compare with.
+ *
+ * @author K.Shoji
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputSubscriptionBenchmark {
+    private static final int CABLE_COUNT = 4;
+    private static final int EVENT_COUNT = CABLE_COUNT * 16;
+
+    @Param({"1", "8", "64"})
+    public int subscriberCount;
+
+    private MidiInputDevice midiInputDevice;
+    private MidiInputSubscriptionRegistry registry;
+    private MidiInputSubscription[] subscriptions;
+
+    @Setup
+    public void setUp() {
+        UsbEndpoint usbEndpoint = new UsbEndpoint(UsbConstants.USB_DIR_IN | 1, UsbConstants.USB_ENDPOINT_XFER_BULK, 64, 0);
+        UsbInterface usbInterface = new UsbInterface(0, UsbConstants.USB_CLASS_AUDIO, 3, usbEndpoint);
+        UsbDevice usbDevice = new UsbDevice("/dev/bus/usb/001/002", 0, 0, usbInterface);
+        midiInputDevice = new MidiInputDevice(usbDevice, new ReplayUsbDeviceConnection(usbDevice, new byte[0], 0), usbInterface, usbEndpoint);
+
+        registry = new MidiInputSubscriptionRegistry();
+        subscriptions = new MidiInputSubscription[subscriberCount];
+        for (int i = 0; i < subscriberCount; i++) {
+            subscriptions[i] = new MidiInputSubscription(new CountingMidiInputEventListener(), (i >> 4) % CABLE_COUNT, i & 0xf, MidiMessageType.NOTE_ON);
+            registry.add(subscriptions[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        midiInputDevice.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public void registry() {
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            registry.onMidiNoteOn(midiInputDevice, i >> 4, i & 0xf, 60, 100);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public void fanOut() {
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            int cable = i >> 4;
+            int channel = i & 0xf;
+            for (MidiInputSubscription subscription : subscriptions) {
+                if (subscription.matches(cable, channel, MidiMessageType.NOTE_ON)) {
+                    subscription.listener.onMidiNoteOn(midiInputDevice, cable, channel, 60, 100);
+                }
+            }
+        }
+    }
+}
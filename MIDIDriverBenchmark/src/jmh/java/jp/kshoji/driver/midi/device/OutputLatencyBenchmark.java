@@ -0,0 +1,79 @@
+package jp.kshoji.driver.midi.device;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import jp.kshoji.driver.midi.util.WaitStrategy;
+
+/**
+ * Enqueue-to-wire latency of {@link MidiOutputDevice}, by the {@link WaitStrategy} of the sending thread.<br />
+ * Each sample sends one Note On after the sending thread has been idle for 2 milliseconds,
+ * and ends when the packet reaches bulkTransfer. The benchmark thread yields while waiting.
+ *
+ * @author K.Shoji
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputLatencyBenchmark {
+    private static final long IDLE_NANOS = 2_000_000L;
+
+    @Param({"PARK", "SPIN_YIELD", "BLOCKING"})
+    public WaitStrategy waitStrategy;
+
+    private MidiOutputDevice midiOutputDevice;
+    private WireUsbDeviceConnection usbDeviceConnection;
+
+    @Setup
+    public void setUp() {
+        UsbEndpoint usbEndpoint = new UsbEndpoint(UsbConstants.USB_DIR_OUT | 2, UsbConstants.USB_ENDPOINT_XFER_BULK, 64, 0);
+        UsbInterface usbInterface = new UsbInterface(0, UsbConstants.USB_CLASS_AUDIO, 3, usbEndpoint);
+        UsbDevice usbDevice = new UsbDevice("/dev/bus/usb/001/002", 0, 0, usbInterface);
+        usbDeviceConnection = new WireUsbDeviceConnection(usbDevice);
+
+        midiOutputDevice = new MidiOutputDevice(usbDevice, usbDeviceConnection, usbInterface, usbEndpoint);
+        midiOutputDevice.setWaitStrategy(waitStrategy);
+    }
+
+    @TearDown
+    public void tearDown() {
+        midiOutputDevice.stop();
+    }
+
+    @Setup(Level.Invocation)
+    public void idle() {
+        LockSupport.parkNanos(IDLE_NANOS);
+    }
+
+    @Benchmark
+    public long sendNoteOn() {
+        long packetCount = usbDeviceConnection.getPacketCount() + 1;
+        midiOutputDevice.sendMidiNoteOn(0, 0, 60, 100);
+        while (usbDeviceConnection.getPacketCount() < packetCount) {
+            Thread.yield();
+        }
+        return packetCount;
+    }
+}
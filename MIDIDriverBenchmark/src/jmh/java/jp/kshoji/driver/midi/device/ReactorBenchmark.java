@@ -0,0 +1,166 @@
+package jp.kshoji.driver.midi.device;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CPU time and context switches of receiving on {@link MidiInputDevice}s, by the number of devices,
+ * with a WaiterThread per device or with {@link UsbMidiReactor}.<br />
+ * Each invocation lasts 100 milliseconds: every millisecond, each device receives one USB MIDI packet.
+ * The counters report per iteration: cpuNanos of all the threads, contextSwitches of the process (Linux only, -1 elsewhere),
+ * and threads, the live threads at the end.
+ *
+ * @author K.Shoji
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReactorBenchmark {
+    private static final int TICK_COUNT = 100;
+    private static final long TICK_NANOS = 1_000_000L;
+    private static final byte[] NOTE_ON = {0x09, (byte) 0x90, 60, 100};
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    @Param({"1", "4", "16"})
+    public int deviceCount;
+
+    @Param({"false", "true"})
+    public boolean reactor;
+
+    private MidiInputDevice[] midiInputDevices;
+    private FeedingUsbDeviceConnection[] usbDeviceConnections;
+    private CountingMidiInputEventListener midiEventListener;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long cpuNanos;
+        public long contextSwitches;
+        public long threads;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            cpuNanos = 0;
+            contextSwitches = 0;
+            threads = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        UsbMidiReactor.setEnabled(reactor);
+        midiEventListener = new CountingMidiInputEventListener();
+        midiInputDevices = new MidiInputDevice[deviceCount];
+        usbDeviceConnections = new FeedingUsbDeviceConnection[deviceCount];
+        for (int i = 0; i < deviceCount; i++) {
+            UsbEndpoint usbEndpoint = new UsbEndpoint(UsbConstants.USB_DIR_IN | 1, UsbConstants.USB_ENDPOINT_XFER_BULK, 64, 0);
+            UsbInterface usbInterface = new UsbInterface(0, UsbConstants.USB_CLASS_AUDIO, 3, usbEndpoint);
+            UsbDevice usbDevice = new UsbDevice("/dev/bus/usb/001/" + (i + 2), 0, 0, usbInterface);
+            usbDeviceConnections[i] = new FeedingUsbDeviceConnection(usbDevice);
+            midiInputDevices[i] = new MidiInputDevice(usbDevice, usbDeviceConnections[i], usbInterface, usbEndpoint);
+            midiInputDevices[i].setMidiEventListener(midiEventListener);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (MidiInputDevice midiInputDevice : midiInputDevices) {
+            midiInputDevice.stop();
+        }
+        UsbMidiReactor.setEnabled(false);
+    }
+
+    @Benchmark
+    public long receive(Counters counters) {
+        final long cpuNanos = getCpuNanos();
+        final long contextSwitches = getContextSwitches();
+
+        long eventCount = midiEventListener.getEventCount();
+        long nextTickNanos = System.nanoTime();
+        for (int tick = 0; tick < TICK_COUNT; tick++) {
+            for (FeedingUsbDeviceConnection usbDeviceConnection : usbDeviceConnections) {
+                usbDeviceConnection.feed(NOTE_ON);
+            }
+            eventCount += deviceCount;
+            nextTickNanos += TICK_NANOS;
+            long waitNanos;
+            while ((waitNanos = nextTickNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+        }
+        midiEventListener.awaitEventCount(eventCount);
+
+        counters.cpuNanos += getCpuNanos() - cpuNanos;
+        counters.contextSwitches = contextSwitches < 0 ? -1 : counters.contextSwitches + getContextSwitches() - contextSwitches;
+        counters.threads = Thread.activeCount();
+        return eventCount;
+    }
+
+    /**
+     * @return the CPU time of all the live threads
+     */
+    private static long getCpuNanos() {
+        long cpuNanos = 0;
+        for (long threadId : THREAD_MX_BEAN.getAllThreadIds()) {
+            final long threadCpuNanos = THREAD_MX_BEAN.getThreadCpuTime(threadId);
+            if (threadCpuNanos > 0) {
+                cpuNanos += threadCpuNanos;
+            }
+        }
+        return cpuNanos;
+    }
+
+    /**
+     * @return the voluntary and involuntary context switches of all the threads of this process, -1 if not available
+     */
+    private static long getContextSwitches() {
+        final File[] tasks = new File("/proc/self/task").listFiles();
+        if (tasks == null) {
+            return -1;
+        }
+        long contextSwitches = 0;
+        for (File task : tasks) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(new File(task, "status")))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.endsWith("ctxt_switches:") || !line.contains("ctxt_switches:")) {
+                        continue;
+                    }
+                    contextSwitches += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+                }
+            } catch (IOException | NumberFormatException e) {
+                // the thread has exited
+            }
+        }
+        return contextSwitches;
+    }
+}
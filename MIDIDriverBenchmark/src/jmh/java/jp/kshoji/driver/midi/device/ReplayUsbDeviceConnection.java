@@ -0,0 +1,80 @@
+package jp.kshoji.driver.midi.device;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+
+import androidx.annotation.NonNull;
+
+/**
+ * UsbDeviceConnection replaying the recorded USB MIDI traffic on the IN endpoint
+ *
+ * @author K.Shoji
+ */
+final class ReplayUsbDeviceConnection extends UsbDeviceConnection {
+    private final byte[] traffic;
+    private final int transferSize;
+    // guarded by this
+    private int position;
+    private long transferCount;
+    private Thread readingThread;
+
+    /**
+     * Constructor
+     *
+     * @param usbDevice the UsbDevice
+     * @param traffic the USB MIDI packets to replay
+     * @param transferSize the maximum bytes returned by one transfer
+     */
+    ReplayUsbDeviceConnection(@NonNull UsbDevice usbDevice, @NonNull byte[] traffic, int transferSize) {
+        super(usbDevice);
+        this.traffic = traffic;
+        this.transferSize = transferSize;
+        position = traffic.length;
+    }
+
+    /**
+     * Starts sending the traffic again from the top
+     */
+    synchronized void replay() {
+        position = 0;
+        notifyAll();
+    }
+
+    /**
+     * @return the number of transfers returned data
+     */
+    synchronized long getTransferCount() {
+        return transferCount;
+    }
+
+    /**
+     * @return the thread called bulkTransfer last
+     */
+    synchronized Thread getReadingThread() {
+        return readingThread;
+    }
+
+    @Override
+    public synchronized int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int offset, int length, int timeout) {
+        readingThread = Thread.currentThread();
+        if (position == traffic.length) {
+            // nothing to send: waits like a device with no events
+            try {
+                wait(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+            if (position == traffic.length) {
+                return -1;
+            }
+        }
+
+        int transferred = Math.min(Math.min(length, transferSize), traffic.length - position);
+        System.arraycopy(traffic, position, buffer, offset, transferred);
+        position += transferred;
+        transferCount++;
+        return transferred;
+    }
+}
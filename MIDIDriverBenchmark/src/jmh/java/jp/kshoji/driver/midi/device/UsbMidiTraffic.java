@@ -0,0 +1,83 @@
+package jp.kshoji.driver.midi.device;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * USB MIDI traffic for the benchmarks, recorded as a keyboard performance would send it
+ *
+ * @author K.Shoji
+ */
+final class UsbMidiTraffic {
+    // Identity Reply, sent as 4 packets of CIN 0x4 and 1 packet of CIN 0x7
+    private static final byte[] SYSTEM_EXCLUSIVE = {(byte) 0xf0, 0x7e, 0x7f, 0x06, 0x02, 0x43, 0x00, 0x41, 0x12, 0x34, 0x00, 0x00, 0x00, 0x01, (byte) 0xf7};
+
+    private UsbMidiTraffic() {
+    }
+
+    /**
+     * Notes, control changes, pitch bends, channel pressures and timing clocks on all channels, with a SysEx every 64 events.
+     *
+     * @param eventCount the number of events, each one is delivered with one listener callback
+     * @return the USB MIDI packets
+     */
+    static byte[] performance(int eventCount) {
+        ByteArrayOutputStream traffic = new ByteArrayOutputStream(eventCount * 8);
+        for (int i = 0; i < eventCount; i++) {
+            int channel = (i >> 3) & 0xf;
+            int value = i & 0x7f;
+            if ((i & 0x3f) == 0x3f) {
+                writeSystemExclusive(traffic, SYSTEM_EXCLUSIVE);
+                continue;
+            }
+            switch (i & 7) {
+                case 0:
+                case 1:
+                    writePacket(traffic, 0x9, 0x90 | channel, value, 100);
+                    break;
+                case 2:
+                case 3:
+                    writePacket(traffic, 0x8, 0x80 | channel, value, 0);
+                    break;
+                case 4:
+                    writePacket(traffic, 0xb, 0xb0 | channel, 1, value);
+                    break;
+                case 5:
+                    writePacket(traffic, 0xe, 0xe0 | channel, value, 0x40);
+                    break;
+                case 6:
+                    writePacket(traffic, 0xf, 0xf8, 0, 0);
+                    break;
+                default:
+                    writePacket(traffic, 0xd, 0xd0 | channel, value, 0);
+                    break;
+            }
+        }
+        return traffic.toByteArray();
+    }
+
+    private static void writeSystemExclusive(ByteArrayOutputStream traffic, byte[] systemExclusive) {
+        int offset = 0;
+        while (systemExclusive.length - offset > 3) {
+            writePacket(traffic, 0x4, systemExclusive[offset], systemExclusive[offset + 1], systemExclusive[offset + 2]);
+            offset += 3;
+        }
+        switch (systemExclusive.length - offset) {
+            case 1:
+                writePacket(traffic, 0x5, systemExclusive[offset], 0, 0);
+                break;
+            case 2:
+                writePacket(traffic, 0x6, systemExclusive[offset], systemExclusive[offset + 1], 0);
+                break;
+            default:
+                writePacket(traffic, 0x7, systemExclusive[offset], systemExclusive[offset + 1], systemExclusive[offset + 2]);
+                break;
+        }
+    }
+
+    private static void writePacket(ByteArrayOutputStream traffic, int codeIndexNumber, int byte1, int byte2, int byte3) {
+        traffic.write(codeIndexNumber);
+        traffic.write(byte1);
+        traffic.write(byte2);
+        traffic.write(byte3);
+    }
+}
@@ -0,0 +1,76 @@
+package jp.kshoji.driver.midi.device;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+
+import androidx.annotation.NonNull;
+
+/**
+ * UsbDeviceConnection accepting everything written to the OUT endpoint, and counting the USB MIDI packets
+ *
+ * @author K.Shoji
+ */
+final class WireUsbDeviceConnection extends UsbDeviceConnection {
+    private final long transferNanos;
+    // only the sending thread updates
+    private volatile long packetCount;
+    private volatile long timingClockCount;
+
+    /**
+     * Constructor, the transfers complete at once
+     *
+     * @param usbDevice the UsbDevice
+     */
+    WireUsbDeviceConnection(@NonNull UsbDevice usbDevice) {
+        this(usbDevice, 0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param usbDevice the UsbDevice
+     * @param transferNanos the time each transfer takes, like a device accepting one packet per (micro)frame
+     */
+    WireUsbDeviceConnection(@NonNull UsbDevice usbDevice, long transferNanos) {
+        super(usbDevice);
+        this.transferNanos = transferNanos;
+    }
+
+    /**
+     * @return the number of USB MIDI packets written
+     */
+    long getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * @return the number of Timing Clock packets written
+     */
+    long getTimingClockCount() {
+        return timingClockCount;
+    }
+
+    @Override
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int offset, int length, int timeout) {
+        if (transferNanos > 0) {
+            // not parking: the interrupt status of the sending thread must not shorten the transfer
+            long transferEndNanos = System.nanoTime() + transferNanos;
+            while (System.nanoTime() < transferEndNanos) {
+                Thread.yield();
+            }
+        }
+
+        int timingClocks = 0;
+        for (int i = offset; i + 3 < offset + length; i += 4) {
+            if ((buffer[i] & 0xf) == 0xf && (buffer[i + 1] & 0xff) == 0xf8) {
+                timingClocks++;
+            }
+        }
+        if (timingClocks > 0) {
+            timingClockCount = timingClockCount + timingClocks;
+        }
+        packetCount = packetCount + length / 4;
+        return length;
+    }
+}